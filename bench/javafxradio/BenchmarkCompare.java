@@ -0,0 +1,111 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+//compares two JMH csv result files: the time per operation and the bytes allocated
+//per operation (-prof gc) of every benchmark and parameter set. Exits with 1 when
+//one got slower or allocates more than the tolerance allows.
+//Usage: BenchmarkCompare baseline.csv results.csv [tolerance percent]
+public final class BenchmarkCompare {
+    private static final String ALLOCATION = ":gc.alloc.rate.norm";
+    //a few bytes per operation are measuring noise, not a new allocation
+    private static final double ALLOCATION_SLACK = 8;
+
+    private BenchmarkCompare(){
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2){
+            System.out.println("Usage: BenchmarkCompare baseline.csv results.csv [tolerance]");
+            System.exit(2);
+        }
+        final Path baselineFile = Paths.get(args[0]);
+        if(!Files.exists(baselineFile)){
+            System.out.println("No baseline at "+baselineFile+", run ant bench-baseline first");
+            System.exit(2);
+        }
+        final double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        final Map<String, Double> baseline = read(baselineFile);
+        final Map<String, Double> results = read(Paths.get(args[1]));
+
+        int regressions = 0;
+        for(Map.Entry<String, Double> e : results.entrySet()){
+            final Double before = baseline.get(e.getKey());
+            if(before == null){
+                System.out.printf(Locale.ROOT, "%-70s %12.2f  (new)%n", e.getKey(), e.getValue());
+                continue;
+            }
+            final double now = e.getValue();
+            final double change = before == 0 ? 0 : (now - before) / before * 100;
+            final double slack = e.getKey().contains(ALLOCATION) ? ALLOCATION_SLACK : 0;
+            final boolean regressed = now > before * (1 + tolerance / 100) + slack;
+            if(regressed){
+                ++regressions;
+            }
+            System.out.printf(Locale.ROOT, "%-70s %12.2f %12.2f %+8.1f%%%s%n", e.getKey(),
+                    before, now, change, regressed ? "  REGRESSION" : "");
+        }
+        System.out.println(regressions + " regression(s), tolerance "+tolerance+"%");
+        if(regressions > 0){
+            System.exit(1);
+        }
+    }
+
+    //score by "benchmark param=value ..." for the primary and allocation rows
+    private static Map<String, Double> read(Path file) throws IOException {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        final Map<String, Double> scores = new LinkedHashMap<>();
+        if(lines.isEmpty()){
+            return scores;
+        }
+        final List<String> header = split(lines.get(0));
+        final int score = header.indexOf("Score");
+        for (int i = 1; i < lines.size(); i++) {
+            final List<String> row = split(lines.get(i));
+            if(row.size() < header.size()){
+                continue;
+            }
+            final String name = row.get(0);
+            if(name.contains(":") && !name.endsWith(ALLOCATION)){
+                continue;
+            }
+            final StringBuilder key = new StringBuilder(name);
+            for (int c = 0; c < header.size(); c++) {
+                if(header.get(c).startsWith("Param: ") && !row.get(c).isEmpty()){
+                    key.append(' ').append(header.get(c).substring(7))
+                            .append('=').append(row.get(c));
+                }
+            }
+            scores.put(key.toString(), Double.parseDouble(row.get(score)));
+        }
+        return scores;
+    }
+
+    private static List<String> split(String line){
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if(c == '"'){
+                quoted = !quoted;
+            } else if(c == ',' && !quoted){
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,33 @@
+package javafxradio;
+
+import java.util.concurrent.TimeUnit;
+import javafx.util.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//the text of currentTimeLabel and totalDurationLabel
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatDurationBenchmark {
+    private final Duration[] durations = {
+        Duration.ZERO, Duration.seconds(59), Duration.minutes(3.5), Duration.hours(2)
+    };
+    private int index;
+
+    @Benchmark
+    public String formatDuration(){
+        index = (index + 1) & (durations.length - 1);
+        return PlayerControlsView.formatDuration(durations[index]);
+    }
+}
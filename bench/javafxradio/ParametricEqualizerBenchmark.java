@@ -0,0 +1,92 @@
+package javafxradio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//one block of the PCM engine through the equalizer. 0 bands is the cost of the call
+//and the block copy alone, the other counts scale with bands times channels.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParametricEqualizerBenchmark {
+    //PcmPlayer's block at 44.1 kHz is about this long
+    private static final int FRAMES = 1024;
+    private static final float RATE = 44100;
+
+    @Param({"0", "10", "32"})
+    int bands;
+
+    @Param({"1", "2", "8"})
+    int channels;
+
+    private AudioFormat format;
+    //the input, copied into samples before every call so the filters see the same signal
+    private float[] source;
+    private float[] samples;
+    private ParametricEqualizer equalizer;
+    private ParametricEqualizer ramping;
+    private List<ParametricEqualizer.Band> flat;
+    private List<ParametricEqualizer.Band> boosted;
+    private boolean toggle;
+
+    @Setup
+    public void setup(){
+        format = new AudioFormat(RATE, 16, channels, true, false);
+        final Random random = new Random(1);
+        source = new float[FRAMES * channels];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (float)(random.nextGaussian() * 0.1);
+        }
+        samples = new float[source.length];
+        flat = new ArrayList<>(bands);
+        boosted = new ArrayList<>(bands);
+        //log spaced from 31 Hz to 16 kHz like a graphic equalizer
+        for (int b = 0; b < bands; b++) {
+            final double frequency = 31.25 * Math.pow(512, bands == 1 ? 0 : b / (bands - 1.0));
+            final double gain = b % 2 == 0 ? 3 : -3;
+            flat.add(new ParametricEqualizer.Band(ParametricEqualizer.Type.PEAKING,
+                    frequency, 1.41, 0.5));
+            boosted.add(new ParametricEqualizer.Band(ParametricEqualizer.Type.PEAKING,
+                    frequency, 1.41, gain));
+        }
+        equalizer = new ParametricEqualizer();
+        equalizer.setBands(boosted);
+        //the ramp to the bands runs in the first calls, they belong to warmup
+        ramping = new ParametricEqualizer();
+        ramping.setBands(flat);
+    }
+
+    @Benchmark
+    public float[] process(){
+        System.arraycopy(source, 0, samples, 0, samples.length);
+        equalizer.process(samples, FRAMES, format);
+        return samples;
+    }
+
+    //a preset change every block, so every block recomputes and ramps coefficients
+    @Benchmark
+    public float[] processWhileRamping(){
+        toggle = !toggle;
+        ramping.setBands(toggle ? boosted : flat);
+        System.arraycopy(source, 0, samples, 0, samples.length);
+        ramping.process(samples, FRAMES, format);
+        return samples;
+    }
+}
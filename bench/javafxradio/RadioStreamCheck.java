@@ -0,0 +1,183 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//runs a RadioStream against a stand-in station on the loopback interface:
+//  the first connection sends a little audio with ICY metadata and then goes silent,
+//  the relay has to notice the gap and reconnect on its own; later connections send
+//  audio steadily. The player side must only ever get audio bytes.
+//  A station that accepts but never answers must make start() fail.
+//Exits with 1 when a check fails. Usage: RadioStreamCheck
+public final class RadioStreamCheck {
+    private static final int META_INTERVAL = 1024;
+    private static final byte AUDIO = 'A';
+    private static final int BUFFER_MILLIS = 500;
+
+    private static int failures;
+
+    private RadioStreamCheck(){
+    }
+
+    public static void main(String[] args) throws Exception {
+        checkStallAndReconnect();
+        checkNoAnswer();
+        if(failures > 0){
+            System.out.println(failures+" check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void checkStallAndReconnect() throws Exception {
+        final AtomicInteger connections = new AtomicInteger();
+        final CopyOnWriteArrayList<String> titles = new CopyOnWriteArrayList<>();
+        try(ServerSocket station = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())){
+            final Thread server = new Thread(() -> serve(station, connections), "stand-in-station");
+            server.setDaemon(true);
+            server.start();
+
+            //localhost has to be looked up, which the relay does off its selector thread
+            final RadioStream stream = new RadioStream(
+                    "http://localhost:" + station.getLocalPort() + "/live", BUFFER_MILLIS);
+            stream.setTitleListener(titles::add);
+            final String local = stream.start();
+            try(Socket player = open(local)){
+                final InputStream in = player.getInputStream();
+                skipHeader(in);
+                player.setSoTimeout(100);
+                final byte[] block = new byte[4096];
+                long audio = 0;
+                boolean clean = true;
+                final long end = System.currentTimeMillis() + 4000;
+                while(System.currentTimeMillis() < end){
+                    final int n;
+                    try {
+                        n = in.read(block);
+                    } catch(SocketTimeoutException e){
+                        continue;
+                    }
+                    if(n < 0){
+                        break;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        clean &= block[i] == AUDIO;
+                    }
+                    audio += n;
+                }
+                check(clean, "only audio reaches the player, metadata is stripped");
+                check(audio > 0, "audio was relayed ("+audio+" bytes)");
+                check(stream.getReconnects() >= 1,
+                        "a silent station is dropped and reconnected ("
+                        +stream.getReconnects()+" reconnects, "+connections.get()+" connections)");
+                check(titles.contains("Song 1"),
+                        "StreamTitle was parsed ("+titles.size()+" titles)");
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private static void checkNoAnswer() throws Exception {
+        try(ServerSocket station = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())){
+            //the backlog accepts the connection, nothing ever answers
+            final RadioStream stream = new RadioStream(
+                    "http://127.0.0.1:" + station.getLocalPort() + "/live", BUFFER_MILLIS);
+            final long start = System.currentTimeMillis();
+            try {
+                stream.start();
+                check(false, "start() fails when the station does not answer");
+            } catch(IOException e){
+                check(true, "start() fails when the station does not answer ("
+                        +(System.currentTimeMillis() - start)+" ms: "+e.getMessage()+")");
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    //first connection: four metadata intervals, then silence; the others: steady audio
+    private static void serve(ServerSocket station, AtomicInteger connections){
+        try {
+            while(true){
+                final Socket socket = station.accept();
+                final int number = connections.incrementAndGet();
+                final Thread t = new Thread(() -> answer(socket, number), "stand-in-client");
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch(IOException e){
+            //station closed
+        }
+    }
+
+    private static void answer(Socket socket, int number){
+        try(Socket s = socket){
+            skipHeader(s.getInputStream());
+            final OutputStream out = s.getOutputStream();
+            out.write(("ICY 200 OK\r\n"
+                    + "Content-Type: audio/mpeg\r\n"
+                    + "icy-name: Stand-in\r\n"
+                    + "icy-br: 16\r\n"
+                    + "icy-metaint: " + META_INTERVAL + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            final byte[] audio = new byte[META_INTERVAL];
+            Arrays.fill(audio, AUDIO);
+            for (int block = 1; number > 1 || block <= 4; block++) {
+                out.write(audio);
+                out.write(metadata("Song " + block));
+                out.flush();
+                Thread.sleep(50);
+            }
+            //silent, but the connection stays open
+            Thread.sleep(60_000);
+        } catch(IOException | InterruptedException e){
+            //relay went away
+        }
+    }
+
+    private static byte[] metadata(String title){
+        final byte[] text = ("StreamTitle='" + title + "';").getBytes(StandardCharsets.UTF_8);
+        final int blocks = (text.length + 15) / 16;
+        final byte[] meta = new byte[1 + blocks * 16];
+        meta[0] = (byte)blocks;
+        System.arraycopy(text, 0, meta, 1, text.length);
+        return meta;
+    }
+
+    private static Socket open(String url) throws IOException {
+        final URI uri = URI.create(url);
+        final Socket socket = new Socket(uri.getHost(), uri.getPort());
+        socket.getOutputStream().write(("GET " + uri.getRawPath() + " HTTP/1.0\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    private static void skipHeader(InputStream in) throws IOException {
+        int matched = 0;
+        while(matched < 4){
+            final int b = in.read();
+            if(b < 0){
+                throw new IOException("Connection closed in the header");
+            }
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
+    private static void check(boolean ok, String what){
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+        if(!ok){
+            ++failures;
+        }
+    }
+}
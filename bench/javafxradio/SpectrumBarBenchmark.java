@@ -0,0 +1,58 @@
+package javafxradio;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//one SpectrumBar: lighting rows and laying them out, both run every frame
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectrumBarBenchmark {
+    private static final int MAX_VALUE = 60;
+
+    @Param({"10", "20", "40"})
+    int rows;
+
+    private SpectrumBar bar;
+    private int value;
+    private boolean wide;
+
+    @Setup
+    public void setup(){
+        bar = new SpectrumBar(MAX_VALUE, rows);
+        bar.resize(20, 200);
+    }
+
+    @Benchmark
+    public void setValue(){
+        value = (value + 7) % MAX_VALUE;
+        bar.setValue(value);
+    }
+
+    //same size as the last pass, only the children are laid out again
+    @Benchmark
+    public void layoutChildren(){
+        bar.layoutChildren();
+    }
+
+    //a new size resizes every row first
+    @Benchmark
+    public void layoutChildrenResized(){
+        wide = !wide;
+        bar.resize(wide ? 24 : 20, 200);
+        bar.layoutChildren();
+    }
+}
@@ -0,0 +1,77 @@
+package javafxradio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//per-frame spectrum path: bins to bands and bands to SpectrumBar rows
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectrumBenchmark {
+    //MediaPlayer's default number of spectrum bands
+    private static final int BINS = 128;
+    private static final double THRESHOLD = -60;
+    private static final int BAR_ROWS = 20;
+
+    @Param({"8", "16", "32", "64"})
+    int bands;
+
+    private float[] magnitudes;
+    //a few frames so the lit rows change between calls
+    private float[][] frames;
+    private int frame;
+    private double[] values;
+    private SpectrumBandMapper mapper;
+    private SpectrumListener listener;
+
+    @Setup
+    public void setup(){
+        final Random random = new Random(1);
+        frames = new float[16][BINS];
+        for(float[] f : frames){
+            for (int i = 0; i < f.length; i++) {
+                f[i] = (float)(THRESHOLD * random.nextDouble());
+            }
+        }
+        magnitudes = frames[0];
+        mapper = new SpectrumBandMapper(SpectrumBandMapper.Layout.LINEAR, bands, 20, BINS);
+        values = new double[mapper.getBandCount()];
+        final SpectrumBar[] bars = new SpectrumBar[mapper.getBandCount()];
+        for (int i = 0; i < bars.length; i++) {
+            bars[i] = new SpectrumBar(-(int)THRESHOLD, BAR_ROWS);
+        }
+        listener = new SpectrumListener(mapper, THRESHOLD, bars, null);
+    }
+
+    //building the band tables, done whenever the layout or band count changes
+    @Benchmark
+    public SpectrumBandMapper createMapper(){
+        return new SpectrumBandMapper(SpectrumBandMapper.Layout.LINEAR, bands, 20, BINS);
+    }
+
+    @Benchmark
+    public double[] reduce(){
+        mapper.reduce(magnitudes, THRESHOLD, values);
+        return values;
+    }
+
+    @Benchmark
+    public void spectrumDataUpdate(){
+        frame = (frame + 1) & (frames.length - 1);
+        listener.spectrumDataUpdate(0, 0.1, frames[frame], null);
+    }
+}
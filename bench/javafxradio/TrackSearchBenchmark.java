@@ -0,0 +1,83 @@
+package javafxradio;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//typeahead queries over a generated catalog, a query per keystroke. Words are drawn
+//uniformly or, closer to real catalogs, by a Zipf law where a few words are everywhere.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackSearchBenchmark {
+    private static final String[] SYLLABLES = {
+        "ka", "lo", "mi", "ra", "ne", "to", "su", "vi", "de", "ba", "qu", "zo", "el", "an", "or", "ix"
+    };
+    private static final int RESULTS = 20;
+
+    @Param({"100000", "1000000"})
+    int tracks;
+
+    @Param({"k", "kalo", "kalo mi", "vi 19"})
+    String query;
+
+    @Param({"uniform", "zipf"})
+    String words;
+
+    private TrackSearchIndex index;
+
+    @Setup
+    public void setup(){
+        final Random random = new Random(1);
+        final String[] words = new String[50000];
+        //cumulative weights of rank 1..n, 1/rank each
+        final double[] cumulative = new double[words.length];
+        for (int i = 0; i < words.length; i++) {
+            cumulative[i] = (i == 0 ? 0 : cumulative[i - 1]) + 1.0 / (i + 1);
+            final StringBuilder word = new StringBuilder();
+            for (int s = 1 + random.nextInt(4); s > 0; s--) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            words[i] = word.toString();
+        }
+        final boolean zipf = "zipf".equals(this.words);
+        index = new TrackSearchIndex(Long.MAX_VALUE);
+        for (int i = 0; i < tracks; i++) {
+            index.add(new TrackRecord("/music/" + i + ".mp3", 0, 0,
+                    pick(words, cumulative, zipf, random) + " "
+                    + pick(words, cumulative, zipf, random),
+                    pick(words, cumulative, zipf, random), pick(words, cumulative, zipf, random),
+                    String.valueOf(1960 + random.nextInt(60)), 0));
+        }
+    }
+
+    private static String pick(String[] words, double[] cumulative, boolean zipf,
+            Random random){
+        if(!zipf){
+            return words[random.nextInt(words.length)];
+        }
+        final double target = random.nextDouble() * cumulative[cumulative.length - 1];
+        final int at = Arrays.binarySearch(cumulative, target);
+        return words[Math.min(words.length - 1, at >= 0 ? at : -at - 1)];
+    }
+
+    @Benchmark
+    public List<TrackRecord> search(){
+        return index.search(query, RESULTS);
+    }
+}
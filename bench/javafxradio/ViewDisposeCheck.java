@@ -0,0 +1,168 @@
+package javafxradio;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+//opens and disposes EqualizerView and PlayerControlsView many times against one
+//SongModel, the way the equalizer window does, and checks that nothing stays behind:
+//  used heap after a full GC must not grow with the number of views,
+//  the last disposed views must be collectable,
+//  a disposed PlayerControlsView must have stopped its frame timer.
+//Needs a display for the FX toolkit. Exits with 1 when a check fails.
+//Usage: ViewDisposeCheck [cycles]
+public final class ViewDisposeCheck extends Application {
+    private static final int DEFAULT_CYCLES = 10_000;
+    private static final int WARMUP_CYCLES = 1_000;
+    //views created per FX task, so the FX thread stays responsive
+    private static final int BATCH = 100;
+    //far below what one leaked view per cycle would add up to
+    private static final long MAX_GROWTH_BYTES = 4L * 1024 * 1024;
+    private static final int TRACKED = 100;
+
+    private static int failures;
+
+    public ViewDisposeCheck(){
+    }
+
+    public static void main(String[] args){
+        launch(ViewDisposeCheck.class, args);
+    }
+
+    @Override
+    public void start(Stage stage) throws Exception {
+        final List<String> args = getParameters().getRaw();
+        final int cycles = args.isEmpty() ? DEFAULT_CYCLES : Integer.parseInt(args.get(0));
+        final Thread driver = new Thread(() -> {
+            int status = 1;
+            try {
+                run(cycles);
+                status = failures > 0 ? 1 : 0;
+                System.out.println(failures > 0 ? failures+" check(s) failed"
+                        : "All checks passed");
+            } catch(Exception e){
+                System.out.println("View dispose check error: "+e);
+            } finally {
+                Platform.exit();
+                System.exit(status);
+            }
+        }, "dispose-check");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    private static void run(int cycles) throws Exception {
+        final File track = silentTrack();
+        try {
+            final SongModel model = onFx(SongModel::new);
+            //EqualizerView works on the bands of a player, so a track has to be loaded
+            onFx(() -> model.setURLAsync(track.toURI().toString()))
+                    .get(30, TimeUnit.SECONDS);
+            final Scene scene = onFx(() -> new Scene(new Group(), 600, 400));
+
+            cycle(model, scene, WARMUP_CYCLES, null);
+            final long before = usedAfterGc();
+            final List<WeakReference<AbstractView>> last = new ArrayList<>();
+            cycle(model, scene, cycles, last);
+            final long after = usedAfterGc();
+
+            final long growth = after - before;
+            check(growth < MAX_GROWTH_BYTES, "used heap after GC grew by "+growth/1024
+                    +" KB over "+cycles+" cycles ("+growth/Math.max(1, cycles)+" bytes per cycle)");
+            int alive = 0;
+            for(WeakReference<AbstractView> ref : last){
+                alive += ref.get() != null ? 1 : 0;
+            }
+            check(alive == 0, alive+" of the last "+last.size()+" disposed views are still reachable");
+        } finally {
+            track.delete();
+        }
+    }
+
+    //every cycle shows both views in the scene and disposes them once they are replaced
+    private static void cycle(SongModel model, Scene scene, int cycles,
+            List<WeakReference<AbstractView>> last) throws Exception {
+        boolean timersStopped = true;
+        for (int done = 0; done < cycles; done += BATCH) {
+            final int count = Math.min(BATCH, cycles - done);
+            final boolean track = last != null && done + count >= cycles;
+            final Boolean stopped = onFx(() -> {
+                boolean allStopped = true;
+                for (int i = 0; i < count; i++) {
+                    final EqualizerView equalizer = new EqualizerView(model);
+                    final PlayerControlsView controls = new PlayerControlsView(model);
+                    scene.setRoot(new Group(equalizer.getViewNode(), controls.getViewNode()));
+                    scene.setRoot(new Group());
+                    equalizer.dispose();
+                    controls.dispose();
+                    allStopped &= !controls.getDispatcher().isRunning();
+                    if(track && count - i <= TRACKED / 2){
+                        last.add(new WeakReference<>(equalizer));
+                        last.add(new WeakReference<>(controls));
+                    }
+                }
+                return allStopped;
+            });
+            timersStopped &= stopped;
+        }
+        if(last != null){
+            check(timersStopped, "disposed PlayerControlsViews stopped their frame timer");
+        }
+    }
+
+    private static long usedAfterGc() throws Exception {
+        //lets the FX thread finish pending pulses that may still see the last views
+        onFx(() -> null);
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static <T> T onFx(Callable<T> task) throws Exception {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(task.call());
+            } catch(Exception e){
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get(60, TimeUnit.SECONDS);
+    }
+
+    //one second of 16 bit stereo silence
+    private static File silentTrack() throws Exception {
+        final AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        final byte[] silence = new byte[44100 * format.getFrameSize()];
+        final File file = File.createTempFile("dispose-check", ".wav");
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(silence), format,
+                44100), AudioFileFormat.Type.WAVE, file);
+        return file;
+    }
+
+    private static void check(boolean ok, String what){
+        System.out.println((ok ? "ok   " : "FAIL ") + what);
+        if(!ok){
+            ++failures;
+        }
+    }
+}
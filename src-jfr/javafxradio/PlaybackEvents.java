@@ -0,0 +1,130 @@
+package javafxradio;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+//JFR events of PlaybackMetrics. Lives in src-jfr so the main tree compiles with
+//--release 8, PlaybackMetrics loads it by name when the JVM has jdk.jfr.
+//Enable with -XX:StartFlightRecording or JMC.
+final class PlaybackEvents implements PlaybackEventSink {
+    private static final String CATEGORY = "JavaFX Radio";
+
+    @Name("javafxradio.MediaOpen")
+    @Label("Media Open")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class MediaOpen extends Event {
+        @Label("URL")
+        String url;
+        @Label("Latency")
+        @Timespan
+        long latency;
+    }
+
+    @Name("javafxradio.Seek")
+    @Label("Seek to Audible")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Seek extends Event {
+        @Label("Latency")
+        @Timespan
+        long latency;
+    }
+
+    @Name("javafxradio.SpectrumCallback")
+    @Label("Spectrum Callback")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class SpectrumCallback extends Event {
+        @Label("Duration")
+        @Timespan
+        long callbackDuration;
+        @Label("Bands")
+        int bands;
+    }
+
+    @Name("javafxradio.DroppedFrames")
+    @Label("Dropped Frames")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class DroppedFrames extends Event {
+        @Label("Frame Gap")
+        @Timespan
+        long gap;
+        @Label("Dropped")
+        long dropped;
+    }
+
+    @Name("javafxradio.PlayerState")
+    @Label("Player State")
+    @Category(CATEGORY)
+    @Period("1 s")
+    @StackTrace(false)
+    static final class PlayerState extends Event {
+        @Label("FX Queue Depth")
+        int fxQueueDepth;
+        @Label("Live Players")
+        int livePlayers;
+        @Label("Dropped Frames")
+        long droppedFrames;
+    }
+
+    PlaybackEvents(){
+    }
+
+    @Override
+    public void registerPeriodic(PlaybackMetrics metrics){
+        FlightRecorder.addPeriodicEvent(PlayerState.class, () -> {
+            final PlayerState e = new PlayerState();
+            e.fxQueueDepth = metrics.getFxQueueDepth();
+            e.livePlayers = metrics.getLivePlayers();
+            e.droppedFrames = metrics.getDroppedFrames();
+            e.commit();
+        });
+    }
+
+    @Override
+    public void mediaOpen(String url, long nanos){
+        final MediaOpen e = new MediaOpen();
+        if(e.isEnabled()){
+            e.url = url;
+            e.latency = nanos;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void seek(long nanos){
+        final Seek e = new Seek();
+        if(e.isEnabled()){
+            e.latency = nanos;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void spectrumCallback(long nanos, int bands){
+        final SpectrumCallback e = new SpectrumCallback();
+        if(e.isEnabled()){
+            e.callbackDuration = nanos;
+            e.bands = bands;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void droppedFrames(long gap, long dropped){
+        final DroppedFrames e = new DroppedFrames();
+        if(e.isEnabled()){
+            e.gap = gap;
+            e.dropped = dropped;
+            e.commit();
+        }
+    }
+}
@@ -1,14 +1,28 @@
 package javafxradio;
 
-import javafx.event.ActionEvent;
-import javafx.event.EventHandler;
+import java.util.ArrayList;
+import java.util.List;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.WeakInvalidationListener;
+import javafx.beans.property.Property;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.beans.value.WeakChangeListener;
 import javafx.scene.Node;
 
-//enshures that all views have access to SongModel
+//enshures that all views have access to SongModel.
+//Listeners on the model are registered through listen, so the model only holds them
+//weakly and a forgotten view can be collected; dispose removes them and the bindings.
 public abstract class AbstractView {
     protected final SongModel songModel;
     protected final Node viewNode;
-       
+    //the view keeps its listeners alive, the model only has weak wrappers of them
+    private final List<Object> listeners = new ArrayList<>();
+    //run in reverse order by dispose
+    private final List<Runnable> disposeActions = new ArrayList<>();
+    private boolean disposed;
+
     public AbstractView(SongModel songModel){
         this.songModel = songModel;
         this.viewNode = initView();
@@ -16,7 +30,52 @@ public abstract class AbstractView {
 
         public Node getViewNode() {
             return viewNode;
-        }       
-                       
+        }
+
         protected abstract Node initView();
+
+        protected final <T> void listen(ObservableValue<T> observable,
+                ChangeListener<T> listener){
+            listeners.add(listener);
+            final WeakChangeListener<T> weak = new WeakChangeListener<>(listener);
+            observable.addListener(weak);
+            onDispose(() -> observable.removeListener(weak));
+        }
+
+        protected final void listen(Observable observable, InvalidationListener listener){
+            listeners.add(listener);
+            final WeakInvalidationListener weak = new WeakInvalidationListener(listener);
+            observable.addListener(weak);
+            onDispose(() -> observable.removeListener(weak));
+        }
+
+        protected final <T> void bind(Property<T> target, ObservableValue<? extends T> source){
+            target.bind(source);
+            onDispose(target::unbind);
+        }
+
+        protected final <T> void bindBidirectional(Property<T> a, Property<T> b){
+            a.bindBidirectional(b);
+            onDispose(() -> a.unbindBidirectional(b));
+        }
+
+        protected final void onDispose(Runnable action){
+            disposeActions.add(action);
+        }
+
+        public boolean isDisposed(){ return disposed; }
+
+        //detaches the view from the model for good, call on the FX thread once it is no
+        //longer shown. Subclasses that override it call super.dispose() last.
+        public void dispose(){
+            if(disposed){
+                return;
+            }
+            disposed = true;
+            for (int i = disposeActions.size() - 1; i >= 0; i--) {
+                disposeActions.get(i).run();
+            }
+            disposeActions.clear();
+            listeners.clear();
+        }
 }
@@ -0,0 +1,392 @@
+package javafxradio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+
+//keeps album covers scaled down to display size, bounded by a byte budget in memory
+//and another one on disk
+final class AlbumArtCache {
+    static final long DEFAULT_MAX_DISK_BYTES = 64L * 1024 * 1024;
+    //pixels per side sampled into the key of a decoded image
+    private static final int PROBE_SIZE = 16;
+
+    private final int displaySize;
+    private final long maxBytes;
+    private final Path diskDir;
+    private final long maxDiskBytes;
+    private final ExecutorService executor;
+
+    //access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Image> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+    //size of the files in diskDir, -1 until they were counted
+    private final AtomicLong diskBytes = new AtomicLong(-1);
+
+    //diskDir may be null to keep thumbnails in memory only
+    AlbumArtCache(int displaySize, long maxBytes, Path diskDir){
+        this(displaySize, maxBytes, diskDir, DEFAULT_MAX_DISK_BYTES);
+    }
+
+    AlbumArtCache(int displaySize, long maxBytes, Path diskDir, long maxDiskBytes){
+        this.displaySize = displaySize;
+        this.maxBytes = maxBytes;
+        this.diskDir = diskDir;
+        this.maxDiskBytes = maxDiskBytes;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "album-art-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    long getHits(){ return hits.get(); }
+    long getDiskHits(){ return diskHits.get(); }
+    long getMisses(){ return misses.get(); }
+    long getEvictions(){ return evictions.get(); }
+    long getDiskEvictions(){ return diskEvictions.get(); }
+    long getDiskUsedBytes(){ return Math.max(0, diskBytes.get()); }
+    synchronized long getUsedBytes(){ return usedBytes; }
+    synchronized int getEntryCount(){ return memory.size(); }
+
+    //share of lookups answered from memory or disk
+    double getHitRatio(){
+        long found = hits.get() + diskHits.get();
+        long total = found + misses.get();
+        return total == 0 ? 0 : (double)found / total;
+    }
+
+    //decodes encoded image bytes (e.g. an ID3 picture frame) straight at display size
+    CompletableFuture<Image> get(byte[] encoded){
+        return CompletableFuture.supplyAsync(() -> {
+            String key = hash(encoded);
+            Image cached = lookup(key);
+            if(cached == null){
+                cached = new Image(new ByteArrayInputStream(encoded),
+                        displaySize, displaySize, true, true);
+                store(key, cached);
+            }
+            return cached;
+        }, executor);
+    }
+
+    //scales an already decoded image, e.g. the one delivered by Media metadata.
+    //source names where it came from, e.g. the media URL, and may be null
+    CompletableFuture<Image> get(Image image, String source){
+        return CompletableFuture.supplyAsync(() -> {
+            String key = hash(image, source);
+            Image cached = lookup(key);
+            if(cached == null){
+                cached = scale(image);
+                store(key, cached);
+            }
+            return cached;
+        }, executor);
+    }
+
+    private Image lookup(String key){
+        synchronized(this){
+            Image image = memory.get(key);
+            if(image != null){
+                hits.incrementAndGet();
+                return image;
+            }
+        }
+        Image image = readFromDisk(key);
+        if(image != null){
+            diskHits.incrementAndGet();
+            touch(key);
+            putInMemory(key, image);
+        } else {
+            misses.incrementAndGet();
+        }
+        return image;
+    }
+
+    private void store(String key, Image image){
+        putInMemory(key, image);
+        writeToDisk(key, image);
+    }
+
+    private synchronized void putInMemory(String key, Image image){
+        Image old = memory.put(key, image);
+        if(old != null){
+            usedBytes -= sizeOf(old);
+        }
+        usedBytes += sizeOf(image);
+
+        Iterator<Map.Entry<String, Image>> it = memory.entrySet().iterator();
+        while(usedBytes > maxBytes && memory.size() > 1 && it.hasNext()){
+            Map.Entry<String, Image> eldest = it.next();
+            usedBytes -= sizeOf(eldest.getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long sizeOf(Image image){
+        return 4L * (long)image.getWidth() * (long)image.getHeight();
+    }
+
+    //box filter down to displaySize, never scales up
+    private Image scale(Image src){
+        final int srcW = (int)src.getWidth();
+        final int srcH = (int)src.getHeight();
+        final double factor = Math.min(1.0, (double)displaySize / Math.max(srcW, srcH));
+        if(factor == 1.0){
+            return src;
+        }
+        final int dstW = Math.max(1, (int)Math.round(srcW * factor));
+        final int dstH = Math.max(1, (int)Math.round(srcH * factor));
+
+        final PixelReader reader = src.getPixelReader();
+        final int[] row = new int[srcW];
+        final long[] acc = new long[dstW * 4];
+        final int[] counts = new int[dstW];
+        final int[] out = new int[dstW * dstH];
+
+        int srcY = 0;
+        for (int y = 0; y < dstH; y++) {
+            Arrays.fill(acc, 0);
+            Arrays.fill(counts, 0);
+            int endY = y == dstH - 1 ? srcH
+                    : Math.max(srcY + 1, Math.min(srcH, (int)((y + 1) / factor)));
+            for (; srcY < endY; srcY++) {
+                reader.getPixels(0, srcY, srcW, 1, PixelFormat.getIntArgbInstance(), row, 0, srcW);
+                for (int x = 0; x < srcW; x++) {
+                    int dx = Math.min(dstW - 1, (int)(x * factor));
+                    int argb = row[x];
+                    acc[dx*4] += argb >>> 24;
+                    acc[dx*4+1] += (argb >> 16) & 0xff;
+                    acc[dx*4+2] += (argb >> 8) & 0xff;
+                    acc[dx*4+3] += argb & 0xff;
+                    ++counts[dx];
+                }
+            }
+            for (int x = 0; x < dstW; x++) {
+                int n = Math.max(1, counts[x]);
+                out[y*dstW + x] = (int)(acc[x*4]/n) << 24 | (int)(acc[x*4+1]/n) << 16
+                        | (int)(acc[x*4+2]/n) << 8 | (int)(acc[x*4+3]/n);
+            }
+        }
+        return toImage(dstW, dstH, out);
+    }
+
+    private static WritableImage toImage(int width, int height, int[] argb){
+        final WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height,
+                PixelFormat.getIntArgbInstance(), argb, 0, width);
+        return image;
+    }
+
+    private Image readFromDisk(String key){
+        if(diskDir == null){
+            return null;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(diskDir.resolve(key)))))){
+            int width = in.readInt();
+            int height = in.readInt();
+            int[] argb = new int[width * height];
+            for (int i = 0; i < argb.length; i++) {
+                argb[i] = in.readInt();
+            }
+            return toImage(width, height, argb);
+        } catch(NoSuchFileException e){
+            return null;
+        } catch(IOException e){
+            System.out.println("Album art cache read error: "+e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Image image){
+        if(diskDir == null){
+            return;
+        }
+        final int width = (int)image.getWidth();
+        final int height = (int)image.getHeight();
+        final int[] argb = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height,
+                PixelFormat.getIntArgbInstance(), argb, 0, width);
+        try {
+            Files.createDirectories(diskDir);
+            Path tmp = Files.createTempFile(diskDir, key, ".tmp");
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp))))){
+                out.writeInt(width);
+                out.writeInt(height);
+                for(int pixel : argb){
+                    out.writeInt(pixel);
+                }
+            }
+            long written = Files.size(tmp);
+            Path file = diskDir.resolve(key);
+            long replaced = Files.exists(file) ? Files.size(file) : 0;
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            if(diskBytes.get() < 0){
+                diskBytes.set(countDisk());
+            } else {
+                diskBytes.addAndGet(written - replaced);
+            }
+            if(diskBytes.get() > maxDiskBytes){
+                trimDisk();
+            }
+        } catch(IOException e){
+            System.out.println("Album art cache write error: "+e);
+        }
+    }
+
+    //the modification time orders the files by last use for trimDisk
+    private void touch(String key){
+        try {
+            Files.setLastModifiedTime(diskDir.resolve(key),
+                    FileTime.fromMillis(System.currentTimeMillis()));
+        } catch(IOException e){
+            //only the eviction order suffers
+        }
+    }
+
+    private long countDisk() throws IOException {
+        long total = 0;
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(diskDir)){
+            for(Path file : files){
+                total += Files.size(file);
+            }
+        }
+        return total;
+    }
+
+    //deletes the least recently used files until the disk tier is back in budget
+    private void trimDisk() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, Long> used = new HashMap<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        long total = 0;
+        try(DirectoryStream<Path> dir = Files.newDirectoryStream(diskDir)){
+            for(Path file : dir){
+                files.add(file);
+                used.put(file, Files.getLastModifiedTime(file).toMillis());
+                sizes.put(file, Files.size(file));
+                total += sizes.get(file);
+            }
+        }
+        files.sort((x, y) -> Long.compare(used.get(x), used.get(y)));
+        //the newest file stays, it was just written
+        for (int i = 0; i < files.size() - 1 && total > maxDiskBytes; i++) {
+            if(Files.deleteIfExists(files.get(i))){
+                total -= sizes.get(files.get(i));
+                diskEvictions.incrementAndGet();
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    private String hash(byte[] data){
+        MessageDigest digest = newDigest();
+        digest.update(data);
+        return toHex(digest.digest());
+    }
+
+    //keys on the dimensions, the source with the size and mtime of a local file, and a
+    //grid of PROBE_SIZE x PROBE_SIZE pixels, so a re-tagged cover of the same size gets
+    //a new key. Hashing every pixel would cost as much as scaling.
+    private String hash(Image image, String source){
+        final int width = (int)image.getWidth();
+        final int height = (int)image.getHeight();
+        if(source == null){
+            source = image.getUrl();
+        }
+        final MessageDigest digest = newDigest();
+        digest.update((width + "x" + height).getBytes(StandardCharsets.UTF_8));
+        if(source != null){
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            digest.update(fileVersion(source).getBytes(StandardCharsets.UTF_8));
+        }
+        final PixelReader reader = image.getPixelReader();
+        final byte[] bytes = new byte[4];
+        //an image that is not readable yet is keyed by its source alone
+        for (int py = 0; reader != null && py < PROBE_SIZE; py++) {
+            final int y = (int)((py + 0.5) * height / PROBE_SIZE);
+            for (int px = 0; px < PROBE_SIZE; px++) {
+                final int argb = reader.getArgb((int)((px + 0.5) * width / PROBE_SIZE), y);
+                bytes[0] = (byte)(argb >>> 24);
+                bytes[1] = (byte)(argb >>> 16);
+                bytes[2] = (byte)(argb >>> 8);
+                bytes[3] = (byte)argb;
+                digest.update(bytes);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    //size and mtime of a file: source, empty for anything else
+    private static String fileVersion(String source){
+        if(!source.startsWith("file:")){
+            return "";
+        }
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(Paths.get(new URI(source)),
+                    BasicFileAttributes.class);
+            return " " + attrs.size() + " " + attrs.lastModifiedTime().toMillis();
+        } catch(IOException | URISyntaxException | IllegalArgumentException e){
+            return "";
+        }
+    }
+
+    private static MessageDigest newDigest(){
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes){
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
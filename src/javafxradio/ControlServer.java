@@ -0,0 +1,330 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//line based control protocol on a loopback socket, served by one selector thread.
+//Every command line gets exactly one reply line, in order. Clients that sent
+//"subscribe" also receive every broadcast status line; a subscriber that reads
+//slower than statuses arrive only ever has the newest one pending.
+final class ControlServer implements AutoCloseable {
+    static final int DEFAULT_PORT = 7766;
+    private static final int MAX_LINE = 8192;
+    //replies a client has not read yet, beyond this it is disconnected
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+    //how long close waits for replies still on their way, e.g. the one to "quit"
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    interface Handler {
+        //called on the selector thread, the reply line may complete on any thread
+        CompletableFuture<String> handle(String command, String argument);
+    }
+
+    private final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        final Queue<ByteBuffer> replies = new ArrayDeque<>();
+        int pendingBytes;
+        //newest status for a subscriber, replaced while it has not been sent
+        ByteBuffer status;
+        boolean subscribed;
+        //replies are sent in command order even if they complete out of order
+        CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        SelectionKey key;
+
+        Client(SocketChannel channel){
+            this.channel = channel;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final Handler handler;
+    private final List<Client> clients = new ArrayList<>();
+    //work for the selector thread from other threads
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private volatile int clientCount;
+    private volatile int subscriberCount;
+    private volatile long broadcasts;
+    //set by the selector thread once close was called, then no commands are taken
+    private boolean closing;
+    private long closeDeadline;
+
+    ControlServer(InetSocketAddress address, Handler handler){
+        this.address = address;
+        this.handler = handler;
+    }
+
+    //binds the socket and starts the selector thread
+    void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::run, "control-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort(){ return server.socket().getLocalPort(); }
+    int getClientCount(){ return clientCount; }
+    int getSubscriberCount(){ return subscriberCount; }
+    long getBroadcasts(){ return broadcasts; }
+
+    //sends line to every subscriber, callable from any thread
+    void broadcast(String line){
+        final byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        execute(() -> {
+            ++broadcasts;
+            for(Client c : clients){
+                if(c.subscribed){
+                    c.status = ByteBuffer.wrap(bytes);
+                    flush(c);
+                }
+            }
+        });
+    }
+
+    private void execute(Runnable task){
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    //stops accepting, sends the replies still pending and closes every client on the
+    //selector thread, waits for that at most CLOSE_TIMEOUT_MILLIS
+    @Override
+    public void close() throws IOException {
+        if(thread == null){
+            return;
+        }
+        execute(this::shutdown);
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS + 100);
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        selector.close();
+    }
+
+    private void shutdown(){
+        if(closing){
+            return;
+        }
+        closing = true;
+        closeDeadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        try {
+            server.close();
+        } catch(IOException e){
+            //not accepting either way
+        }
+    }
+
+    //true once every client was closed
+    private boolean closeIdleClients(){
+        //a reply may have been queued since the tasks ran
+        runTasks();
+        boolean expired = System.currentTimeMillis() >= closeDeadline;
+        for(Client c : new ArrayList<>(clients)){
+            //a done tail means its last reply was handed to execute and has run by now
+            if(expired || (c.tail.isDone() && c.replies.isEmpty() && c.status == null)){
+                disconnect(c);
+            }
+        }
+        return clients.isEmpty();
+    }
+
+    private void run(){
+        try {
+            while(true){
+                selector.select(closing
+                        ? Math.max(1, closeDeadline - System.currentTimeMillis()) : 0);
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while(it.hasNext()){
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if(!key.isValid()){
+                        continue;
+                    }
+                    if(key.isAcceptable()){
+                        accept();
+                    } else {
+                        Client c = (Client)key.attachment();
+                        if(key.isReadable()){
+                            read(c);
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            flush(c);
+                        }
+                    }
+                }
+                if(closing && closeIdleClients()){
+                    break;
+                }
+            }
+        } catch(IOException | ClosedSelectorException e){
+            //closed
+        } finally {
+            try {
+                selector.close();
+            } catch(IOException e){
+                //already closed
+            }
+        }
+    }
+
+    private void runTasks(){
+        Runnable task;
+        while((task = tasks.poll()) != null){
+            task.run();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while((channel = server.accept()) != null){
+            channel.configureBlocking(false);
+            Client c = new Client(channel);
+            c.key = channel.register(selector, SelectionKey.OP_READ, c);
+            clients.add(c);
+            clientCount = clients.size();
+        }
+    }
+
+    private void read(Client c){
+        int n;
+        try {
+            n = c.channel.read(c.in);
+        } catch(IOException e){
+            n = -1;
+        }
+        if(n < 0){
+            disconnect(c);
+            return;
+        }
+        c.in.flip();
+        int start = 0;
+        for (int i = 0; i < c.in.limit(); i++) {
+            if(c.in.get(i) == '\n'){
+                command(c, new String(c.in.array(), start, i - start,
+                        StandardCharsets.UTF_8).trim());
+                start = i + 1;
+            }
+        }
+        c.in.position(start);
+        c.in.compact();
+        if(!c.in.hasRemaining()){
+            //a line longer than MAX_LINE is not a command of this protocol
+            disconnect(c);
+        }
+    }
+
+    private void command(Client c, String line){
+        if(line.isEmpty() || !c.channel.isOpen() || closing){
+            return;
+        }
+        int space = line.indexOf(' ');
+        String command = (space < 0 ? line : line.substring(0, space)).toLowerCase(Locale.ROOT);
+        String argument = space < 0 ? "" : line.substring(space + 1).trim();
+
+        CompletableFuture<String> reply;
+        if(command.equals("subscribe")){
+            setSubscribed(c, true);
+            reply = handler.handle("status", "");
+        } else if(command.equals("unsubscribe")){
+            setSubscribed(c, false);
+            reply = CompletableFuture.completedFuture("OK");
+        } else {
+            try {
+                reply = handler.handle(command, argument);
+            } catch(RuntimeException e){
+                reply = CompletableFuture.completedFuture("ERR "+e.getMessage());
+            }
+        }
+        final CompletableFuture<String> r = reply;
+        c.tail = c.tail.thenCompose(v -> r.handle((text, error) ->
+                error != null ? "ERR "+error.getMessage() : text))
+                .thenAccept(text -> execute(() -> reply(c, text)));
+    }
+
+    private void setSubscribed(Client c, boolean value){
+        if(c.subscribed != value){
+            c.subscribed = value;
+            subscriberCount += value ? 1 : -1;
+        }
+    }
+
+    private void reply(Client c, String text){
+        if(!c.channel.isOpen()){
+            return;
+        }
+        byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        c.replies.add(ByteBuffer.wrap(bytes));
+        c.pendingBytes += bytes.length;
+        if(c.pendingBytes > MAX_PENDING_BYTES){
+            disconnect(c);
+            return;
+        }
+        flush(c);
+    }
+
+    //writes what the socket takes, the rest waits for OP_WRITE
+    private void flush(Client c){
+        try {
+            while(!c.replies.isEmpty()){
+                ByteBuffer b = c.replies.peek();
+                c.pendingBytes -= c.channel.write(b);
+                if(b.hasRemaining()){
+                    c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                c.replies.poll();
+            }
+            if(c.status != null){
+                c.channel.write(c.status);
+                if(c.status.hasRemaining()){
+                    //a partly written status is finished before a newer one replaces it
+                    c.replies.add(c.status);
+                    c.pendingBytes += c.status.remaining();
+                    c.status = null;
+                    c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                c.status = null;
+            }
+            c.key.interestOps(SelectionKey.OP_READ);
+        } catch(IOException e){
+            disconnect(c);
+        }
+    }
+
+    private void disconnect(Client c){
+        setSubscribed(c, false);
+        clients.remove(c);
+        clientCount = clients.size();
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch(IOException e){
+            //already gone
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package javafxradio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javafxradio.ParametricEqualizer.Band;
+import javafxradio.ParametricEqualizer.Preset;
+import javafxradio.ParametricEqualizer.Type;
+
+//built in and user defined equalizer presets by name, user ones are stored in a file
+final class EqualizerPresets {
+    private static final int MAGIC = 0x4A465245; //"JFRE"
+    private static final int VERSION = 1;
+    static final String FLAT = "Flat";
+
+    private final Map<String, Preset> builtIn = new LinkedHashMap<>();
+    private final Map<String, Preset> user = new LinkedHashMap<>();
+
+    EqualizerPresets(){
+        add(builtIn, new Preset(FLAT, Collections.<Band>emptyList()));
+        add(builtIn, new Preset("Bass Boost", Arrays.asList(
+                new Band(Type.LOW_SHELF, 100, 0.7, 6))));
+        add(builtIn, new Preset("Treble Boost", Arrays.asList(
+                new Band(Type.HIGH_SHELF, 8000, 0.7, 6))));
+        add(builtIn, new Preset("Vocal", Arrays.asList(
+                new Band(Type.LOW_SHELF, 120, 0.7, -3),
+                new Band(Type.PEAKING, 2500, 1.0, 4))));
+        add(builtIn, new Preset("Loudness", Arrays.asList(
+                new Band(Type.LOW_SHELF, 80, 0.7, 6),
+                new Band(Type.HIGH_SHELF, 10000, 0.7, 4))));
+        //the curve EqualizerView puts on MediaPlayer's seven octave bands (bandwidth f/2)
+        List<Band> classic = new ArrayList<>();
+        double freq = 250.0;
+        for (int j = 0; j < 7; j++) {
+            double theta = (double)j / 6 * (2*Math.PI);
+            classic.add(new Band(Type.PEAKING, freq, 2.0, -6 + 7.2 * (1 + Math.cos(theta))));
+            freq *= 2;
+        }
+        add(builtIn, new Preset("Classic", classic));
+    }
+
+    private static void add(Map<String, Preset> map, Preset preset){
+        map.put(preset.getName(), preset);
+    }
+
+    //user presets shadow built in ones of the same name
+    synchronized Preset get(String name){
+        Preset p = user.get(name);
+        return p != null ? p : builtIn.get(name);
+    }
+
+    synchronized List<String> getNames(){
+        List<String> names = new ArrayList<>(builtIn.keySet());
+        for(String name : user.keySet()){
+            if(!names.contains(name)){
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    synchronized void put(Preset preset){ add(user, preset); }
+    synchronized Preset remove(String name){ return user.remove(name); }
+
+    synchronized void load(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file)))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("Not a preset file: "+file);
+            }
+            int presets = in.readInt();
+            Map<String, Preset> loaded = new LinkedHashMap<>();
+            for (int p = 0; p < presets; p++) {
+                String name = in.readUTF();
+                int count = in.readInt();
+                List<Band> bands = new ArrayList<>(count);
+                for (int b = 0; b < count; b++) {
+                    bands.add(new Band(Type.valueOf(in.readUTF()), in.readDouble(),
+                            in.readDouble(), in.readDouble()));
+                }
+                add(loaded, new Preset(name, bands));
+            }
+            user.clear();
+            user.putAll(loaded);
+        } catch(NoSuchFileException e){
+            //no user presets yet
+        }
+    }
+
+    synchronized void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(user.size());
+            for(Preset preset : user.values()){
+                out.writeUTF(preset.getName());
+                out.writeInt(preset.getBands().size());
+                for(Band band : preset.getBands()){
+                    out.writeUTF(band.getType().name());
+                    out.writeDouble(band.getFrequency());
+                    out.writeDouble(band.getQ());
+                    out.writeDouble(band.getGain());
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
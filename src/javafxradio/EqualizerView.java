@@ -19,30 +19,74 @@ import javafx.scene.media.MediaPlayer;
 public class EqualizerView extends AbstractView{
     private static final double START_FREQ = 250.0;
     private static final int BAND_COUNT = 7;
+    //draws the spectrum into a single Canvas instead of one VBox per band
+    private static final boolean USE_CANVAS_SPECTRUM =
+            Boolean.getBoolean("javafxradio.canvasSpectrum");
     
     private SpectrumBar[] spectrumBars;
+    private SpectrumCanvas spectrumCanvas;
     private SpectrumListener spectrumListener;
+    //used instead of the player's spectrum when the PCM engine is playing
+    private static final int FFT_SIZE = 2048;
+    private FftSpectrumAnalyzer pcmAnalyzer;
     
     public EqualizerView(SongModel songModel){
         super(songModel);
         
-        songModel.mediaPlayerProperty().addListener(new MediaPlayerListener());
+        listen(songModel.mediaPlayerProperty(), new MediaPlayerListener());
         createEQInterface();
         
         getViewNode().sceneProperty().addListener(new ChangeListener<Scene>(){
             @Override
             public void changed(ObservableValue<? extends Scene> observable,
                     Scene oldValue, Scene newValue) {
-                final MediaPlayer mp = EqualizerView.this.songModel.getMediaPlayer();
                 if(newValue != null){
-                    mp.setAudioSpectrumListener(spectrumListener);
+                    attachSpectrum();
                 }else{
-                    mp.setAudioSpectrumListener(null);
+                    detachSpectrum();
                 }
             }            
         });
     }
     
+    private void attachSpectrum(){
+        if(songModel.isPcmActive()){
+            final PcmPlayer pcm = songModel.getPcmPlayer();
+            final SpectrumBandMapper mapper = new SpectrumBandMapper(
+                    SpectrumBandMapper.Layout.OCTAVE, BAND_COUNT, START_FREQ,
+                    pcm.getFormat().getSampleRate(), FFT_SIZE / 2);
+            pcmAnalyzer = new FftSpectrumAnalyzer(FFT_SIZE,
+                    FftSpectrumAnalyzer.Window.HANN, 0.5,
+                    new SpectrumListener(mapper, FftSpectrumAnalyzer.DEFAULT_THRESHOLD,
+                            spectrumBars, spectrumCanvas));
+            pcm.addListener(pcmAnalyzer);
+        } else {
+            songModel.getMediaPlayer().setAudioSpectrumListener(spectrumListener);
+        }
+    }
+    
+    private void detachSpectrum(){
+        if(pcmAnalyzer != null){
+            songModel.getPcmPlayer().removeListener(pcmAnalyzer);
+            pcmAnalyzer = null;
+        }
+        final MediaPlayer mp = songModel.getMediaPlayer();
+        if(mp != null && mp.getAudioSpectrumListener() == spectrumListener){
+            mp.setAudioSpectrumListener(null);
+        }
+    }
+    
+    //a closed window keeps its scene, so the player would keep feeding the bars
+    @Override
+    public void dispose(){
+        detachSpectrum();
+        clearGridPane();
+        spectrumListener = null;
+        spectrumBars = null;
+        spectrumCanvas = null;
+        super.dispose();
+    }
+    
     @Override
     protected Node initView() {
         final GridPane gp = new GridPane();
@@ -63,8 +107,15 @@ public class EqualizerView extends AbstractView{
         final MediaPlayer mp = songModel.getMediaPlayer();
         
         createEQBands(gp, mp);
-        createSpectrumBars(gp, mp);
-        spectrumListener = new SpectrumListener(START_FREQ, mp, spectrumBars);
+        if(USE_CANVAS_SPECTRUM){
+            createSpectrumCanvas(gp, mp);
+            spectrumListener = new SpectrumListener(new SpectrumBandMapper(
+                    SpectrumBandMapper.Layout.OCTAVE, BAND_COUNT, START_FREQ,
+                    mp.getAudioSpectrumNumBands()), mp, spectrumCanvas);
+        } else {
+            createSpectrumBars(gp, mp);
+            spectrumListener = new SpectrumListener(START_FREQ, mp, spectrumBars);
+        }
     }
     
     private void createEQBands(GridPane gp, MediaPlayer mp){
@@ -115,6 +166,7 @@ public class EqualizerView extends AbstractView{
         s.getStyleClass().add("eqSlider");
         s.setOrientation(Orientation.VERTICAL);
         s.valueProperty().bindBidirectional(eb.gainProperty());
+        s.setUserData(eb);
         s.valueProperty().setValue(0.5);
         s.setPrefWidth(44);
         
@@ -139,21 +191,40 @@ public class EqualizerView extends AbstractView{
         }
     }
     
+    private void createSpectrumCanvas(GridPane gp, MediaPlayer mp){
+        spectrumCanvas = new SpectrumCanvas(BAND_COUNT, 100, 20);
+        GridPane.setHgrow(spectrumCanvas, Priority.ALWAYS);
+        gp.add(spectrumCanvas, 0, 0, BAND_COUNT, 1);
+    }
+    
+    //the sliders are bound to the bands of the player they were made for
+    private void clearGridPane() {
+        for(Node node :((GridPane)getViewNode()).getChildren()){
+            GridPane.clearConstraints(node);
+            if(node.getUserData() instanceof EqualizerBand){
+                ((Slider)node).valueProperty().unbindBidirectional(
+                        ((EqualizerBand)node.getUserData()).gainProperty());
+            }
+        }
+        ((GridPane)getViewNode()).getChildren().clear();
+    }
+    
     private class MediaPlayerListener implements ChangeListener<MediaPlayer>{
         @Override
         public void changed(ObservableValue<? extends MediaPlayer> observable, MediaPlayer oldValue, MediaPlayer newValue) {
             if(oldValue != null){
-                oldValue.setAudioSpectrumListener(null);
+                if(oldValue.getAudioSpectrumListener() == spectrumListener){
+                    oldValue.setAudioSpectrumListener(null);
+                }
                 clearGridPane();                
             }
-            createEQInterface();
-        }
-
-        private void clearGridPane() {
-            for(Node node :((GridPane)getViewNode()).getChildren()){
-                GridPane.clearConstraints(viewNode);
+            if(newValue != null){
+                createEQInterface();
+                if(getViewNode().getScene() != null){
+                    detachSpectrum();
+                    attachSpectrum();
+                }
             }
-            ((GridPane)getViewNode()).getChildren().clear();
-        }        
+        }
     }
 }
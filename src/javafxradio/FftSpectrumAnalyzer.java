@@ -0,0 +1,196 @@
+package javafxradio;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.scene.media.AudioSpectrumListener;
+import javax.sound.sampled.AudioFormat;
+
+//spectrum analysis on the PCM engine's own frames with configurable size, window and
+//overlap. Results are handed to an AudioSpectrumListener in the same dB form MediaPlayer
+//uses, so SpectrumListener and the SpectrumBar path work unchanged.
+//The inner loops are plain array loops over separate re/im arrays so the JIT can
+//auto-vectorize them; the Vector API is not available on the Java 8 target.
+final class FftSpectrumAnalyzer implements PcmListener {
+    static final double DEFAULT_THRESHOLD = -60.0;
+
+    enum Window {
+        RECTANGULAR, HANN, HAMMING, BLACKMAN;
+
+        double coefficient(int i, int n){
+            double x = 2 * Math.PI * i / (n - 1);
+            switch(this){
+                case HANN: return 0.5 - 0.5 * Math.cos(x);
+                case HAMMING: return 0.54 - 0.46 * Math.cos(x);
+                case BLACKMAN: return 0.42 - 0.5 * Math.cos(x) + 0.08 * Math.cos(2 * x);
+                default: return 1.0;
+            }
+        }
+    }
+
+    private final int fftSize;
+    private final int hop;
+    private final double threshold;
+    private final AudioSpectrumListener target;
+
+    private final float[] window;
+    private final float windowGain;
+    private final int[] bitReverse;
+    private final float[] cos;
+    private final float[] sin;
+
+    //mono history, written circularly
+    private final float[] history;
+    private int historyPos;
+    private int sinceLastFrame;
+
+    private final float[] re;
+    private final float[] im;
+    private final float[] magnitudes;
+    private final float[] phases;
+
+    //hand off to the FX thread, at most one delivery is queued at a time
+    private final float[] published;
+    private final float[] delivered;
+    private final AtomicBoolean deliveryPending = new AtomicBoolean();
+    private double publishedTimestamp;
+
+    private long framesAnalyzed;
+    private long analysisNanos;
+    private long transforms;
+
+    FftSpectrumAnalyzer(int fftSize, Window windowType, double overlap,
+            AudioSpectrumListener target){
+        this(fftSize, windowType, overlap, DEFAULT_THRESHOLD, target);
+    }
+
+    FftSpectrumAnalyzer(int fftSize, Window windowType, double overlap,
+            double threshold, AudioSpectrumListener target){
+        if(Integer.bitCount(fftSize) != 1 || fftSize < 16){
+            throw new IllegalArgumentException("FFT size must be a power of two >= 16: "+fftSize);
+        }
+        this.fftSize = fftSize;
+        this.hop = Math.max(1, (int)Math.round(fftSize * (1 - overlap)));
+        this.threshold = threshold;
+        this.target = target;
+
+        window = new float[fftSize];
+        double sum = 0;
+        for (int i = 0; i < fftSize; i++) {
+            window[i] = (float)windowType.coefficient(i, fftSize);
+            sum += window[i];
+        }
+        windowGain = (float)(2.0 / sum);
+
+        int bits = Integer.numberOfTrailingZeros(fftSize);
+        bitReverse = new int[fftSize];
+        for (int i = 0; i < fftSize; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new float[fftSize / 2];
+        sin = new float[fftSize / 2];
+        for (int i = 0; i < fftSize / 2; i++) {
+            cos[i] = (float)Math.cos(-2 * Math.PI * i / fftSize);
+            sin[i] = (float)Math.sin(-2 * Math.PI * i / fftSize);
+        }
+
+        history = new float[fftSize];
+        re = new float[fftSize];
+        im = new float[fftSize];
+        magnitudes = new float[fftSize / 2];
+        phases = new float[fftSize / 2];
+        published = new float[fftSize / 2];
+        delivered = new float[fftSize / 2];
+    }
+
+    int getFftSize(){ return fftSize; }
+    int getBinCount(){ return fftSize / 2; }
+    double getThreshold(){ return threshold; }
+
+    //frames per second of CPU time spent in this analyzer, i.e. per core
+    synchronized double getFramesPerSecond(){
+        return analysisNanos == 0 ? 0 : framesAnalyzed * 1e9 / analysisNanos;
+    }
+    synchronized long getTransforms(){ return transforms; }
+
+    @Override
+    public void pcmFrames(float[] samples, int frames, AudioFormat format) {
+        final long start = System.nanoTime();
+        final int channels = format.getChannels();
+        final float scale = 1f / channels;
+        boolean produced = false;
+
+        for (int f = 0; f < frames; f++) {
+            float mono = 0;
+            for (int c = 0; c < channels; c++) {
+                mono += samples[f * channels + c];
+            }
+            history[historyPos] = mono * scale;
+            historyPos = (historyPos + 1) & (fftSize - 1);
+            if(++sinceLastFrame >= hop){
+                sinceLastFrame = 0;
+                transform();
+                produced = true;
+            }
+        }
+
+        synchronized(this){
+            framesAnalyzed += frames;
+            analysisNanos += System.nanoTime() - start;
+        }
+        if(produced){
+            publish(framesAnalyzed / format.getSampleRate(), hop / format.getSampleRate());
+        }
+    }
+
+    //runs the FFT over the newest fftSize samples and fills magnitudes in dB
+    private void transform(){
+        for (int i = 0; i < fftSize; i++) {
+            int j = bitReverse[i];
+            re[j] = history[(historyPos + i) & (fftSize - 1)] * window[i];
+            im[j] = 0;
+        }
+        for (int size = 2; size <= fftSize; size <<= 1) {
+            final int half = size >> 1;
+            final int step = fftSize / size;
+            for (int start = 0; start < fftSize; start += size) {
+                for (int k = 0; k < half; k++) {
+                    final float wr = cos[k * step];
+                    final float wi = sin[k * step];
+                    final int a = start + k;
+                    final int b = a + half;
+                    final float tr = re[b] * wr - im[b] * wi;
+                    final float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        for (int i = 0; i < magnitudes.length; i++) {
+            final float power = (re[i] * re[i] + im[i] * im[i]) * windowGain * windowGain;
+            final double db = 10 * Math.log10(power + 1e-20);
+            magnitudes[i] = (float)Math.max(threshold, db);
+        }
+        synchronized(this){
+            ++transforms;
+        }
+    }
+
+    private void publish(double timestamp, double duration){
+        synchronized(published){
+            System.arraycopy(magnitudes, 0, published, 0, magnitudes.length);
+            publishedTimestamp = timestamp;
+        }
+        if(deliveryPending.compareAndSet(false, true)){
+            PlaybackMetrics.runLater(() -> {
+                final double ts;
+                synchronized(published){
+                    System.arraycopy(published, 0, delivered, 0, delivered.length);
+                    ts = publishedTimestamp;
+                }
+                deliveryPending.set(false);
+                target.spectrumDataUpdate(ts, duration, delivered, phases);
+            });
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package javafxradio;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+//runs UI updates at most once per frame no matter how often they are requested.
+//The timer only runs while there is work: a request starts it, a pulse without any
+//pending update stops it again.
+final class FrameDispatcher {
+    private final List<Update> updates = new CopyOnWriteArrayList<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private volatile boolean enabled;
+    //true from the request that starts the timer until a pulse stops it
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if(!enabled){
+                pause();
+                return;
+            }
+            boolean worked = false;
+            for(Update update : updates){
+                worked |= update.applyIfPending();
+            }
+            if(!worked){
+                pause();
+                //a request that came in meanwhile saw the timer running and left it to us
+                if(hasPending()){
+                    wake();
+                }
+            }
+        }
+    };
+
+    //a single kind of update, requesting it again before the next frame is free
+    final class Update {
+        private final Runnable action;
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        private Update(Runnable action){
+            this.action = action;
+        }
+
+        //safe to call from any thread
+        void request(){
+            requested.incrementAndGet();
+            if(pending.compareAndSet(false, true)){
+                wake();
+            } else {
+                coalesced.incrementAndGet();
+            }
+        }
+
+        private boolean applyIfPending(){
+            if(pending.getAndSet(false)){
+                applied.incrementAndGet();
+                action.run();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    Update register(Runnable action){
+        Update update = new Update(action);
+        updates.add(update);
+        return update;
+    }
+
+    void unregister(Update update){
+        updates.remove(update);
+    }
+
+    //updates requested before start run with the first pulse after it
+    void start(){
+        enabled = true;
+        if(hasPending()){
+            wake();
+        }
+    }
+
+    //off the FX thread a start or wake may get there first, the timer it started stays
+    void stop(){
+        enabled = false;
+        running.set(false);
+        runOnFXThread(() -> {
+            if(!running.get()){
+                timer.stop();
+            }
+        });
+    }
+
+    boolean isRunning(){ return running.get(); }
+
+    long getRequested(){ return requested.get(); }
+    long getCoalesced(){ return coalesced.get(); }
+    long getApplied(){ return applied.get(); }
+
+    private void wake(){
+        if(enabled && running.compareAndSet(false, true)){
+            runOnFXThread(timer::start);
+        }
+    }
+
+    //on the FX thread, from a pulse
+    private void pause(){
+        running.set(false);
+        timer.stop();
+    }
+
+    private boolean hasPending(){
+        for(Update update : updates){
+            if(update.pending.get()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void runOnFXThread(Runnable r){
+        if(Platform.isFxApplicationThread()){
+            r.run();
+        } else {
+            PlaybackMetrics.runLater(r);
+        }
+    }
+}
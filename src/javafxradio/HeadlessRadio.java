@@ -0,0 +1,205 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.media.MediaPlayer;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+//runs SongModel without any window, controlled through a ControlServer on the
+//loopback interface. Started by JavaFXRadio with --headless; --port=N picks the
+//port and --play=URL starts a track, otherwise nothing plays until told to.
+//
+//Commands, one per line: load URL, play, pause, seek SECONDS, enqueue URL, next,
+//previous, status, subscribe, unsubscribe, quit. Replies are "OK", "ERR message"
+//or a status line: "STATUS" followed by tab separated key=value pairs.
+public class HeadlessRadio extends Application {
+    private static final Duration STATUS_INTERVAL = Duration.millis(250);
+
+    private final SongModel songModel = new SongModel();
+    private ControlServer server;
+    private String lastStatus;
+
+    @Override
+    public void start(Stage primaryStage) throws IOException {
+        //the stage is never shown, keep the toolkit alive without windows
+        Platform.setImplicitExit(false);
+        PlaybackMetrics.register();
+
+        final Map<String, String> named = getParameters().getNamed();
+        final int port = named.containsKey("port")
+                ? Integer.parseInt(named.get("port")) : ControlServer.DEFAULT_PORT;
+        server = new ControlServer(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), this::handle);
+        server.start();
+        System.out.println("Headless player listening on port "+server.getPort());
+
+        //subscribers get a status whenever it changed since the last tick
+        final Timeline statusTimer = new Timeline(new KeyFrame(STATUS_INTERVAL, e -> {
+            if(server.getSubscriberCount() > 0){
+                String status = status();
+                if(!status.equals(lastStatus)){
+                    lastStatus = status;
+                    server.broadcast(status);
+                }
+            }
+        }));
+        statusTimer.setCycleCount(Timeline.INDEFINITE);
+        statusTimer.play();
+
+        if(named.containsKey("play")){
+            songModel.setURLAsync(named.get("play")).thenRun(songModel::play);
+        }
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if(server != null){
+            server.close();
+        }
+    }
+
+    //runs on the control server's thread, the model is only touched on the FX thread
+    private CompletableFuture<String> handle(String command, String argument){
+        switch(command){
+            case "load":
+                return onFx(() -> requireArgument(argument) != null
+                        ? songModel.setURLAsync(argument).thenApply(p -> "OK")
+                        : error("load needs a URL"));
+            case "play":
+                return onFx(() -> { songModel.play(); return ok(); });
+            case "pause":
+                return onFx(() -> { songModel.pause(); return ok(); });
+            case "seek":
+                return onFx(() -> seek(argument));
+            case "enqueue":
+                return onFx(() -> enqueue(argument));
+            case "next":
+                return onFx(() -> playLoaded(songModel.playNextAsync(), "end of queue"));
+            case "previous":
+                return onFx(() -> playLoaded(songModel.playPreviousAsync(), "start of queue"));
+            case "status":
+                return onFx(() -> CompletableFuture.completedFuture(status()));
+            case "quit":
+                return onFx(() -> { Platform.exit(); return ok(); });
+            default:
+                return error("unknown command "+command);
+        }
+    }
+
+    private CompletableFuture<String> seek(String argument){
+        final MediaPlayer player = songModel.getMediaPlayer();
+        if(songModel.isPcmActive() || player == null){
+            return error("nothing seekable is loaded");
+        }
+        final double seconds;
+        try {
+            seconds = Double.parseDouble(argument);
+        } catch(NumberFormatException e){
+            return error("seek needs seconds");
+        }
+        player.seek(Duration.seconds(seconds));
+        return ok();
+    }
+
+    //appends to the queue, playback starts with it when nothing was queued before
+    private CompletableFuture<String> enqueue(String url){
+        if(requireArgument(url) == null){
+            return error("enqueue needs a URL");
+        }
+        final PlayQueue queue = songModel.getQueue();
+        queue.add(url);
+        final int index = queue.size() - 1;
+        if(queue.getCurrentIndex() < 0){
+            return songModel.playQueueIndexAsync(index).thenApply(p -> "OK "+index);
+        }
+        songModel.setNextURL(queue.peekNext());
+        return CompletableFuture.completedFuture("OK "+index);
+    }
+
+    //load is null when the queue has no entry in that direction
+    private CompletableFuture<String> playLoaded(CompletableFuture<MediaPlayer> load,
+            String none){
+        if(load == null){
+            return error(none);
+        }
+        return load.thenApply(p -> {
+            songModel.play();
+            return "OK";
+        });
+    }
+
+    private String status(){
+        final MediaPlayer player = songModel.getMediaPlayer();
+        final String state;
+        if(songModel.isPcmActive()){
+            state = songModel.getPcmPlayer().getState().name();
+        } else {
+            state = player == null ? "EMPTY" : String.valueOf(player.getStatus());
+        }
+        final StringBuilder sb = new StringBuilder("STATUS");
+        append(sb, "state", state);
+        if(player != null && !songModel.isPcmActive()){
+            append(sb, "position", seconds(player.getCurrentTime()));
+            append(sb, "duration", seconds(player.getTotalDuration()));
+        }
+        append(sb, "index", String.valueOf(songModel.getQueue().getCurrentIndex()));
+        append(sb, "queue", String.valueOf(songModel.getQueue().size()));
+        //one snapshot, so title and artist always belong to the same track
+        final TrackInfo track = songModel.getTrackInfo();
+        append(sb, "title", track.getTitle());
+        append(sb, "artist", track.getArtist());
+        append(sb, "album", track.getAlbum());
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String key, String value){
+        //tabs and line breaks would break the framing of the line
+        sb.append('\t').append(key).append('=')
+                .append(value == null ? "" : value.replaceAll("[\t\r\n]", " "));
+    }
+
+    private static String seconds(Duration d){
+        return d == null || d.isUnknown() || d.isIndefinite() ? ""
+                : String.format(Locale.ROOT, "%.1f", d.toSeconds());
+    }
+
+    private static String requireArgument(String argument){
+        return argument == null || argument.isEmpty() ? null : argument;
+    }
+
+    private static CompletableFuture<String> onFx(Supplier<CompletableFuture<String>> action){
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                action.get().whenComplete((text, error) -> {
+                    if(error != null){
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(text);
+                    }
+                });
+            } catch(RuntimeException e){
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static CompletableFuture<String> ok(){
+        return CompletableFuture.completedFuture("OK");
+    }
+
+    private static CompletableFuture<String> error(String message){
+        return CompletableFuture.completedFuture("ERR "+message);
+    }
+}
@@ -1,9 +1,15 @@
 package javafxradio;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -14,6 +20,7 @@ import javafx.scene.input.DragEvent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.*;
+import javafx.scene.media.MediaPlayer;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
@@ -24,22 +31,34 @@ public class JavaFXRadio extends Application {
     private Button eqBtn;
     private Button playlistBtn;
     
+    //--headless runs without a window, see HeadlessRadio.
+    //--no-default-track starts without playing the bundled song
     public static void main(String[] args) {
-        launch(args);
+        if(Arrays.asList(args).contains("--headless")){
+            Application.launch(HeadlessRadio.class, args);
+        } else {
+            launch(args);
+        }
     }
     
     public JavaFXRadio(){
         songModel = new SongModel();
     }
     
+    //only what the first frame needs happens here, images decode in the background and
+    //the default track loads once the window is up
     @Override
     public void start(Stage primaryStage){
-        URL path = getClass().getResource("resources/Ok.mp3");
+        StartupTimer.phase("launch");
+        PlaybackMetrics.register();
+        final boolean defaultTrack = !getParameters().getRaw().contains("--no-default-track");
+        StartupTimer.expectAudio(defaultTrack);
         URL icon = getClass().getResource("resources/music-player.png");
-        songModel.setURL(path.toString());
     
         HBox bottomBox = new HBox();    
         eqBtn = createEQButton(primaryStage);
+        //the equalizer works on the bands of a player, there is none until a track loaded
+        eqBtn.disableProperty().bind(songModel.mediaPlayerProperty().isNull());
         playlistBtn = createOpenButton(primaryStage);
     
         metaDataView = new MetadataView(songModel);
@@ -47,6 +66,7 @@ public class JavaFXRadio extends Application {
         bottomBox.getChildren().addAll(playlistBtn,
             playerControlsView.getViewNode(), eqBtn);
         bottomBox.setAlignment(Pos.BOTTOM_CENTER);
+        StartupTimer.phase("views");
     
         final BorderPane root = new BorderPane();
         root.setCenter(metaDataView.getViewNode());
@@ -59,15 +79,40 @@ public class JavaFXRadio extends Application {
         final URL stylesheet = getClass().getResource("playerStyle.css");
         scene.getStylesheets().add(stylesheet.toString());
     
-        primaryStage.getIcons().add(new Image(icon.toString()));
+        primaryStage.getIcons().add(new Image(icon.toString(), true));
         primaryStage.setScene(scene);
         primaryStage.setResizable(false);
         primaryStage.setTitle("New Player");
         primaryStage.show();
+        StartupTimer.phase("show");
+        StartupTimer.awaitFirstFrame();
         
         primaryStage.setOnCloseRequest(e -> Platform.exit());
     
-        songModel.getMediaPlayer().play();
+        if(defaultTrack){
+            playDefaultTrack();
+        }
+    }
+    
+    private void playDefaultTrack(){
+        URL path = getClass().getResource("resources/Ok.mp3");
+        songModel.setURLAsync(path.toString()).whenComplete((player, error) -> {
+            //a song opened before the default track was ready replaces it
+            if(player == null){
+                StartupTimer.expectAudio(false);
+                return;
+            }
+            player.statusProperty().addListener(new InvalidationListener(){
+                @Override
+                public void invalidated(Observable observable) {
+                    if(player.getStatus() == MediaPlayer.Status.PLAYING){
+                        player.statusProperty().removeListener(this);
+                        StartupTimer.audioStarted();
+                    }
+                }
+            });
+            songModel.play();
+        });
     }
     
     private Button createOpenButton(Stage primaryStage) {
@@ -76,11 +121,10 @@ public class JavaFXRadio extends Application {
         openButton.setOnAction(actionEvent -> {
             FileChooser fc = new FileChooser();
             fc.setTitle("Open");
-            File song = fc.showOpenDialog(primaryStage.getScene().getWindow());
+            List<File> songs = fc.showOpenMultipleDialog(primaryStage.getScene().getWindow());
                         
-            if(song != null){
-                songModel.setURL(song.toURI().toString());
-                songModel.getMediaPlayer().play();
+            if(songs != null){
+                openFiles(songs);
             }
         });
         openButton.setPrefWidth(32);
@@ -104,12 +148,15 @@ public class JavaFXRadio extends Application {
             scene.getStylesheets().add(stylesheet.toString());
             Stage eqWindow = new Stage();
             
-            eqBtn.disableProperty().bind(eqWindow.showingProperty());
+            eqBtn.disableProperty().bind(eqWindow.showingProperty()
+                    .or(songModel.mediaPlayerProperty().isNull()));
             
             eqWindow.setX(primaryStage.getX()+ primaryStage.getWidth());
             eqWindow.setY(primaryStage.getY());
             eqWindow.getIcons().add(new Image(icon.toString()));
             eqWindow.setScene(scene);
+            //a new view is made per opening, the closed one lets go of the model
+            eqWindow.setOnHidden(e -> equalizerView.dispose());
             eqWindow.setResizable(false);
             eqWindow.setTitle("Equalizer");
             eqWindow.show();
@@ -133,28 +180,56 @@ public class JavaFXRadio extends Application {
             }
         });
         
-        //gets the url of the first file in the list of dropped files
+        //queues all dropped files and plays the first of them
         scene.setOnDragDropped(new EventHandler<DragEvent>(){
             @Override
             public void handle(DragEvent event) {
                 Dragboard db = event.getDragboard();
-                String uri = null;
+                boolean queued = false;
                 
                 if(db.hasFiles()){
-                    uri = db.getFiles().get(0).toURI().toString();
+                    queued = openFiles(db.getFiles());
                 } else if (db.hasUrl()){
-                    uri = db.getUrl();
-                }
-                
-                if(uri != null){
-                    songModel.setURL(uri);
-                    songModel.getMediaPlayer().play();
+                    final PlayQueue queue = songModel.getQueue();
+                    queue.add(db.getUrl());
+                    playFrom(queue.size() - 1);
+                    queued = true;
                 }
                 
-                event.setDropCompleted(uri != null);
+                event.setDropCompleted(queued);
                 event.consume();
             }            
         });
     }
+    
+    //appends songs and playlists to the queue, playback jumps to the first one added
+    private boolean openFiles(List<File> files){
+        final PlayQueue queue = songModel.getQueue();
+        final int first = queue.size();
+        
+        for(File file : files){
+            final Path path = file.toPath();
+            if(PlaylistParser.isPlaylist(path)){
+                try {
+                    PlaylistParser.parse(path, queue::add);
+                } catch(IOException e){
+                    System.out.println("Playlist error: "+e);
+                }
+            } else {
+                queue.add(file.toURI().toString());
+            }
+        }
+        
+        if(queue.size() == first){
+            return false;
+        }
+        playFrom(first);
+        return true;
+    }
+    
+    //loading happens off the FX thread, a newer drop supersedes this one
+    private void playFrom(int queueIndex){
+        songModel.playQueueIndexAsync(queueIndex).thenRun(songModel::play);
+    }
         
 }
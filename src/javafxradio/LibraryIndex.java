@@ -0,0 +1,112 @@
+package javafxradio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//thread safe set of TrackRecords keyed by path, persisted as a gzipped binary file
+final class LibraryIndex {
+    private static final int MAGIC = 0x4A465249; //"JFRI"
+    private static final int VERSION = 1;
+
+    interface Listener {
+        void trackAdded(TrackRecord track);
+        void trackRemoved(TrackRecord track);
+    }
+
+    private final Map<String, TrackRecord> tracks = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean dirty;
+
+    TrackRecord get(String path){ return tracks.get(path); }
+    int size(){ return tracks.size(); }
+    boolean isDirty(){ return dirty; }
+
+    Collection<TrackRecord> getTracks(){
+        return new ArrayList<>(tracks.values());
+    }
+
+    void addListener(Listener listener){ listeners.add(listener); }
+    void removeListener(Listener listener){ listeners.remove(listener); }
+
+    void put(TrackRecord track){
+        TrackRecord old = tracks.put(track.getPath(), track);
+        dirty = true;
+        for(Listener l : listeners){
+            if(old != null){
+                l.trackRemoved(old);
+            }
+            l.trackAdded(track);
+        }
+    }
+
+    TrackRecord remove(String path){
+        TrackRecord old = tracks.remove(path);
+        if(old != null){
+            dirty = true;
+            for(Listener l : listeners){
+                l.trackRemoved(old);
+            }
+        }
+        return old;
+    }
+
+    //replaces the content of the index with the one stored in file
+    void load(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("Not a library index: "+file);
+            }
+            int count = in.readInt();
+            Map<String, TrackRecord> loaded = new ConcurrentHashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                TrackRecord track = TrackRecord.read(in);
+                loaded.put(track.getPath(), track);
+            }
+            tracks.clear();
+            tracks.putAll(loaded);
+            dirty = false;
+        } catch(NoSuchFileException e){
+            //first run, nothing stored yet
+        }
+    }
+
+    //writes to a temporary file first so a crash never leaves a half written index
+    void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        //cleared first, tracks put while saving mark the index dirty again
+        dirty = false;
+        Collection<TrackRecord> snapshot = getTracks();
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp))))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for(TrackRecord track : snapshot){
+                    track.write(out);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e){
+            dirty = true;
+            throw e;
+        }
+    }
+}
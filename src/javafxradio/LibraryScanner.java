@@ -0,0 +1,277 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//walks music folders in parallel and keeps a LibraryIndex in sync with the disk
+final class LibraryScanner implements AutoCloseable {
+    private static final Set<String> AUDIO_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "mp3", "m4a", "aac", "wav", "aif", "aiff", "flac", "ogg"));
+
+    private final LibraryIndex index;
+    private final ForkJoinPool pool;
+    private final AtomicInteger filesVisited = new AtomicInteger();
+    private final AtomicInteger filesUpdated = new AtomicInteger();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private Thread watchThread;
+
+    LibraryScanner(LibraryIndex index){
+        this(index, ForkJoinPool.commonPool());
+    }
+
+    LibraryScanner(LibraryIndex index, ForkJoinPool pool){
+        this.index = index;
+        this.pool = pool;
+    }
+
+    int getFilesVisited(){ return filesVisited.get(); }
+    int getFilesUpdated(){ return filesUpdated.get(); }
+
+    static boolean isAudioFile(Path file){
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && AUDIO_EXTENSIONS.contains(
+                name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    //full scan of root: new and changed files are (re)read, vanished ones dropped
+    void scan(Path root){
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+        final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+        final Set<Object> visited = ConcurrentHashMap.newKeySet();
+        try {
+            visited.add(directoryKey(root, Files.readAttributes(root, BasicFileAttributes.class)));
+        } catch(IOException e){
+            //the task reports it when it cannot list root
+        }
+        pool.invoke(new DirectoryTask(root, seen, unreadable, visited));
+
+        //a folder that could not be listed keeps its old records
+        String prefix = directoryPrefix(root);
+        for(TrackRecord track : index.getTracks()){
+            String path = track.getPath();
+            if(path.startsWith(prefix) && !seen.contains(path)
+                    && !isUnder(path, unreadable)){
+                index.remove(path);
+            }
+        }
+    }
+
+    private static String directoryPrefix(Path dir){
+        return dir.toAbsolutePath().toString() + dir.getFileSystem().getSeparator();
+    }
+
+    //identifies a folder however it was reached, links included
+    private static Object directoryKey(Path dir, BasicFileAttributes attrs) throws IOException {
+        Object key = attrs.fileKey();
+        return key != null ? key : dir.toRealPath().toString();
+    }
+
+    private static boolean isUnder(String path, Set<String> dirPrefixes){
+        for(String prefix : dirPrefixes){
+            if(path.startsWith(prefix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //only files whose size or mtime differ from the index are opened
+    private void visitFile(Path file, BasicFileAttributes attrs, Set<String> seen){
+        filesVisited.incrementAndGet();
+        String path = file.toAbsolutePath().toString();
+        if(seen != null){
+            seen.add(path);
+        }
+        long mtime = attrs.lastModifiedTime().toMillis();
+        TrackRecord known = index.get(path);
+        if(known == null || !known.matches(attrs.size(), mtime)){
+            index.put(createRecord(path, attrs.size(), mtime));
+            filesUpdated.incrementAndGet();
+        }
+    }
+
+    //only the tag region is read, a file without readable tags is still indexed
+    private TrackRecord createRecord(String path, long size, long mtime){
+        try {
+            final TagReader.Tags tags = TagReader.read(Paths.get(path));
+            return new TrackRecord(path, size, mtime, tags.title, tags.artist, tags.album,
+                    tags.year, tags.durationMillis);
+        }catch(IOException | RuntimeException e){
+            return new TrackRecord(path, size, mtime, null, null, null, null, 0);
+        }
+    }
+
+    //starts a daemon thread that applies file system events to the index
+    synchronized void watch(Path root) throws IOException {
+        if(watchService == null){
+            watchService = FileSystems.getDefault().newWatchService();
+            watchThread = new Thread(this::processEvents, "library-watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+        registerTree(root);
+    }
+
+    private void registerTree(Path root) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        Set<Object> visited = new HashSet<>();
+        dirs.add(root);
+        while(!dirs.isEmpty()){
+            Path dir = dirs.remove(dirs.size() - 1);
+            if(!visited.add(directoryKey(dir, Files.readAttributes(dir, BasicFileAttributes.class)))){
+                continue;
+            }
+            WatchKey key = dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirs.put(key, dir);
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)){
+                for(Path child : stream){
+                    dirs.add(child);
+                }
+            }
+        }
+    }
+
+    private void processEvents(){
+        final WatchService service = watchService;
+        try {
+            while(true){
+                WatchKey key = service.take();
+                Path dir = watchedDirs.get(key);
+                if(dir != null){
+                    for(WatchEvent<?> event : key.pollEvents()){
+                        handleEvent(dir, event);
+                    }
+                }
+                if(!key.reset()){
+                    watchedDirs.remove(key);
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException e){
+            //scanner closed
+        }
+    }
+
+    private void handleEvent(Path dir, WatchEvent<?> event){
+        if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+            //events were lost, fall back to the mtime/size comparison
+            scan(dir);
+            return;
+        }
+        Path child = dir.resolve((Path)event.context());
+        try {
+            if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE){
+                removeUnder(child);
+            } else if(Files.isDirectory(child)){
+                registerTree(child);
+                scan(child);
+            } else if(isAudioFile(child)){
+                visitFile(child, Files.readAttributes(child, BasicFileAttributes.class), null);
+            }
+        } catch(IOException e){
+            System.out.println("Library watch error: "+e);
+        }
+    }
+
+    private void removeUnder(Path deleted){
+        String path = deleted.toAbsolutePath().toString();
+        if(index.remove(path) == null){
+            String prefix = directoryPrefix(deleted);
+            for(TrackRecord track : index.getTracks()){
+                if(track.getPath().startsWith(prefix)){
+                    index.remove(track.getPath());
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(watchService != null){
+            watchService.close();
+            watchThread.interrupt();
+            watchService = null;
+            watchedDirs.clear();
+        }
+    }
+
+    //lists one directory, forks a task for every sub directory not visited yet
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Set<String> seen;
+        private final Set<String> unreadable;
+        //keys of the folders of this scan, links can lead back to one of them
+        private final Set<Object> visited;
+
+        DirectoryTask(Path dir, Set<String> seen, Set<String> unreadable, Set<Object> visited){
+            this.dir = dir;
+            this.seen = seen;
+            this.unreadable = unreadable;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subTasks = new ArrayList<>();
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                for(Path child : stream){
+                    visitChild(child, subTasks);
+                }
+            } catch(IOException | DirectoryIteratorException e){
+                unreadable.add(directoryPrefix(dir));
+                System.out.println("Library scan error: "+e);
+            }
+            invokeAll(subTasks);
+        }
+
+        //a child that cannot be read is skipped, the rest of the folder is still scanned
+        private void visitChild(Path child, List<DirectoryTask> subTasks){
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                if(attrs.isDirectory()){
+                    if(visited.add(directoryKey(child, attrs))){
+                        subTasks.add(new DirectoryTask(child, seen, unreadable, visited));
+                    }
+                } else if(attrs.isRegularFile() && isAudioFile(child)){
+                    visitFile(child, attrs, seen);
+                }
+            } catch(NoSuchFileException e){
+                //dangling link or deleted since the listing, its record goes
+            } catch(IOException e){
+                //keeps the old records of the child
+                seen.add(child.toAbsolutePath().toString());
+                unreadable.add(directoryPrefix(child));
+                System.out.println("Library scan error: "+e);
+            }
+        }
+    }
+}
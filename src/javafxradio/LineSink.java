@@ -0,0 +1,46 @@
+package javafxradio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+//plays through the default mixer, a smaller buffer means lower latency but more risk of underruns
+final class LineSink implements PcmSink {
+    private final int bufferMillis;
+    private SourceDataLine line;
+
+    LineSink(int bufferMillis){
+        this.bufferMillis = bufferMillis;
+    }
+
+    @Override
+    public void open(AudioFormat format) throws LineUnavailableException {
+        line = AudioSystem.getSourceDataLine(format);
+        int bytes = (int)(format.getFrameRate() * bufferMillis / 1000) * format.getFrameSize();
+        line.open(format, Math.max(format.getFrameSize(), bytes));
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        return line.write(data, offset, length);
+    }
+
+    @Override public void start() { line.start(); }
+    @Override public void stop() { line.stop(); }
+    @Override public void flush() { line.flush(); }
+    @Override public void drain() { line.drain(); }
+
+    @Override
+    public void close() {
+        if(line != null){
+            line.close();
+            line = null;
+        }
+    }
+
+    //actual size granted by the mixer, may differ from the requested one
+    int getBufferBytes(){
+        return line == null ? 0 : line.getBufferSize();
+    }
+}
@@ -0,0 +1,257 @@
+package javafxradio;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+//ITU-R BS.1770 / EBU R128 integrated loudness and true peak of one stream.
+//Gating blocks are kept as a histogram of 0.1 LU bins with their summed energy,
+//so meters of several tracks can be combined into an album value.
+final class LoudnessMeter {
+    static final double ABSOLUTE_GATE = -70.0;
+    static final double RELATIVE_GATE = -10.0;
+    //histogram covers -70 to +5 LUFS, louder blocks land in the last bin
+    private static final double BIN_WIDTH = 0.1;
+    private static final int BINS = 750;
+    //interpolation filter taps per phase for the true peak
+    private static final int TAPS_PER_PHASE = 12;
+
+    private final int channels;
+    private final double[] channelWeight;
+    //K-weighting: high shelf then high pass, one state pair per stage and channel
+    private final double[] shelfB = new double[3];
+    private final double[] shelfA = new double[3];
+    private final double[] passB = {1, -2, 1};
+    private final double[] passA = new double[3];
+    private final double[] shelfZ1;
+    private final double[] shelfZ2;
+    private final double[] passZ1;
+    private final double[] passZ2;
+
+    //100 ms sub-blocks, a gating block is four of them (400 ms with 75% overlap)
+    private final int subBlockFrames;
+    private int subBlockPos;
+    private double subBlockEnergy;
+    private final double[] recentSubBlocks = new double[4];
+    private int subBlocksSeen;
+
+    private final long[] binCount = new long[BINS];
+    private final double[] binEnergy = new double[BINS];
+
+    //true peak: polyphase oversampling of the last TAPS_PER_PHASE input samples,
+    //every sample is stored twice so the taps read one contiguous run
+    private final int oversampling;
+    private final double[][] phaseTaps;
+    private final double[] history;
+    private int historyPos;
+    private double truePeak;
+
+    private long frames;
+
+    LoudnessMeter(float sampleRate, int channels){
+        this.channels = channels;
+        this.channelWeight = new double[channels];
+        for (int c = 0; c < channels; c++) {
+            //L R C LFE Ls Rs: the LFE is ignored, surrounds weigh +1.5 dB
+            channelWeight[c] = channels > 3 && c == 3 ? 0.0 : c >= 4 ? 1.41 : 1.0;
+        }
+        computeFilters(sampleRate);
+        shelfZ1 = new double[channels];
+        shelfZ2 = new double[channels];
+        passZ1 = new double[channels];
+        passZ2 = new double[channels];
+        subBlockFrames = Math.max(1, Math.round(sampleRate / 10));
+
+        oversampling = sampleRate < 96000 ? 4 : 2;
+        phaseTaps = computePhaseTaps(oversampling);
+        history = new double[channels * TAPS_PER_PHASE * 2];
+    }
+
+    //K-weighting coefficients for any rate, the BS.1770 table only lists 48 kHz
+    private void computeFilters(double rate){
+        double f0 = 1681.974450955533;
+        double gain = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / rate);
+        double vh = Math.pow(10, gain / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        shelfB[0] = (vh + vb * k / q + k * k) / a0;
+        shelfB[1] = 2 * (k * k - vh) / a0;
+        shelfB[2] = (vh - vb * k / q + k * k) / a0;
+        shelfA[1] = 2 * (k * k - 1) / a0;
+        shelfA[2] = (1 - k / q + k * k) / a0;
+
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / rate);
+        a0 = 1 + k / q + k * k;
+        passA[1] = 2 * (k * k - 1) / a0;
+        passA[2] = (1 - k / q + k * k) / a0;
+    }
+
+    //Hann windowed sinc low pass at the original Nyquist, split into phases
+    private static double[][] computePhaseTaps(int factor){
+        final int length = factor * TAPS_PER_PHASE;
+        final double[][] taps = new double[factor][TAPS_PER_PHASE];
+        final double center = (length - 1) / 2.0;
+        for (int i = 0; i < length; i++) {
+            double x = (i - center) / factor;
+            double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+            double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / length);
+            taps[i % factor][i / factor] = sinc * window;
+        }
+        return taps;
+    }
+
+    //interleaved samples in [-1, 1]
+    void process(float[] samples, int count){
+        for (int f = 0; f < count; f++) {
+            double energy = 0;
+            for (int c = 0; c < channels; c++) {
+                final double x = samples[f * channels + c];
+                trackPeak(c, x);
+
+                //transposed direct form II, two stages
+                double y = shelfB[0] * x + shelfZ1[c];
+                shelfZ1[c] = shelfB[1] * x - shelfA[1] * y + shelfZ2[c];
+                shelfZ2[c] = shelfB[2] * x - shelfA[2] * y;
+                double z = passB[0] * y + passZ1[c];
+                passZ1[c] = passB[1] * y - passA[1] * z + passZ2[c];
+                passZ2[c] = passB[2] * y - passA[2] * z;
+
+                energy += channelWeight[c] * z * z;
+            }
+            if(++historyPos == TAPS_PER_PHASE){
+                historyPos = 0;
+            }
+            subBlockEnergy += energy;
+            if(++subBlockPos == subBlockFrames){
+                endSubBlock();
+            }
+        }
+        frames += count;
+    }
+
+    private void trackPeak(int channel, double x){
+        final int base = channel * TAPS_PER_PHASE * 2;
+        history[base + historyPos] = x;
+        history[base + historyPos + TAPS_PER_PHASE] = x;
+        final int newest = base + historyPos + TAPS_PER_PHASE;
+        double peak = Math.abs(x);
+        for (int p = 0; p < oversampling; p++) {
+            final double[] taps = phaseTaps[p];
+            double sum = 0;
+            for (int t = 0; t < TAPS_PER_PHASE; t++) {
+                sum += taps[t] * history[newest - t];
+            }
+            peak = Math.max(peak, Math.abs(sum));
+        }
+        if(peak > truePeak){
+            truePeak = peak;
+        }
+    }
+
+    private void endSubBlock(){
+        recentSubBlocks[subBlocksSeen & 3] = subBlockEnergy / subBlockFrames;
+        ++subBlocksSeen;
+        subBlockEnergy = 0;
+        subBlockPos = 0;
+        if(subBlocksSeen >= 4){
+            double block = (recentSubBlocks[0] + recentSubBlocks[1]
+                    + recentSubBlocks[2] + recentSubBlocks[3]) / 4;
+            double loudness = toLoudness(block);
+            if(loudness >= ABSOLUTE_GATE){
+                int bin = Math.min(BINS - 1, (int)((loudness - ABSOLUTE_GATE) / BIN_WIDTH));
+                ++binCount[bin];
+                binEnergy[bin] += block;
+            }
+        }
+    }
+
+    long getFrames(){ return frames; }
+
+    //integrated loudness in LUFS, NaN for silence or streams shorter than 400 ms
+    double getIntegratedLoudness(){
+        return integrated(new LoudnessMeter[]{this});
+    }
+
+    //highest inter-sample peak in dBTP
+    double getTruePeak(){
+        return 20 * Math.log10(Math.max(truePeak, 1e-10));
+    }
+
+    //loudness of several streams played one after the other, e.g. an album
+    static double integrated(LoudnessMeter[] meters){
+        long count = 0;
+        double energy = 0;
+        for(LoudnessMeter m : meters){
+            for (int b = 0; b < BINS; b++) {
+                count += m.binCount[b];
+                energy += m.binEnergy[b];
+            }
+        }
+        if(count == 0){
+            return Double.NaN;
+        }
+        //relative gate 10 LU below the absolute gated loudness, at bin resolution
+        final double threshold = toLoudness(energy / count) + RELATIVE_GATE;
+        final int first = Math.max(0, (int)((threshold - ABSOLUTE_GATE) / BIN_WIDTH));
+        count = 0;
+        energy = 0;
+        for(LoudnessMeter m : meters){
+            for (int b = first; b < BINS; b++) {
+                count += m.binCount[b];
+                energy += m.binEnergy[b];
+            }
+        }
+        return count == 0 ? Double.NaN : toLoudness(energy / count);
+    }
+
+    static double truePeak(LoudnessMeter[] meters){
+        double peak = 0;
+        for(LoudnessMeter m : meters){
+            peak = Math.max(peak, m.truePeak);
+        }
+        return 20 * Math.log10(Math.max(peak, 1e-10));
+    }
+
+    private static double toLoudness(double energy){
+        return -0.691 + 10 * Math.log10(energy);
+    }
+
+    //decodes url completely, WAV/AIFF natively and other formats through a decoder SPI
+    static LoudnessMeter measure(String url) throws IOException, UnsupportedAudioFileException {
+        try(InputStream in = new BufferedInputStream(new URL(url).openStream());
+                AudioInputStream source = AudioSystem.getAudioInputStream(in)){
+            AudioFormat sf = source.getFormat();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                    sf.getSampleRate(), 16, sf.getChannels(), sf.getChannels() * 2,
+                    sf.getSampleRate(), false);
+            try(AudioInputStream stream = AudioSystem.getAudioInputStream(pcm, source)){
+                final LoudnessMeter meter = new LoudnessMeter(pcm.getSampleRate(), pcm.getChannels());
+                final int frameSize = pcm.getFrameSize();
+                final byte[] block = new byte[4096 * frameSize];
+                final float[] samples = new float[4096 * pcm.getChannels()];
+                int n;
+                int carry = 0;
+                while((n = stream.read(block, carry, block.length - carry)) > 0){
+                    int available = carry + n;
+                    int frames = available / frameSize;
+                    for (int i = 0, s = 0; s < frames * pcm.getChannels(); i += 2, s++) {
+                        samples[s] = (short)((block[i] & 0xff) | (block[i+1] << 8)) / 32768f;
+                    }
+                    meter.process(samples, frames);
+                    carry = available - frames * frameSize;
+                    System.arraycopy(block, frames * frameSize, block, 0, carry);
+                }
+                return meter;
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//measures loudness of library tracks in parallel, one task per album and track.
+//Tracks of a folder form an album. Results are checkpointed to the store file while
+//the scan runs, so an interrupted scan continues where it stopped.
+final class LoudnessScanner {
+    private static final long CHECKPOINT_NANOS = 10_000_000_000L;
+
+    private final LoudnessStore store;
+    private final Path storeFile;
+    private final ForkJoinPool pool;
+    private volatile boolean cancelled;
+    private long lastCheckpoint;
+
+    private final AtomicInteger tracksAnalyzed = new AtomicInteger();
+    private final AtomicInteger tracksSkipped = new AtomicInteger();
+    private final AtomicInteger tracksFailed = new AtomicInteger();
+    private final AtomicLong framesAnalyzed = new AtomicLong();
+    private volatile long scanStart;
+    private volatile long scanEnd;
+
+    LoudnessScanner(LoudnessStore store, Path storeFile){
+        this(store, storeFile, ForkJoinPool.commonPool());
+    }
+
+    //the calling thread joins the pool while scanning, so the common pool uses every core
+    LoudnessScanner(LoudnessStore store, Path storeFile, ForkJoinPool pool){
+        this.store = store;
+        this.storeFile = storeFile;
+        this.pool = pool;
+    }
+
+    int getTracksAnalyzed(){ return tracksAnalyzed.get(); }
+    //tracks whose stored result was still current
+    int getTracksSkipped(){ return tracksSkipped.get(); }
+    int getTracksFailed(){ return tracksFailed.get(); }
+    long getFramesAnalyzed(){ return framesAnalyzed.get(); }
+
+    //analyzed tracks per second of the current or last scan
+    double getTracksPerSecond(){
+        long start = scanStart;
+        if(start == 0){
+            return 0;
+        }
+        long end = scanEnd != 0 ? scanEnd : System.nanoTime();
+        return tracksAnalyzed.get() * 1e9 / Math.max(1, end - start);
+    }
+
+    //stops a running scan after the tracks being decoded, finished albums are kept
+    void cancel(){ cancelled = true; }
+
+    //analyzes every album with a missing or outdated result, blocks until done
+    void scan(Collection<TrackRecord> tracks) throws IOException {
+        cancelled = false;
+        tracksAnalyzed.set(0);
+        tracksSkipped.set(0);
+        tracksFailed.set(0);
+        framesAnalyzed.set(0);
+        scanEnd = 0;
+        scanStart = System.nanoTime();
+        lastCheckpoint = scanStart;
+
+        Map<String, List<TrackRecord>> albums = new LinkedHashMap<>();
+        for(TrackRecord track : tracks){
+            Path parent = track.toPath().getParent();
+            String key = parent == null ? "" : parent.toString();
+            List<TrackRecord> album = albums.get(key);
+            if(album == null){
+                album = new ArrayList<>();
+                albums.put(key, album);
+            }
+            album.add(track);
+        }
+        List<AlbumTask> tasks = new ArrayList<>(albums.size());
+        for(List<TrackRecord> album : albums.values()){
+            tasks.add(new AlbumTask(album));
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            scanEnd = System.nanoTime();
+            if(store.isDirty()){
+                store.save(storeFile);
+            }
+        }
+    }
+
+    //saves the store now and then from whichever worker finishes an album
+    private void checkpoint(){
+        synchronized(this){
+            long now = System.nanoTime();
+            if(now - lastCheckpoint < CHECKPOINT_NANOS){
+                return;
+            }
+            lastCheckpoint = now;
+        }
+        try {
+            store.save(storeFile);
+        } catch(IOException e){
+            System.out.println("Loudness checkpoint failed: "+e);
+        }
+    }
+
+    private final class AlbumTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<TrackRecord> tracks;
+
+        AlbumTask(List<TrackRecord> tracks){
+            this.tracks = tracks;
+        }
+
+        @Override
+        protected void compute() {
+            boolean current = true;
+            for(TrackRecord track : tracks){
+                current &= store.isCurrent(track) || store.isFailed(track);
+            }
+            if(current){
+                tracksSkipped.addAndGet(tracks.size());
+                return;
+            }
+
+            //album values need every track, so a changed album is measured again in full
+            List<TrackTask> subtasks = new ArrayList<>(tracks.size());
+            for(TrackRecord track : tracks){
+                subtasks.add(new TrackTask(track));
+            }
+            invokeAll(subtasks);
+            if(cancelled){
+                return;
+            }
+
+            List<LoudnessMeter> measured = new ArrayList<>(subtasks.size());
+            for(TrackTask t : subtasks){
+                if(t.meter != null){
+                    measured.add(t.meter);
+                }
+            }
+            LoudnessMeter[] meters = measured.toArray(new LoudnessMeter[0]);
+            double albumLoudness = LoudnessMeter.integrated(meters);
+            double albumPeak = LoudnessMeter.truePeak(meters);
+            for(TrackTask t : subtasks){
+                if(t.meter != null){
+                    store.put(new LoudnessStore.Entry(t.track.getPath(), t.track.getSize(),
+                            t.track.getLastModified(), t.meter.getIntegratedLoudness(),
+                            t.meter.getTruePeak(), albumLoudness, albumPeak));
+                }
+            }
+            checkpoint();
+        }
+    }
+
+    private final class TrackTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final TrackRecord track;
+        private LoudnessMeter meter;
+
+        TrackTask(TrackRecord track){
+            this.track = track;
+        }
+
+        @Override
+        protected void compute() {
+            if(cancelled){
+                return;
+            }
+            if(store.isFailed(track)){
+                tracksFailed.incrementAndGet();
+                return;
+            }
+            try {
+                meter = LoudnessMeter.measure(track.toURI());
+                tracksAnalyzed.incrementAndGet();
+                framesAnalyzed.addAndGet(meter.getFrames());
+            } catch(Exception e){
+                //not decoded again until the file changes, only WAV, AIFF and AU decode
+                //without an SPI and a library of MP3s would otherwise be read on every scan
+                store.putFailure(track);
+                tracksFailed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package javafxradio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//loudness results per file, persisted like LibraryIndex as a gzipped binary file
+final class LoudnessStore {
+    private static final int MAGIC = 0x4A46524C; //"JFRL"
+    private static final int VERSION = 2;
+    //ReplayGain 2.0 reference level
+    static final double DEFAULT_TARGET_LUFS = -18.0;
+
+    //immutable result of one track, album values cover all tracks of its folder
+    static final class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final double trackLoudness;
+        private final double trackPeak;
+        private final double albumLoudness;
+        private final double albumPeak;
+
+        Entry(String path, long size, long lastModified, double trackLoudness,
+                double trackPeak, double albumLoudness, double albumPeak) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.trackLoudness = trackLoudness;
+            this.trackPeak = trackPeak;
+            this.albumLoudness = albumLoudness;
+            this.albumPeak = albumPeak;
+        }
+
+        String getPath(){ return path; }
+        //integrated loudness in LUFS and true peak in dBTP, loudness is NaN for silence
+        double getTrackLoudness(){ return trackLoudness; }
+        double getTrackPeak(){ return trackPeak; }
+        double getAlbumLoudness(){ return albumLoudness; }
+        double getAlbumPeak(){ return albumPeak; }
+
+        boolean matches(long size, long lastModified){
+            return this.size == size && this.lastModified == lastModified;
+        }
+
+        //gain in dB that brings the track to target without pushing its peak over 0 dBTP
+        double gain(double targetLufs, boolean album){
+            double loudness = album ? albumLoudness : trackLoudness;
+            double peak = album ? albumPeak : trackPeak;
+            if(Double.isNaN(loudness)){
+                return 0;
+            }
+            return Math.min(targetLufs - loudness, -peak);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeDouble(trackLoudness);
+            out.writeDouble(trackPeak);
+            out.writeDouble(albumLoudness);
+            out.writeDouble(albumPeak);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            return new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble());
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    //size and modification time of files that could not be decoded
+    private final Map<String, long[]> failures = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    Entry get(String path){ return entries.get(path); }
+    int size(){ return entries.size(); }
+    int getFailureCount(){ return failures.size(); }
+    boolean isDirty(){ return dirty; }
+
+    void put(Entry entry){
+        entries.put(entry.getPath(), entry);
+        failures.remove(entry.getPath());
+        dirty = true;
+    }
+
+    //remembers that this version of the file failed, it is tried again once it changes
+    void putFailure(TrackRecord track){
+        failures.put(track.getPath(), new long[]{track.getSize(), track.getLastModified()});
+        dirty = true;
+    }
+
+    //true if path has a result for exactly this version of the file
+    boolean isCurrent(TrackRecord track){
+        Entry e = entries.get(track.getPath());
+        return e != null && e.matches(track.getSize(), track.getLastModified());
+    }
+
+    //true if exactly this version of the file failed before
+    boolean isFailed(TrackRecord track){
+        long[] f = failures.get(track.getPath());
+        return f != null && f[0] == track.getSize() && f[1] == track.getLastModified();
+    }
+
+    void load(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))){
+            int version;
+            if(in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION){
+                throw new IOException("Not a loudness store: "+file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry e = Entry.read(in);
+                entries.put(e.getPath(), e);
+            }
+            //version 1 had no failures
+            if(version >= 2){
+                count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    failures.put(in.readUTF(), new long[]{in.readLong(), in.readLong()});
+                }
+            }
+            dirty = false;
+        } catch(NoSuchFileException e){
+            //nothing analyzed yet
+        }
+    }
+
+    void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        //cleared first, results put while saving mark the store dirty again
+        dirty = false;
+        Collection<Entry> snapshot = new ArrayList<>(entries.values());
+        Map<String, long[]> failed = new HashMap<>(failures);
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp))))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for(Entry e : snapshot){
+                    e.write(out);
+                }
+                out.writeInt(failed.size());
+                for(Map.Entry<String, long[]> f : failed.entrySet()){
+                    out.writeUTF(f.getKey());
+                    out.writeLong(f.getValue()[0]);
+                    out.writeLong(f.getValue()[1]);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e){
+            dirty = true;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package javafxradio;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//read-through cache for remote media. Media plays a loopback URL, the cache answers
+//its (range) requests from memory mapped segment files and only fetches segments it
+//does not have, so replays and seeks stay off the network. Segments are evicted least
+//recently used first once the disk quota is exceeded.
+final class MediaCache implements AutoCloseable {
+    static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String META_SUFFIX = ".meta";
+
+    //length and type of one remote resource, stored next to its segments
+    private static final class Resource {
+        final String key;
+        final String url;
+        volatile long length = -1;
+        volatile String contentType = "application/octet-stream";
+
+        Resource(String key, String url){
+            this.key = key;
+            this.url = url;
+        }
+
+        int segmentCount(){
+            return (int)((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        }
+    }
+
+    private final Path dir;
+    private final long quotaBytes;
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    //segments being fetched, concurrent readers of the same segment share one fetch
+    private final Map<Path, CompletableFuture<Path>> fetches = new ConcurrentHashMap<>();
+    //segment files on disk with their size, least recently used first
+    private final LinkedHashMap<Path, Long> segments = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes;
+
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "media-cache");
+        t.setDaemon(true);
+        return t;
+    });
+    private ServerSocket server;
+
+    private long segmentHits;
+    private long segmentMisses;
+    private long bytesServed;
+    private long bytesFetched;
+    private long evictions;
+
+    MediaCache(Path dir, long quotaBytes){
+        this.dir = dir;
+        this.quotaBytes = quotaBytes;
+    }
+
+    //local URL that serves url through the cache, starts the server on first use
+    synchronized String localURL(String url) throws IOException {
+        if(server == null){
+            start();
+        }
+        String key = key(url);
+        resources.computeIfAbsent(key, k -> new Resource(k, url));
+        //keep the file name so Media can tell the container from the extension
+        String path = URI.create(url).getPath();
+        String name = path == null || path.isEmpty() || path.endsWith("/")
+                ? "media" : path.substring(path.lastIndexOf('/') + 1);
+        return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getLocalPort() + "/" + key + "/" + name;
+    }
+
+    private void start() throws IOException {
+        Files.createDirectories(dir);
+        //segments left by earlier runs, oldest first so they are evicted first
+        List<Path> found = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)){
+            for(Path p : stream){
+                found.add(p);
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+        for(Path p : found){
+            long size = Files.size(p);
+            segments.put(p, size);
+            usedBytes += size;
+        }
+
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        workers.execute(() -> {
+            try {
+                while(!server.isClosed()){
+                    Socket socket = server.accept();
+                    workers.execute(() -> serve(socket));
+                }
+            } catch(IOException e){
+                //closed
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(server != null){
+            server.close();
+        }
+        workers.shutdownNow();
+    }
+
+    synchronized long getUsedBytes(){ return usedBytes; }
+    synchronized long getBytesServed(){ return bytesServed; }
+    //bytes handed to players that did not have to come over the network
+    synchronized long getBytesSaved(){ return Math.max(0, bytesServed - bytesFetched); }
+    synchronized long getBytesFetched(){ return bytesFetched; }
+    synchronized long getEvictions(){ return evictions; }
+
+    //share of served segments that did not have to be fetched
+    synchronized double getHitRatio(){
+        long total = segmentHits + segmentMisses;
+        return total == 0 ? 0 : (double)segmentHits / total;
+    }
+
+    private void serve(Socket socket){
+        try(Socket s = socket){
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    s.getInputStream(), StandardCharsets.ISO_8859_1));
+            String requestLine = in.readLine();
+            if(requestLine == null){
+                return;
+            }
+            long from = 0;
+            long to = -1;
+            boolean ranged = false;
+            String line;
+            while((line = in.readLine()) != null && !line.isEmpty()){
+                if(line.regionMatches(true, 0, "Range:", 0, 6)){
+                    String spec = line.substring(6).trim();
+                    if(spec.startsWith("bytes=") && !spec.contains(",")){
+                        String[] parts = spec.substring(6).split("-", -1);
+                        if(!parts[0].isEmpty()){
+                            from = Long.parseLong(parts[0].trim());
+                            to = parts[1].isEmpty() ? -1 : Long.parseLong(parts[1].trim());
+                            ranged = true;
+                        }
+                    }
+                }
+            }
+
+            String[] request = requestLine.split(" ");
+            String[] path = request.length > 1 ? request[1].split("/") : new String[0];
+            Resource resource = path.length > 1 ? resources.get(path[1]) : null;
+            OutputStream out = s.getOutputStream();
+            if(resource == null){
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            //segments can be on disk from an earlier run, their length is in the meta file
+            readMeta(resource);
+            if(resource.length < 0){
+                //fetching the first segment also tells the length
+                segment(resource, 0);
+            }
+            long length = resource.length;
+            if(length < 0){
+                out.write("HTTP/1.1 502 Bad Gateway\r\nContent-Length: 0\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            if(to < 0 || to >= length){
+                to = length - 1;
+            }
+            if(from >= length && length > 0){
+                out.write(("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: bytes */"
+                        + length + "\r\nContent-Length: 0\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            StringBuilder header = new StringBuilder();
+            header.append(ranged ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+            header.append("Content-Type: ").append(resource.contentType).append("\r\n");
+            header.append("Accept-Ranges: bytes\r\n");
+            header.append("Content-Length: ").append(to - from + 1).append("\r\n");
+            if(ranged){
+                header.append("Content-Range: bytes ").append(from).append('-').append(to)
+                        .append('/').append(length).append("\r\n");
+            }
+            header.append("Connection: close\r\n\r\n");
+            out.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+            if(request[0].equals("HEAD")){
+                return;
+            }
+
+            WritableByteChannel channel = Channels.newChannel(out);
+            long pos = from;
+            while(pos <= to){
+                int index = (int)(pos / SEGMENT_SIZE);
+                Path file = segment(resource, index);
+                try(FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)){
+                    MappedByteBuffer mapped = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+                    int offset = (int)(pos - (long)index * SEGMENT_SIZE);
+                    int end = (int)Math.min(fc.size(), to - (long)index * SEGMENT_SIZE + 1);
+                    ByteBuffer slice = mapped.duplicate();
+                    slice.position(offset).limit(end);
+                    int n = slice.remaining();
+                    while(slice.hasRemaining()){
+                        channel.write(slice);
+                    }
+                    pos += n;
+                    synchronized(this){
+                        bytesServed += n;
+                    }
+                }
+            }
+        } catch(IOException | RuntimeException e){
+            //player went away or the origin failed, the player sees a short response
+        }
+    }
+
+    //path of a present segment, fetched first if needed. Joining a fetch that is
+    //already running counts as a hit, only the reader that fetches counts a miss
+    private Path segment(Resource resource, int index) throws IOException {
+        final Path file = dir.resolve(resource.key + "-" + index + SEGMENT_SUFFIX);
+        CompletableFuture<Path> fetch = new CompletableFuture<>();
+        CompletableFuture<Path> running = fetches.putIfAbsent(file, fetch);
+        if(running == null){
+            try {
+                //without a length the segment is fetched again, the origin tells it
+                if(resource.length < 0 || !cached(file)){
+                    synchronized(this){
+                        ++segmentMisses;
+                    }
+                    fetch(resource, index, file);
+                }
+                fetch.complete(file);
+                return file;
+            } catch(IOException | RuntimeException e){
+                fetch.completeExceptionally(e);
+                throw e;
+            } finally {
+                fetches.remove(file);
+            }
+        }
+        try {
+            running.get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch(ExecutionException e){
+            throw new IOException("Fetch failed: "+resource.url, e.getCause());
+        }
+        if(!cached(file)){
+            throw new IOException("Segment evicted while waiting: "+file);
+        }
+        return file;
+    }
+
+    private synchronized boolean cached(Path file){
+        if(segments.get(file) == null || !Files.exists(file)){
+            return false;
+        }
+        ++segmentHits;
+        return true;
+    }
+
+    private void fetch(Resource resource, int index, Path file) throws IOException {
+        readMeta(resource);
+        long start = (long)index * SEGMENT_SIZE;
+        HttpURLConnection c = (HttpURLConnection)new URL(resource.url).openConnection();
+        c.setRequestProperty("Range", "bytes=" + start + "-" + (start + SEGMENT_SIZE - 1));
+        c.setRequestProperty("User-Agent", "JavaFXRadio");
+        int code = c.getResponseCode();
+        if(code != 200 && code != 206){
+            throw new IOException("Origin answered "+code);
+        }
+        if(resource.length < 0){
+            long length = -1;
+            String range = c.getHeaderField("Content-Range");
+            if(code == 206 && range != null && range.contains("/")){
+                length = Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+            } else if(code == 200){
+                length = c.getContentLengthLong();
+            }
+            if(length < 0){
+                throw new IOException("Origin did not tell the length of "+resource.url);
+            }
+            resource.length = length;
+            if(c.getContentType() != null){
+                resource.contentType = c.getContentType();
+            }
+            writeMeta(resource);
+        }
+        try(InputStream in = c.getInputStream()){
+            if(code == 200){
+                //no range support, read up to the wanted segment
+                long skip = start;
+                while(skip > 0){
+                    long n = in.skip(skip);
+                    if(n <= 0){
+                        throw new IOException("Origin ended early");
+                    }
+                    skip -= n;
+                }
+            }
+            long size = Math.min(SEGMENT_SIZE, resource.length - start);
+            Path tmp = Files.createTempFile(dir, "fetch", ".tmp");
+            try {
+                try(OutputStream out = Files.newOutputStream(tmp)){
+                    byte[] buffer = new byte[64 * 1024];
+                    long left = size;
+                    while(left > 0){
+                        int n = in.read(buffer, 0, (int)Math.min(buffer.length, left));
+                        if(n < 0){
+                            throw new IOException("Origin ended early");
+                        }
+                        out.write(buffer, 0, n);
+                        left -= n;
+                    }
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            synchronized(this){
+                bytesFetched += size;
+                Long old = segments.put(file, size);
+                usedBytes += size - (old == null ? 0 : old);
+            }
+            evict(file);
+        } finally {
+            c.disconnect();
+        }
+    }
+
+    //drops least recently used segments until the quota holds, keep is never dropped
+    private void evict(Path keep){
+        List<Path> victims = new ArrayList<>();
+        synchronized(this){
+            Iterator<Map.Entry<Path, Long>> it = segments.entrySet().iterator();
+            while(usedBytes > quotaBytes && it.hasNext()){
+                Map.Entry<Path, Long> e = it.next();
+                if(e.getKey().equals(keep)){
+                    continue;
+                }
+                usedBytes -= e.getValue();
+                victims.add(e.getKey());
+                it.remove();
+                ++evictions;
+            }
+        }
+        for(Path p : victims){
+            try {
+                Files.deleteIfExists(p);
+            } catch(IOException e){
+                //still mapped somewhere, it goes with the next start
+            }
+        }
+    }
+
+    private void readMeta(Resource resource) throws IOException {
+        if(resource.length >= 0){
+            return;
+        }
+        try(DataInputStream in = new DataInputStream(Files.newInputStream(
+                dir.resolve(resource.key + META_SUFFIX)))){
+            resource.contentType = in.readUTF();
+            resource.length = in.readLong();
+        } catch(NoSuchFileException e){
+            //first fetch of this resource
+        }
+    }
+
+    private void writeMeta(Resource resource) throws IOException {
+        Path tmp = Files.createTempFile(dir, "meta", ".tmp");
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))){
+            out.writeUTF(resource.contentType);
+            out.writeLong(resource.length);
+        }
+        Files.move(tmp, dir.resolve(resource.key + META_SUFFIX),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String key(String url){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for(byte b : digest.digest(url.getBytes(StandardCharsets.UTF_8))){
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
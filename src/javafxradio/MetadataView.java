@@ -36,11 +36,11 @@ class MetadataView extends AbstractView {
         albumCover = createAlbumCover();
         
         //bind label property with label property of a song model class
-        title.textProperty().bind(songModel.titleProperty());
-        artist.textProperty().bind(songModel.artistProperty());
-        album.textProperty().bind(songModel.albumProperty());
-        year.textProperty().bind(songModel.yearProperty());
-        albumCover.imageProperty().bind(songModel.albumCoverProperty());
+        bind(title.textProperty(), songModel.titleProperty());
+        bind(artist.textProperty(), songModel.artistProperty());
+        bind(album.textProperty(), songModel.albumProperty());
+        bind(year.textProperty(), songModel.yearProperty());
+        bind(albumCover.imageProperty(), songModel.albumCoverProperty());
     
         final GridPane gp = new GridPane();
         gp.setPadding(new Insets(10));
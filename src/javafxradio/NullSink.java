@@ -0,0 +1,55 @@
+package javafxradio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sound.sampled.AudioFormat;
+
+//discards audio, lets the engine run on machines without a sound device.
+//In realtime mode writes are paced like a device would, otherwise they return at once.
+final class NullSink implements PcmSink {
+    private final boolean realtime;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private AudioFormat format;
+    private long startNanos;
+    private long pacedBytes;
+
+    NullSink(boolean realtime){
+        this.realtime = realtime;
+    }
+
+    long getBytesWritten(){ return bytesWritten.get(); }
+
+    @Override
+    public void open(AudioFormat format) {
+        this.format = format;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) {
+        bytesWritten.addAndGet(length);
+        if(realtime){
+            pacedBytes += length;
+            long due = startNanos + (long)(pacedBytes / (format.getFrameRate()
+                    * format.getFrameSize()) * 1e9);
+            long wait = due - System.nanoTime();
+            if(wait > 0){
+                try {
+                    Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                } catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public void start() {
+        startNanos = System.nanoTime();
+        pacedBytes = 0;
+    }
+
+    @Override public void stop() {}
+    @Override public void flush() {}
+    @Override public void drain() {}
+    @Override public void close() {}
+}
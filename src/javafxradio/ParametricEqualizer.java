@@ -0,0 +1,372 @@
+package javafxradio;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+
+//biquad equalizer with any number of bands (up to MAX_BANDS) for the PCM engine.
+//Settings are immutable arrays swapped in one write, the audio thread picks them up
+//at the next block and ramps the coefficients over smoothingMillis so changes do not
+//click. All filter state is preallocated, processing a block allocates nothing.
+final class ParametricEqualizer implements PcmProcessor {
+    static final int MAX_BANDS = 32;
+    static final int MAX_CHANNELS = 8;
+    static final double DEFAULT_SMOOTHING_MILLIS = 20.0;
+    //coefficients move in steps of this many frames while ramping
+    private static final int RAMP_STEP = 16;
+    private static final int COEFFS = 5;
+
+    //filter shapes from the RBJ audio EQ cookbook, gain only applies to peaking and shelves
+    enum Type { PEAKING, LOW_SHELF, HIGH_SHELF, LOW_PASS, HIGH_PASS, BAND_PASS, NOTCH }
+
+    static final class Band {
+        private final Type type;
+        private final double frequency;
+        private final double q;
+        private final double gain;
+
+        Band(Type type, double frequency, double q, double gain) {
+            if(frequency <= 0 || q <= 0){
+                throw new IllegalArgumentException("Frequency and Q must be positive");
+            }
+            this.type = type;
+            this.frequency = frequency;
+            this.q = q;
+            this.gain = gain;
+        }
+
+        Type getType(){ return type; }
+        double getFrequency(){ return frequency; }
+        double getQ(){ return q; }
+        //in dB
+        double getGain(){ return gain; }
+
+        Band withGain(double value){ return new Band(type, frequency, q, value); }
+
+        //true if the band leaves the signal as it is
+        boolean isFlat(){
+            return gain == 0 && (type == Type.PEAKING || type == Type.LOW_SHELF
+                    || type == Type.HIGH_SHELF);
+        }
+    }
+
+    //named set of bands, applied as a whole
+    static final class Preset {
+        private final String name;
+        private final Band[] bands;
+
+        Preset(String name, List<Band> bands){
+            if(bands.size() > MAX_BANDS){
+                throw new IllegalArgumentException("At most "+MAX_BANDS+" bands");
+            }
+            this.name = name;
+            this.bands = bands.toArray(new Band[0]);
+        }
+
+        String getName(){ return name; }
+        List<Band> getBands(){ return Collections.unmodifiableList(Arrays.asList(bands)); }
+    }
+
+    private static final Band[] NO_BANDS = new Band[0];
+
+    //written by any thread, read by the audio thread once per block
+    private volatile Band[] bands = NO_BANDS;
+    private volatile double smoothingMillis = DEFAULT_SMOOTHING_MILLIS;
+    private volatile boolean enabled = true;
+
+    //audio thread state
+    private Band[] applied;
+    private float sampleRate;
+    private int channels;
+    private int activeBands;
+    private final boolean[] bypass = new boolean[MAX_BANDS];
+    private final double[] current = new double[MAX_BANDS * COEFFS];
+    private final double[] target = new double[MAX_BANDS * COEFFS];
+    private final double[] step = new double[MAX_BANDS * COEFFS];
+    private int rampSteps;
+    private final double[] z1 = new double[MAX_BANDS * MAX_CHANNELS];
+    private final double[] z2 = new double[MAX_BANDS * MAX_CHANNELS];
+
+    private long samplesProcessed;
+    private long bandSamplesProcessed;
+    private long processNanos;
+
+    ParametricEqualizer(){
+        for (int b = 0; b < MAX_BANDS; b++) {
+            setIdentity(current, b);
+        }
+    }
+
+    List<Band> getBands(){ return Collections.unmodifiableList(Arrays.asList(bands)); }
+
+    synchronized void setBands(List<Band> value){
+        if(value.size() > MAX_BANDS){
+            throw new IllegalArgumentException("At most "+MAX_BANDS+" bands");
+        }
+        bands = value.toArray(new Band[0]);
+    }
+
+    //replaces one band, the other ones keep their settings
+    synchronized void setBand(int index, Band band){
+        Band[] copy = bands.clone();
+        copy[index] = band;
+        bands = copy;
+    }
+
+    //every band of preset takes effect in the same block
+    synchronized void applyPreset(Preset preset){
+        bands = preset.bands.clone();
+    }
+
+    //turning it off ramps every band to flat over smoothingMillis like any other change,
+    //the filters start from silence when it is turned on again
+    void setEnabled(boolean value){ enabled = value; }
+    boolean isEnabled(){ return enabled; }
+    void setSmoothingMillis(double value){ smoothingMillis = value; }
+
+    //average cost of one band on one sample, the number the band count scales with
+    synchronized double getNanosPerSampleBand(){
+        return bandSamplesProcessed == 0 ? 0 : (double)processNanos / bandSamplesProcessed;
+    }
+    synchronized long getSamplesProcessed(){ return samplesProcessed; }
+
+    @Override
+    public void process(float[] samples, int frames, AudioFormat format) {
+        final int ch = format.getChannels();
+        if(ch > MAX_CHANNELS){
+            return;
+        }
+        final long start = System.nanoTime();
+        boolean snap = false;
+        if(format.getSampleRate() != sampleRate || ch != channels){
+            //new stream layout, old state means nothing for it
+            sampleRate = format.getSampleRate();
+            channels = ch;
+            Arrays.fill(z1, 0);
+            Arrays.fill(z2, 0);
+            applied = null;
+            snap = true;
+        }
+        final Band[] wanted = enabled ? bands : NO_BANDS;
+        if(wanted != applied){
+            retarget(wanted, snap);
+        }
+        if(activeBands == 0){
+            //disabled or without bands once the ramp to flat is done, finishRamp has
+            //cleared the filter state
+            return;
+        }
+
+        int f = 0;
+        while(rampSteps > 0 && f < frames){
+            for (int i = 0; i < activeBands * COEFFS; i++) {
+                current[i] += step[i];
+            }
+            if(--rampSteps == 0){
+                finishRamp();
+            }
+            int end = Math.min(frames, f + RAMP_STEP);
+            filter(samples, f, end);
+            f = end;
+        }
+        if(f < frames){
+            filter(samples, f, frames);
+        }
+        flushDenormals();
+
+        int used = 0;
+        for (int b = 0; b < activeBands; b++) {
+            if(!bypass[b]){
+                ++used;
+            }
+        }
+        synchronized(this){
+            samplesProcessed += (long)frames * ch;
+            bandSamplesProcessed += (long)frames * ch * Math.max(1, used);
+            processNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void retarget(Band[] wanted, boolean snap){
+        applied = wanted;
+        for (int b = 0; b < MAX_BANDS; b++) {
+            if(b < wanted.length){
+                computeCoefficients(wanted[b], sampleRate, target, b * COEFFS);
+            } else {
+                setIdentity(target, b);
+            }
+        }
+        int steps = (int)Math.ceil(sampleRate * smoothingMillis / 1000 / RAMP_STEP);
+        //bands that go away are ramped to flat before they stop being processed
+        activeBands = Math.max(activeBands, wanted.length);
+        if(snap || steps <= 0){
+            System.arraycopy(target, 0, current, 0, target.length);
+            rampSteps = 0;
+            finishRamp();
+        } else {
+            for (int i = 0; i < activeBands * COEFFS; i++) {
+                step[i] = (target[i] - current[i]) / steps;
+            }
+            Arrays.fill(bypass, false);
+            rampSteps = steps;
+        }
+    }
+
+    private void finishRamp(){
+        System.arraycopy(target, 0, current, 0, target.length);
+        activeBands = applied.length;
+        for (int b = 0; b < MAX_BANDS; b++) {
+            bypass[b] = b >= applied.length || applied[b].isFlat();
+            if(b >= activeBands){
+                for (int c = 0; c < MAX_CHANNELS; c++) {
+                    z1[b * MAX_CHANNELS + c] = 0;
+                    z2[b * MAX_CHANNELS + c] = 0;
+                }
+            }
+        }
+    }
+
+    //runs every active band over frames [from, to), transposed direct form II
+    private void filter(float[] samples, int from, int to){
+        final int ch = channels;
+        for (int b = 0; b < activeBands; b++) {
+            if(bypass[b]){
+                continue;
+            }
+            final int k = b * COEFFS;
+            final double b0 = current[k];
+            final double b1 = current[k + 1];
+            final double b2 = current[k + 2];
+            final double a1 = current[k + 3];
+            final double a2 = current[k + 4];
+            if(ch == 2){
+                //both channels in one pass, their recursions run side by side
+                final int s = b * MAX_CHANNELS;
+                double l1 = z1[s], l2 = z2[s], r1 = z1[s + 1], r2 = z2[s + 1];
+                for (int i = from * 2; i < to * 2; i += 2) {
+                    final double xl = samples[i];
+                    final double xr = samples[i + 1];
+                    final double yl = b0 * xl + l1;
+                    final double yr = b0 * xr + r1;
+                    l1 = b1 * xl - a1 * yl + l2;
+                    r1 = b1 * xr - a1 * yr + r2;
+                    l2 = b2 * xl - a2 * yl;
+                    r2 = b2 * xr - a2 * yr;
+                    samples[i] = (float)yl;
+                    samples[i + 1] = (float)yr;
+                }
+                z1[s] = l1;
+                z2[s] = l2;
+                z1[s + 1] = r1;
+                z2[s + 1] = r2;
+                continue;
+            }
+            for (int c = 0; c < ch; c++) {
+                final int s = b * MAX_CHANNELS + c;
+                double s1 = z1[s];
+                double s2 = z2[s];
+                for (int i = from * ch + c; i < to * ch; i += ch) {
+                    final double x = samples[i];
+                    final double y = b0 * x + s1;
+                    s1 = b1 * x - a1 * y + s2;
+                    s2 = b2 * x - a2 * y;
+                    samples[i] = (float)y;
+                }
+                z1[s] = s1;
+                z2[s] = s2;
+            }
+        }
+    }
+
+    //state decaying in silence would otherwise end up in slow subnormal arithmetic
+    private void flushDenormals(){
+        for (int i = 0; i < activeBands * MAX_CHANNELS; i++) {
+            if(Math.abs(z1[i]) < 1e-30) z1[i] = 0;
+            if(Math.abs(z2[i]) < 1e-30) z2[i] = 0;
+        }
+    }
+
+    private static void setIdentity(double[] coeffs, int band){
+        final int k = band * COEFFS;
+        coeffs[k] = 1;
+        coeffs[k + 1] = 0;
+        coeffs[k + 2] = 0;
+        coeffs[k + 3] = 0;
+        coeffs[k + 4] = 0;
+    }
+
+    //normalized b0, b1, b2, a1, a2 of band at rate
+    static void computeCoefficients(Band band, double rate, double[] out, int offset){
+        final double f = Math.min(band.frequency, rate * 0.49);
+        final double w0 = 2 * Math.PI * f / rate;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * band.q);
+        final double a = Math.pow(10, band.gain / 40);
+        final double sqrtA2alpha = 2 * Math.sqrt(a) * alpha;
+        double b0, b1, b2, a0, a1, a2;
+        switch(band.type){
+            case LOW_SHELF:
+                b0 = a * ((a + 1) - (a - 1) * cos + sqrtA2alpha);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - sqrtA2alpha);
+                a0 = (a + 1) + (a - 1) * cos + sqrtA2alpha;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - sqrtA2alpha;
+                break;
+            case HIGH_SHELF:
+                b0 = a * ((a + 1) + (a - 1) * cos + sqrtA2alpha);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - sqrtA2alpha);
+                a0 = (a + 1) - (a - 1) * cos + sqrtA2alpha;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - sqrtA2alpha;
+                break;
+            case LOW_PASS:
+                b0 = (1 - cos) / 2;
+                b1 = 1 - cos;
+                b2 = (1 - cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            case HIGH_PASS:
+                b0 = (1 + cos) / 2;
+                b1 = -(1 + cos);
+                b2 = (1 + cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            case BAND_PASS:
+                b0 = alpha;
+                b1 = 0;
+                b2 = -alpha;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            case NOTCH:
+                b0 = 1;
+                b1 = -2 * cos;
+                b2 = 1;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            default:
+                b0 = 1 + alpha * a;
+                b1 = -2 * cos;
+                b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a;
+                a1 = -2 * cos;
+                a2 = 1 - alpha / a;
+                break;
+        }
+        out[offset] = b0 / a0;
+        out[offset + 1] = b1 / a0;
+        out[offset + 2] = b2 / a0;
+        out[offset + 3] = a1 / a0;
+        out[offset + 4] = a2 / a0;
+    }
+}
@@ -0,0 +1,9 @@
+package javafxradio;
+
+import javax.sound.sampled.AudioFormat;
+
+//receives every decoded block of PcmPlayer on its decoder thread.
+//samples are interleaved, scaled to [-1, 1] and reused for the next block.
+interface PcmListener {
+    void pcmFrames(float[] samples, int frames, AudioFormat format);
+}
@@ -0,0 +1,302 @@
+package javafxradio;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+//playback engine that decodes with javax.sound.sampled and writes PCM to a PcmSink.
+//A decoder thread fills a fixed ring of preallocated blocks, an output thread drains
+//it into the sink; nothing is allocated per block once playback runs.
+//WAV, AIFF and AU decode out of the box, MP3 or FLAC need a decoder SPI on the classpath.
+final class PcmPlayer {
+    enum State { STOPPED, PLAYING, PAUSED, FINISHED }
+
+    static final int DEFAULT_BLOCK_FRAMES = 1024;
+    static final int DEFAULT_RING_BLOCKS = 8;
+
+    private static final class Block {
+        final byte[] bytes;
+        final float[] samples;
+        int length;
+        //marks the end of the stream
+        boolean last;
+
+        Block(int bytes, int samples){
+            this.bytes = new byte[bytes];
+            this.samples = new float[samples];
+        }
+    }
+
+    private final PcmSink sink;
+    private final int blockFrames;
+    private final int ringBlocks;
+    private final List<PcmListener> listeners = new CopyOnWriteArrayList<>();
+
+    private String url;
+    private AudioInputStream stream;
+    private AudioFormat format;
+    private BlockingQueue<Block> free;
+    private BlockingQueue<Block> full;
+    private Thread decoder;
+    private Thread output;
+    private volatile State state = State.STOPPED;
+    private volatile Runnable onFinished;
+    private volatile PcmProcessor processor;
+    private final Object pauseLock = new Object();
+
+    private final AtomicLong framesDecoded = new AtomicLong();
+    private final AtomicLong framesPlayed = new AtomicLong();
+    private final AtomicLong underruns = new AtomicLong();
+
+    PcmPlayer(PcmSink sink){
+        this(sink, DEFAULT_BLOCK_FRAMES, DEFAULT_RING_BLOCKS);
+    }
+
+    PcmPlayer(PcmSink sink, int blockFrames, int ringBlocks){
+        this.sink = sink;
+        this.blockFrames = blockFrames;
+        this.ringBlocks = ringBlocks;
+    }
+
+    void addListener(PcmListener listener){ listeners.add(listener); }
+    void removeListener(PcmListener listener){ listeners.remove(listener); }
+
+    //null plays the decoded samples unchanged
+    void setProcessor(PcmProcessor value){ processor = value; }
+    PcmProcessor getProcessor(){ return processor; }
+    
+    State getState(){ return state; }
+    AudioFormat getFormat(){ return format; }
+    //runs on the output thread once the last block was played
+    void setOnFinished(Runnable value){ onFinished = value; }
+
+    long getFramesDecoded(){ return framesDecoded.get(); }
+    long getFramesPlayed(){ return framesPlayed.get(); }
+    //times the output thread found the ring empty while playing
+    long getUnderruns(){ return underruns.get(); }
+
+    //opens url and converts it to 16 bit signed little endian PCM, keeping rate and channels
+    void open(String url) throws IOException, UnsupportedAudioFileException,
+            LineUnavailableException {
+        stop();
+        this.url = url;
+        InputStream in = new BufferedInputStream(new URL(url).openStream());
+        AudioInputStream source = AudioSystem.getAudioInputStream(in);
+        AudioFormat sourceFormat = source.getFormat();
+        AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                sourceFormat.getSampleRate(), 16, sourceFormat.getChannels(),
+                sourceFormat.getChannels() * 2, sourceFormat.getSampleRate(), false);
+        stream = AudioSystem.getAudioInputStream(pcm, source);
+        format = pcm;
+
+        free = new ArrayBlockingQueue<>(ringBlocks);
+        full = new ArrayBlockingQueue<>(ringBlocks);
+        for (int i = 0; i < ringBlocks; i++) {
+            free.add(new Block(blockFrames * pcm.getFrameSize(),
+                    blockFrames * pcm.getChannels()));
+        }
+        framesDecoded.set(0);
+        framesPlayed.set(0);
+        sink.open(pcm);
+    }
+
+    //from FINISHED the track starts over
+    synchronized void play(){
+        if(state == State.FINISHED){
+            try {
+                open(url);
+            } catch(IOException | UnsupportedAudioFileException | LineUnavailableException e){
+                System.out.println("PCM engine error: "+e);
+                return;
+            }
+        }
+        if(stream == null){
+            return;
+        }
+        if(state == State.PAUSED){
+            state = State.PLAYING;
+            sink.start();
+            synchronized(pauseLock){
+                pauseLock.notifyAll();
+            }
+            return;
+        }
+        if(state == State.PLAYING){
+            return;
+        }
+        state = State.PLAYING;
+        sink.start();
+        decoder = new Thread(this::decodeLoop, "pcm-decoder");
+        output = new Thread(this::outputLoop, "pcm-output");
+        decoder.setDaemon(true);
+        output.setDaemon(true);
+        decoder.start();
+        output.start();
+    }
+
+    synchronized void pause(){
+        if(state == State.PLAYING){
+            state = State.PAUSED;
+            sink.stop();
+        }
+    }
+
+    synchronized void stop(){
+        if(decoder != null){
+            state = State.STOPPED;
+            decoder.interrupt();
+            output.interrupt();
+            try {
+                decoder.join();
+                output.join();
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            decoder = null;
+            output = null;
+        }
+        state = State.STOPPED;
+        sink.flush();
+        sink.close();
+        if(stream != null){
+            try {
+                stream.close();
+            } catch(IOException e){
+                System.out.println("PCM stream close error: "+e);
+            }
+            stream = null;
+        }
+    }
+
+    private void decodeLoop(){
+        try {
+            final int frameSize = format.getFrameSize();
+            while(state != State.STOPPED){
+                Block block = free.take();
+                int read = readFully(block.bytes);
+                block.length = read - read % frameSize;
+                block.last = read < block.bytes.length;
+
+                int frames = block.length / frameSize;
+                if(frames > 0){
+                    toFloat(block.bytes, block.length, block.samples);
+                    final PcmProcessor p = processor;
+                    if(p != null){
+                        p.process(block.samples, frames, format);
+                        toBytes(block.samples, frames * format.getChannels(), block.bytes);
+                    }
+                    for(PcmListener l : listeners){
+                        l.pcmFrames(block.samples, frames, format);
+                    }
+                    framesDecoded.addAndGet(frames);
+                }
+                full.put(block);
+                if(block.last){
+                    return;
+                }
+            }
+        } catch(InterruptedException e){
+            //stopped
+        } catch(IOException e){
+            System.out.println("PCM decode error: "+e);
+            signalEnd();
+        }
+    }
+
+    //lets the output thread finish normally after a decode error
+    private void signalEnd(){
+        try {
+            Block end = free.take();
+            end.length = 0;
+            end.last = true;
+            full.put(end);
+        } catch(InterruptedException e){
+            //stopped
+        }
+    }
+
+    private void outputLoop(){
+        try {
+            final int frameSize = format.getFrameSize();
+            while(state != State.STOPPED){
+                awaitResume();
+                Block block = full.poll();
+                if(block == null){
+                    underruns.incrementAndGet();
+                    block = full.take();
+                }
+                //a write cut short by pause goes on with the rest once resumed
+                int written = sink.write(block.bytes, 0, block.length);
+                while(written < block.length){
+                    awaitResume();
+                    if(state == State.STOPPED){
+                        return;
+                    }
+                    written += sink.write(block.bytes, written, block.length - written);
+                }
+                framesPlayed.addAndGet(block.length / frameSize);
+                boolean last = block.last;
+                free.put(block);
+                if(last){
+                    sink.drain();
+                    state = State.FINISHED;
+                    Runnable r = onFinished;
+                    if(r != null){
+                        r.run();
+                    }
+                    return;
+                }
+            }
+        } catch(InterruptedException e){
+            //stopped
+        }
+    }
+
+    private void awaitResume() throws InterruptedException {
+        synchronized(pauseLock){
+            while(state == State.PAUSED){
+                pauseLock.wait();
+            }
+        }
+    }
+
+    private int readFully(byte[] buffer) throws IOException {
+        int total = 0;
+        while(total < buffer.length){
+            int n = stream.read(buffer, total, buffer.length - total);
+            if(n < 0){
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    //16 bit little endian to [-1, 1]
+    private static void toFloat(byte[] bytes, int length, float[] out){
+        for (int i = 0, s = 0; i + 1 < length; i += 2, s++) {
+            out[s] = (short)((bytes[i] & 0xff) | (bytes[i+1] << 8)) / 32768f;
+        }
+    }
+
+    //back to 16 bit little endian, clipping what a processor pushed past full scale
+    private static void toBytes(float[] samples, int count, byte[] out){
+        for (int s = 0, i = 0; s < count; s++, i += 2) {
+            int v = Math.round(samples[s] * 32768f);
+            v = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+            out[i] = (byte)v;
+            out[i+1] = (byte)(v >> 8);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package javafxradio;
+
+import javax.sound.sampled.AudioFormat;
+
+//changes decoded blocks of PcmPlayer in place on its decoder thread, before the
+//listeners see them. Samples are interleaved and scaled to [-1, 1].
+interface PcmProcessor {
+    void process(float[] samples, int frames, AudioFormat format);
+}
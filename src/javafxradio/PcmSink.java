@@ -0,0 +1,19 @@
+package javafxradio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+//where PcmPlayer writes decoded 16 bit PCM
+interface PcmSink {
+    void open(AudioFormat format) throws LineUnavailableException;
+    //blocks while the device buffer is full, returns early with the bytes written so far
+    //when the sink is stopped or flushed meanwhile
+    int write(byte[] data, int offset, int length);
+    void start();
+    //pauses output, written data stays queued
+    void stop();
+    //discards queued data, used when seeking or stopping
+    void flush();
+    void drain();
+    void close();
+}
@@ -0,0 +1,277 @@
+package javafxradio;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+//ordered list of track URLs with a play position, sized for millions of entries:
+//every URL is split into an interned folder id and its UTF-8 file name bytes.
+//Shuffle adds about three ints per entry: slotOf has one per entry slot, order keeps
+//up to twice the entry count so dequeue can move its start instead of copying.
+final class PlayQueue {
+    private static final int NONE = -1;
+
+    private final Map<String, Integer> folderIds = new HashMap<>();
+    private final List<String> folders = new ArrayList<>();
+
+    //entries live in [head, tail), dequeue just moves head
+    private int[] folderOf = new int[16];
+    private int[] nameStart = new int[17];
+    private byte[] names = new byte[256];
+    private int head;
+    private int tail;
+
+    //position of the current entry relative to head, NONE before the first next()
+    private int position = NONE;
+    private boolean shuffle;
+    //with shuffle on: the entry (head + index) at each position, positions start at
+    //orderHead, and the slot in order of each entry. Positions up to the current one
+    //are history and keep their order, only the ones after it are shuffled.
+    private int[] order;
+    private int orderHead;
+    private int[] slotOf;
+    private final Random random = new Random();
+
+    int size(){ return tail - head; }
+    boolean isEmpty(){ return tail == head; }
+
+    //with shuffle on, the entry goes to a random place among the ones not yet played
+    void add(String url){
+        ensureCapacity(tail + 1);
+        int slash = url.lastIndexOf('/') + 1;
+        folderOf[tail] = internFolder(url.substring(0, slash));
+
+        byte[] name = url.substring(slash).getBytes(StandardCharsets.UTF_8);
+        int start = nameStart[tail];
+        if(start + name.length > names.length){
+            names = Arrays.copyOf(names, Math.max(names.length * 2, start + name.length));
+        }
+        System.arraycopy(name, 0, names, start, name.length);
+        nameStart[tail + 1] = start + name.length;
+        if(shuffle){
+            //one step of an inside-out shuffle over the positions after the current one
+            ensureOrderCapacity(size() + 1);
+            int last = size();
+            int target = position + 1 + random.nextInt(last - position);
+            if(target < last){
+                place(order[orderHead + target], last);
+            }
+            place(tail, target);
+        }
+        ++tail;
+    }
+
+    String get(int index){
+        if(index < 0 || index >= size()){
+            throw new IndexOutOfBoundsException("Index: "+index+", size: "+size());
+        }
+        int i = head + index;
+        return folders.get(folderOf[i]) + new String(names, nameStart[i],
+                nameStart[i + 1] - nameStart[i], StandardCharsets.UTF_8);
+    }
+
+    //removes and returns the first entry
+    String dequeue(){
+        if(isEmpty()){
+            return null;
+        }
+        String first = get(0);
+        int removed = shuffle ? slotOf[head] - orderHead : 0;
+        if(shuffle){
+            if(removed <= position){
+                //history keeps its order, the positions before the removed one move up
+                for (int slot = orderHead + removed; slot > orderHead; slot--) {
+                    order[slot] = order[slot - 1];
+                    slotOf[order[slot]] = slot;
+                }
+                ++orderHead;
+            } else if(removed < size() - 1){
+                //the ones not played have no order to keep, the last takes the place
+                place(order[orderHead + size() - 1], removed);
+            }
+        }
+        ++head;
+        if(removed <= position){
+            --position;
+        }
+        if(head > 1024 && head > tail / 2){
+            compact();
+        }
+        return first;
+    }
+
+    void clear(){
+        head = 0;
+        tail = 0;
+        nameStart[0] = 0;
+        position = NONE;
+        if(shuffle){
+            order = new int[16];
+            slotOf = new int[folderOf.length];
+        }
+        orderHead = 0;
+        folderIds.clear();
+        folders.clear();
+    }
+
+    int getPosition(){ return position; }
+
+    //index of the entry that plays at the current position
+    int getCurrentIndex(){
+        return position == NONE ? NONE : indexAt(position);
+    }
+
+    String getCurrent(){
+        return position == NONE ? null : get(indexAt(position));
+    }
+
+    //makes index the current entry. With shuffle on, an entry not played yet is moved
+    //right after the history, the others not played stay where they are.
+    String jump(int index){
+        String url = get(index);
+        if(!shuffle){
+            position = index;
+            return url;
+        }
+        int pos = slotOf[head + index] - orderHead;
+        if(pos > position + 1){
+            int other = order[orderHead + position + 1];
+            place(head + index, position + 1);
+            place(other, pos);
+            pos = position + 1;
+        }
+        position = pos;
+        return url;
+    }
+
+    boolean hasNext(){ return position + 1 < size(); }
+    boolean hasPrevious(){ return position > 0; }
+
+    String peekNext(){
+        return hasNext() ? get(indexAt(position + 1)) : null;
+    }
+
+    String next(){
+        if(!hasNext()){
+            return null;
+        }
+        ++position;
+        return get(indexAt(position));
+    }
+
+    String previous(){
+        if(!hasPrevious()){
+            return null;
+        }
+        --position;
+        return get(indexAt(position));
+    }
+
+    boolean isShuffle(){ return shuffle; }
+
+    //a new shuffle order starts with the current entry, all others follow it.
+    //Turning shuffle on shuffles the whole queue at once, O(n) time; after that
+    //add, dequeue, next and jump are O(1) apart from closing a gap in the history.
+    void setShuffle(boolean value){
+        int current = getCurrentIndex();
+        shuffle = value;
+        if(!value){
+            order = null;
+            slotOf = null;
+            position = current;
+            return;
+        }
+        int count = size();
+        order = new int[Math.max(16, count * 2)];
+        slotOf = new int[folderOf.length];
+        orderHead = 0;
+        for (int i = 0; i < count; i++) {
+            order[i] = head + i;
+        }
+        int first = 0;
+        if(current != NONE){
+            order[current] = head;
+            order[0] = head + current;
+            first = 1;
+        }
+        for (int i = count - 1; i > first; i--) {
+            int j = first + random.nextInt(i - first + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        for (int i = 0; i < count; i++) {
+            slotOf[order[i]] = i;
+        }
+        position = current == NONE ? NONE : 0;
+    }
+
+    private int indexAt(int pos){
+        return shuffle ? order[orderHead + pos] - head : pos;
+    }
+
+    private void place(int entry, int pos){
+        order[orderHead + pos] = entry;
+        slotOf[entry] = orderHead + pos;
+    }
+
+    //moves the positions to the start of order, growing it if half of it is not enough
+    private void ensureOrderCapacity(int required){
+        if(orderHead + required <= order.length){
+            return;
+        }
+        int count = size();
+        int[] moved = required * 2 <= order.length ? order
+                : new int[Math.max(order.length * 2, required)];
+        System.arraycopy(order, orderHead, moved, 0, count);
+        order = moved;
+        orderHead = 0;
+        for (int i = 0; i < count; i++) {
+            slotOf[order[i]] = i;
+        }
+    }
+
+    private int internFolder(String folder){
+        Integer id = folderIds.get(folder);
+        if(id == null){
+            id = folders.size();
+            folders.add(folder);
+            folderIds.put(folder, id);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int required){
+        if(required >= folderOf.length){
+            int newLength = Math.max(folderOf.length * 2, required + 1);
+            folderOf = Arrays.copyOf(folderOf, newLength);
+            nameStart = Arrays.copyOf(nameStart, newLength + 1);
+            if(slotOf != null){
+                slotOf = Arrays.copyOf(slotOf, newLength);
+            }
+        }
+    }
+
+    //drops the space of dequeued entries
+    private void compact(){
+        int count = size();
+        int nameOffset = nameStart[head];
+        System.arraycopy(folderOf, head, folderOf, 0, count);
+        System.arraycopy(names, nameOffset, names, 0, nameStart[tail] - nameOffset);
+        for (int i = 0; i <= count; i++) {
+            nameStart[i] = nameStart[head + i] - nameOffset;
+        }
+        if(shuffle){
+            for (int i = 0; i < count; i++) {
+                slotOf[i] = slotOf[head + i];
+                order[orderHead + i] -= head;
+            }
+        }
+        head = 0;
+        tail = count;
+    }
+}
@@ -0,0 +1,11 @@
+package javafxradio;
+
+//receives what PlaybackMetrics measured as JFR events. The implementation, PlaybackEvents,
+//is compiled from src-jfr and loaded by name, so this tree builds without jdk.jfr.
+interface PlaybackEventSink {
+    void registerPeriodic(PlaybackMetrics metrics);
+    void mediaOpen(String url, long nanos);
+    void seek(long nanos);
+    void spectrumCallback(long nanos, int bands);
+    void droppedFrames(long gap, long dropped);
+}
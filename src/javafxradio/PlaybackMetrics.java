@@ -0,0 +1,330 @@
+package javafxradio;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//latencies and rates of the playback and rendering paths, published as an MXBean and,
+//where the JVM has jdk.jfr, as JFR events. Off unless -Djavafxradio.metrics=true or
+//enabled over JMX; while off every hook is a single volatile read.
+final class PlaybackMetrics implements PlaybackMetricsMXBean {
+    static final String OBJECT_NAME = "javafxradio:type=PlaybackMetrics";
+    //a frame later than one and a half periods counts the frames it skipped
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    private static final PlaybackMetrics INSTANCE = new PlaybackMetrics();
+    private static volatile boolean enabled = Boolean.getBoolean("javafxradio.metrics");
+    //jdk.jfr exists from 8u262 on, without it only the MXBean is fed
+    private static final PlaybackEventSink EVENTS = loadEvents();
+
+    //count, sum and maximum of one kind of latency
+    private static final class Latency {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos){
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        void reset(){
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+
+        double averageMillis(){
+            final long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        double maxMillis(){
+            return maxNanos.get() / 1e6;
+        }
+    }
+
+    private final Latency mediaOpen = new Latency();
+    private final Latency seek = new Latency();
+    private final Latency spectrum = new Latency();
+    private final LongAdder scrubRequests = new LongAdder();
+    private final LongAdder scrubSeeks = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final AtomicInteger fxQueueDepth = new AtomicInteger();
+    private final AtomicInteger fxQueueMaxDepth = new AtomicInteger();
+    private volatile IntSupplier livePlayers = () -> 0;
+    private volatile MediaCache mediaCache;
+    private volatile AlbumArtCache albumArtCache;
+    //seek waiting for the next position change, 0 when none
+    private volatile long seekStarted;
+    private long rateSampleNanos = System.nanoTime();
+    private long rateSampleCount;
+
+    //created on first use, an AnimationTimer needs a running toolkit
+    private AnimationTimer frameTimer;
+
+    private PlaybackMetrics(){
+    }
+
+    static PlaybackMetrics get(){
+        return INSTANCE;
+    }
+
+    //publishes the MXBean and the periodic JFR event, call once the toolkit runs
+    static void register(){
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                    new ObjectName(OBJECT_NAME));
+        } catch(InstanceAlreadyExistsException e){
+            return;
+        } catch(JMException e){
+            System.out.println("Metrics error: "+e);
+            return;
+        }
+        if(EVENTS != null){
+            EVENTS.registerPeriodic(INSTANCE);
+        }
+        if(enabled){
+            Platform.runLater(() -> INSTANCE.setFrameTimerRunning(true));
+        }
+    }
+
+    //start of a measured section, 0 while disabled
+    static long start(){
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void spectrumCallback(long start, int bands){
+        if(start == 0){
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        INSTANCE.spectrum.record(nanos);
+        if(EVENTS != null){
+            EVENTS.spectrumCallback(nanos, bands);
+        }
+    }
+
+    static void mediaOpened(String url, long nanos){
+        if(!enabled){
+            return;
+        }
+        INSTANCE.mediaOpen.record(nanos);
+        if(EVENTS != null){
+            EVENTS.mediaOpen(url, nanos);
+        }
+    }
+
+    //a seek while playing is audible with the next position the player reports
+    static void seekStarted(){
+        if(enabled){
+            INSTANCE.seekStarted = System.nanoTime();
+        }
+    }
+
+    static void positionChanged(){
+        final long started = INSTANCE.seekStarted;
+        if(started != 0){
+            INSTANCE.seekStarted = 0;
+            final long nanos = System.nanoTime() - started;
+            INSTANCE.seek.record(nanos);
+            if(EVENTS != null){
+                EVENTS.seek(nanos);
+            }
+        }
+    }
+
+    //one slider move while scrubbing, seeked is false when it was coalesced
+    static void scrubbed(boolean seeked){
+        if(enabled){
+            INSTANCE.scrubRequests.increment();
+            if(seeked){
+                INSTANCE.scrubSeeks.increment();
+            }
+        }
+    }
+
+    //Platform.runLater that keeps track of how many tasks wait for the FX thread
+    static void runLater(Runnable r){
+        if(!enabled){
+            Platform.runLater(r);
+            return;
+        }
+        final AtomicInteger depth = INSTANCE.fxQueueDepth;
+        final int queued = depth.incrementAndGet();
+        INSTANCE.fxQueueMaxDepth.accumulateAndGet(queued, Math::max);
+        Platform.runLater(() -> {
+            depth.decrementAndGet();
+            r.run();
+        });
+    }
+
+    static void setMediaCache(MediaCache cache){
+        INSTANCE.mediaCache = cache;
+    }
+
+    static void setAlbumArtCache(AlbumArtCache cache){
+        INSTANCE.albumArtCache = cache;
+    }
+
+    static void setLivePlayers(IntSupplier supplier){
+        INSTANCE.livePlayers = supplier;
+    }
+
+    @Override
+    public boolean isEnabled(){ return enabled; }
+
+    @Override
+    public void setEnabled(boolean value){
+        enabled = value;
+        if(!value){
+            seekStarted = 0;
+        }
+        Platform.runLater(() -> setFrameTimerRunning(value));
+    }
+
+    //counts a frame per pulse and the pulses that came late, FX thread only
+    private void setFrameTimerRunning(boolean running){
+        if(frameTimer == null){
+            if(!running){
+                return;
+            }
+            frameTimer = new AnimationTimer() {
+                private long last;
+
+                @Override
+                public void handle(long now) {
+                    if(last != 0){
+                        frames.increment();
+                        final long gap = now - last;
+                        if(gap > FRAME_NANOS * 3 / 2){
+                            final long dropped = Math.round((double)gap / FRAME_NANOS) - 1;
+                            droppedFrames.add(dropped);
+                            if(EVENTS != null){
+                                EVENTS.droppedFrames(gap, dropped);
+                            }
+                        }
+                    }
+                    last = now;
+                }
+
+                @Override
+                public void stop() {
+                    super.stop();
+                    last = 0;
+                }
+            };
+        }
+        if(running){
+            frameTimer.start();
+        } else {
+            frameTimer.stop();
+        }
+    }
+
+    @Override
+    public void resetStatistics(){
+        mediaOpen.reset();
+        seek.reset();
+        spectrum.reset();
+        scrubRequests.reset();
+        scrubSeeks.reset();
+        frames.reset();
+        droppedFrames.reset();
+        fxQueueMaxDepth.set(fxQueueDepth.get());
+        synchronized(this){
+            rateSampleNanos = System.nanoTime();
+            rateSampleCount = 0;
+        }
+    }
+
+    @Override public long getMediaOpenCount(){ return mediaOpen.count.sum(); }
+    @Override public double getMediaOpenAverageMillis(){ return mediaOpen.averageMillis(); }
+    @Override public double getMediaOpenMaxMillis(){ return mediaOpen.maxMillis(); }
+
+    @Override public long getSeekToAudibleCount(){ return seek.count.sum(); }
+    @Override public double getSeekToAudibleAverageMillis(){ return seek.averageMillis(); }
+    @Override public double getSeekToAudibleMaxMillis(){ return seek.maxMillis(); }
+    @Override public long getScrubRequests(){ return scrubRequests.sum(); }
+    @Override public long getScrubSeeks(){ return scrubSeeks.sum(); }
+
+    @Override public long getSpectrumCallbackCount(){ return spectrum.count.sum(); }
+    @Override public double getSpectrumCallbackAverageMillis(){ return spectrum.averageMillis(); }
+    @Override public double getSpectrumCallbackMaxMillis(){ return spectrum.maxMillis(); }
+
+    @Override
+    public synchronized double getSpectrumCallbackRate(){
+        final long now = System.nanoTime();
+        final long count = spectrum.count.sum();
+        final double rate = now == rateSampleNanos ? 0
+                : (count - rateSampleCount) * 1e9 / (now - rateSampleNanos);
+        rateSampleNanos = now;
+        rateSampleCount = count;
+        return rate;
+    }
+
+    @Override public long getFrameCount(){ return frames.sum(); }
+    @Override public long getDroppedFrames(){ return droppedFrames.sum(); }
+
+    @Override public int getFxQueueDepth(){ return fxQueueDepth.get(); }
+    @Override public int getFxQueueMaxDepth(){ return fxQueueMaxDepth.get(); }
+
+    @Override public int getLivePlayers(){ return livePlayers.getAsInt(); }
+
+    @Override public double getMediaCacheHitRatio(){
+        final MediaCache cache = mediaCache;
+        return cache == null ? 0 : cache.getHitRatio();
+    }
+    @Override public long getMediaCacheBytesSaved(){
+        final MediaCache cache = mediaCache;
+        return cache == null ? 0 : cache.getBytesSaved();
+    }
+    @Override public long getMediaCacheBytesFetched(){
+        final MediaCache cache = mediaCache;
+        return cache == null ? 0 : cache.getBytesFetched();
+    }
+    @Override public long getMediaCacheUsedBytes(){
+        final MediaCache cache = mediaCache;
+        return cache == null ? 0 : cache.getUsedBytes();
+    }
+
+    @Override public double getAlbumArtHitRatio(){
+        final AlbumArtCache cache = albumArtCache;
+        return cache == null ? 0 : cache.getHitRatio();
+    }
+    @Override public long getAlbumArtEvictions(){
+        final AlbumArtCache cache = albumArtCache;
+        return cache == null ? 0 : cache.getEvictions() + cache.getDiskEvictions();
+    }
+    @Override public long getAlbumArtUsedBytes(){
+        final AlbumArtCache cache = albumArtCache;
+        return cache == null ? 0 : cache.getUsedBytes();
+    }
+    @Override public long getAlbumArtDiskUsedBytes(){
+        final AlbumArtCache cache = albumArtCache;
+        return cache == null ? 0 : cache.getDiskUsedBytes();
+    }
+
+    @Override public double getStartupFirstFrameMillis(){ return StartupTimer.getFirstFrameMillis(); }
+    @Override public double getStartupAudioMillis(){ return StartupTimer.getAudioMillis(); }
+
+    //null when jdk.jfr or the classes built from src-jfr are missing
+    private static PlaybackEventSink loadEvents(){
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (PlaybackEventSink)Class.forName("javafxradio.PlaybackEvents")
+                    .getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException | LinkageError e){
+            return null;
+        }
+    }
+}
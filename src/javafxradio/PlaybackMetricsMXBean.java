@@ -0,0 +1,52 @@
+package javafxradio;
+
+//management view of PlaybackMetrics, registered as javafxradio:type=PlaybackMetrics.
+//Times are in milliseconds, everything counts since start or the last reset.
+public interface PlaybackMetricsMXBean {
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+    void resetStatistics();
+
+    long getMediaOpenCount();
+    double getMediaOpenAverageMillis();
+    double getMediaOpenMaxMillis();
+
+    //from a seek while playing until the player reports the new position
+    long getSeekToAudibleCount();
+    double getSeekToAudibleAverageMillis();
+    double getSeekToAudibleMaxMillis();
+    //slider moves while scrubbing and the seeks that were issued for them
+    long getScrubRequests();
+    long getScrubSeeks();
+
+    long getSpectrumCallbackCount();
+    double getSpectrumCallbackAverageMillis();
+    double getSpectrumCallbackMaxMillis();
+    //callbacks per second since the previous read of this attribute
+    double getSpectrumCallbackRate();
+
+    long getFrameCount();
+    long getDroppedFrames();
+
+    //tasks posted through PlaybackMetrics.runLater that did not run yet
+    int getFxQueueDepth();
+    int getFxQueueMaxDepth();
+
+    int getLivePlayers();
+
+    //remote media served through the disk cache, see MediaCache
+    double getMediaCacheHitRatio();
+    long getMediaCacheBytesSaved();
+    long getMediaCacheBytesFetched();
+    long getMediaCacheUsedBytes();
+
+    //cover thumbnails, see AlbumArtCache; evictions count memory and disk
+    double getAlbumArtHitRatio();
+    long getAlbumArtEvictions();
+    long getAlbumArtUsedBytes();
+    long getAlbumArtDiskUsedBytes();
+
+    //from JVM start until the first frame and the first audio, NaN until they happened
+    double getStartupFirstFrameMillis();
+    double getStartupAudioMillis();
+}
@@ -1,7 +1,10 @@
 package javafxradio;
 
 import java.net.URL;
-import javafx.application.Platform;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.value.ChangeListener;
@@ -22,31 +25,89 @@ import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.media.MediaPlayer.Status;
 import javafx.util.Duration;
 
 class PlayerControlsView extends AbstractView {
+    private static final Path PEAK_DIR = Paths.get(System.getProperty("user.home"),
+            ".javafxradio", "peaks");
+    private static final Path SEEK_INDEX_DIR = Paths.get(System.getProperty("user.home"),
+            ".javafxradio", "seek");
+    //while dragging, at most one seek per interval; the last position always follows
+    private static final Duration SCRUB_INTERVAL = Duration.millis(100);
+    
     private Node controlPanel;
     private Slider volumeSlider;
     private Slider positionSlider;
+    private WaveformCanvas waveformCanvas;
     private Label statusLabel;    
     private Label totalDurationLabel;
     private Label currentTimeLabel;
     private Image playImg;
     private Image pauseImg;
     private ImageView playPauseIcon;
+    private Button seekStartButton;
+    private Button seekEndButton;
     private StatusListener statusListener;
     private CurrentTimeListener currentTimeListener;
+    private TotalDurationListener totalDurationListener;
+    //player whose end of media handler this view wrapped, and the handler before that
+    private MediaPlayer wrappedPlayer;
+    private Runnable modelEndOfMedia;
     
+    //listener callbacks only mark these dirty, the dispatcher applies them once per frame
+    private final FrameDispatcher dispatcher = new FrameDispatcher();
+    private final FrameDispatcher.Update statusUpdate;
+    private final FrameDispatcher.Update currentTimeUpdate;
+    private final FrameDispatcher.Update totalDurationUpdate;
+    //second shown by currentTimeLabel, the text is only rebuilt when it changes
+    private long displayedSecond = -1;
+    //peak files are built once per track in the background and memory mapped afterwards
+    private final WaveformStore waveformStore = new WaveformStore(PEAK_DIR);
+    //VBR MP3s without a table of contents are seeked through their frame index
+    private final SeekIndexStore seekIndexStore = new SeekIndexStore(SEEK_INDEX_DIR);
+    private SeekIndex seekIndex;
+    //real and player time of the last seek this view issued, null before it seeked.
+    //Played from the start the player's time is right, only its seek target is off.
+    private Duration seekedRealTime;
+    private Duration seekedPlayerTime;
+    private long lastScrubSeek;
+    private PauseTransition pendingScrub;
     
     public PlayerControlsView(SongModel songModel){
         super(songModel);
 
-        songModel.mediaPlayerProperty().addListener(new MediaPlayerListener());        
+        statusUpdate = dispatcher.register(this::refreshStatus);
+        currentTimeUpdate = dispatcher.register(this::updateCurrentTime);
+        totalDurationUpdate = dispatcher.register(this::updateTotalDuration);
+        dispatcher.start();
+        
+        listen(songModel.mediaPlayerProperty(), new MediaPlayerListener());
+        listen(songModel.pcmStateProperty(), observable -> statusUpdate.request());
         statusListener = new StatusListener();
         currentTimeListener = new CurrentTimeListener();
-        addListenersAndBindings(songModel.getMediaPlayer());
+        totalDurationListener = new TotalDurationListener();
+        //the first track may still be loading
+        if(songModel.getMediaPlayer() != null){
+            addListenersAndBindings(songModel.getMediaPlayer());
+        }
+    }
+    
+    FrameDispatcher getDispatcher(){ return dispatcher; }
+    
+    @Override
+    public void dispose(){
+        dispatcher.stop();
+        if(pendingScrub != null){
+            pendingScrub.stop();
+        }
+        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
+        if(mediaPlayer != null){
+            removeListenersAndBinidngs(mediaPlayer);
+        }
+        super.dispose();
     }
     
     @Override
@@ -55,6 +116,7 @@ class PlayerControlsView extends AbstractView {
         volumeSlider = createVolumeSlider("volumeSlider");
         statusLabel = createLabel("Buffering", "statusDisplay");
         positionSlider = createSlider("positionSlider");        
+        waveformCanvas = new WaveformCanvas();
         totalDurationLabel = createLabel("00:00", "mediaText");
         currentTimeLabel = createLabel("00:00", "mediaText");
         
@@ -63,7 +125,11 @@ class PlayerControlsView extends AbstractView {
         final ImageView highVol = new ImageView();
         highVol.setId("volumeHigh");
         
-        positionSlider.valueChangingProperty().addListener(new PositionListener());
+        final PositionListener positionListener = new PositionListener();
+        positionSlider.valueChangingProperty().addListener(positionListener);
+        positionSlider.valueProperty().addListener(positionListener.scrubListener);
+        //the model applies loudness normalization on top of this
+        bindBidirectional(volumeSlider.valueProperty(), songModel.volumeProperty());
                 
         final GridPane gp = new GridPane();
         gp.setHgap(3);
@@ -88,7 +154,7 @@ class PlayerControlsView extends AbstractView {
         gp.add(controlPanel, 1,0,1,2);
         gp.add(statusLabel, 2,1);
         gp.add(currentTimeLabel, 0,2);
-        gp.add(positionSlider, 1,2);
+        gp.add(new StackPane(waveformCanvas, positionSlider), 1,2);
         gp.add(totalDurationLabel, 2,2);
                 
         return gp;
@@ -118,11 +184,12 @@ class PlayerControlsView extends AbstractView {
     }           
     
     private Button createPlayPauseButton(){
+        //decoded in the background, the button fills in when they are ready
         URL url = getClass().getResource("resources/pause.png");
-        pauseImg = new Image(url.toString());
+        pauseImg = new Image(url.toString(), true);
         
         url = getClass().getResource("resources/play.png");
-        playImg = new Image(url.toString());
+        playImg = new Image(url.toString(), true);
         
         playPauseIcon = new ImageView(playImg);
         
@@ -131,11 +198,10 @@ class PlayerControlsView extends AbstractView {
         playPauseButton.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent event) {
-                final MediaPlayer player = songModel.getMediaPlayer();
-                if(player.getStatus() == MediaPlayer.Status.PLAYING){
-                    player.pause();
+                if(songModel.isPlaying()){
+                    songModel.pause();
                 } else {
-                    player.play();
+                    songModel.play();
                 }
             }
         });
@@ -145,13 +211,12 @@ class PlayerControlsView extends AbstractView {
                    
     private Node createControlPanel(){
         final HBox hbox = new HBox();
-        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
         hbox.setAlignment(Pos.CENTER);
         hbox.setFillHeight(false);
         
         final Button playPauseButton = createPlayPauseButton();
         
-        final Button seekStartButton = new Button();
+        seekStartButton = new Button();
         seekStartButton.setId("seekStartButton");
         seekStartButton.setOnAction(new EventHandler<ActionEvent>() {
             @Override
@@ -160,14 +225,16 @@ class PlayerControlsView extends AbstractView {
             }
         });
         
-        final Button seekEndButton = new Button();
+        seekEndButton = new Button();
         seekEndButton.setId("seekEndButton");
         seekEndButton.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent event) {                
-                final Duration totalDuration = mediaPlayer.getTotalDuration();
+                final Duration totalDuration = totalDuration();
                 final Duration second = Duration.seconds(1);
-                seekAndUpdatePosition(totalDuration.subtract(second));
+                if(isKnown(totalDuration)){
+                    seekAndUpdatePosition(totalDuration.subtract(second));
+                }
             }
         });
         
@@ -178,11 +245,18 @@ class PlayerControlsView extends AbstractView {
     
     private void seekAndUpdatePosition(Duration duration){
         final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
+        if(mediaPlayer == null)
+            return;
         
         if(mediaPlayer.getStatus() == Status.STOPPED)
             mediaPlayer.pause();
         
-        mediaPlayer.seek(duration);
+        if(mediaPlayer.getStatus() == Status.PLAYING)
+            PlaybackMetrics.seekStarted();
+        final Duration playerTime = toPlayerTime(duration);
+        mediaPlayer.seek(playerTime);
+        seekedRealTime = duration;
+        seekedPlayerTime = playerTime;
         
         if(mediaPlayer.getStatus() != Status.PLAYING)
             updatePositionSlider(duration);
@@ -191,24 +265,107 @@ class PlayerControlsView extends AbstractView {
     private void addListenersAndBindings(MediaPlayer mediaPlayer){
         mediaPlayer.statusProperty().addListener(statusListener);
         mediaPlayer.currentTimeProperty().addListener(currentTimeListener);
-        mediaPlayer.totalDurationProperty().addListener(new TotalDurationListener());
+        mediaPlayer.totalDurationProperty().addListener(totalDurationListener);
         
+        //SongModel uses end of media to advance in gapless mode, keep its handler
+        final Runnable modelEndOfMedia = mediaPlayer.getOnEndOfMedia();
+        this.wrappedPlayer = mediaPlayer;
+        this.modelEndOfMedia = modelEndOfMedia;
         mediaPlayer.setOnEndOfMedia(new Runnable(){
             @Override
             public void run() {
                 statusLabel.setText("STOPPED");
+                if(modelEndOfMedia != null){
+                    modelEndOfMedia.run();
+                }
             }            
         });
         
-        volumeSlider.valueProperty().bindBidirectional
-            (songModel.getMediaPlayer().volumeProperty());
-        volumeSlider.valueProperty().setValue(0.5);
+        loadWaveform(mediaPlayer);
+        loadSeekIndex(mediaPlayer);
     }
     
     public void removeListenersAndBinidngs(MediaPlayer mediaPlayer){
-        volumeSlider.valueProperty().unbind();
         mediaPlayer.statusProperty().removeListener(statusListener);
         mediaPlayer.currentTimeProperty().removeListener(currentTimeListener);
+        mediaPlayer.totalDurationProperty().removeListener(totalDurationListener);
+        //a pooled player outlives this view, it must not keep calling into it
+        if(mediaPlayer == wrappedPlayer){
+            mediaPlayer.setOnEndOfMedia(modelEndOfMedia);
+            wrappedPlayer = null;
+            modelEndOfMedia = null;
+        }
+    }
+    
+    //shows the overview of local tracks once its peaks are available
+    private void loadWaveform(MediaPlayer mediaPlayer){
+        waveformCanvas.setPeaks(null);
+        final String url = mediaPlayer.getMedia().getSource();
+        if(!url.startsWith("file:")){
+            return;
+        }
+        waveformStore.get(url).whenComplete((peaks, error) -> PlaybackMetrics.runLater(() -> {
+            if(error != null){
+                System.out.println("Waveform unavailable: "+error);
+            } else if(songModel.getMediaPlayer() == mediaPlayer){
+                waveformCanvas.setPeaks(peaks);
+            }
+        }));
+    }
+    
+    //times shown and seeked are real times, the player's may be off for VBR files
+    private void loadSeekIndex(MediaPlayer mediaPlayer){
+        seekIndex = null;
+        clearSeek();
+        final String url = mediaPlayer.getMedia().getSource();
+        if(!SeekIndexStore.isIndexable(url)){
+            return;
+        }
+        seekIndexStore.get(url).whenComplete((index, error) -> PlaybackMetrics.runLater(() -> {
+            if(error != null){
+                System.out.println("Seek index unavailable: "+error);
+            } else if(songModel.getMediaPlayer() == mediaPlayer && index.needsCorrection()){
+                seekIndex = index;
+                totalDurationUpdate.request();
+                currentTimeUpdate.request();
+            }
+        }));
+    }
+    
+    //null before the first track was loaded
+    private Duration totalDuration(){
+        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
+        if(seekIndex != null){
+            return Duration.seconds(seekIndex.getDurationSeconds());
+        }
+        return mediaPlayer != null ? mediaPlayer.getTotalDuration() : null;
+    }
+    
+    //after a seek the player counts on from the time it was sent to, which is the
+    //real time the view asked for
+    private Duration toRealTime(Duration playerTime){
+        if(seekedPlayerTime == null || playerTime == null){
+            return playerTime;
+        }
+        return seekedRealTime.add(playerTime.subtract(seekedPlayerTime));
+    }
+    
+    private void clearSeek(){
+        seekedRealTime = null;
+        seekedPlayerTime = null;
+    }
+    
+    private Duration toPlayerTime(Duration realTime){
+        final Duration playerTotal = songModel.getMediaPlayer().getTotalDuration();
+        if(seekIndex == null || !isKnown(playerTotal)){
+            return realTime;
+        }
+        return Duration.seconds(seekIndex.toBackend(realTime.toSeconds(),
+                playerTotal.toSeconds()));
+    }
+    
+    private static boolean isKnown(Duration d){
+        return d != null && !d.isUnknown() && !d.isIndefinite();
     }
     
     //creates new listeners and deletes old ones whenever you start using another file
@@ -226,15 +383,29 @@ class PlayerControlsView extends AbstractView {
     public class StatusListener implements InvalidationListener{
         @Override
         public void invalidated(Observable observable) {
-            Platform.runLater(new Runnable(){
-                @Override
-                public void run() {
-                    updateStatus(songModel.getMediaPlayer().getStatus());
-                }            
-            });
+            //a stopped player starts over from its own time zero
+            if(((ObservableValue<?>)observable).getValue() == Status.STOPPED){
+                clearSeek();
+            }
+            statusUpdate.request();
         }                 
     }
 
+    //the PCM engine has no seeking, the MediaPlayer kept meanwhile is stopped
+    private void refreshStatus(){
+        final PcmPlayer.State pcmState = songModel.getPcmState();
+        if(pcmState != null){
+            controlPanel.setDisable(false);
+            positionSlider.setDisable(true);
+            seekStartButton.setDisable(true);
+            seekEndButton.setDisable(true);
+            statusLabel.setText(pcmState.toString());
+            playPauseIcon.setImage(pcmState == PcmPlayer.State.PLAYING ? pauseImg : playImg);
+        } else if(songModel.getMediaPlayer() != null){
+            updateStatus(songModel.getMediaPlayer().getStatus());
+        }
+    }
+
     private void updateStatus(Status newStatus){
             if(newStatus == Status.UNKNOWN || newStatus == null){
                 controlPanel.setDisable(true);
@@ -243,6 +414,8 @@ class PlayerControlsView extends AbstractView {
             }else{
                 controlPanel.setDisable(false);
                 positionSlider.setDisable(false);
+                seekStartButton.setDisable(false);
+                seekEndButton.setDisable(false);
                 statusLabel.setText(newStatus.toString());
                 
                 if(newStatus == Status.PLAYING){
@@ -257,68 +430,109 @@ class PlayerControlsView extends AbstractView {
     private class CurrentTimeListener implements InvalidationListener {
         @Override
         public void invalidated(Observable observable) {
-            //preforms updates to live scene graph nodes
-            Platform.runLater(new Runnable(){
-                @Override
-                public void run() {
-                    final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-                    final Duration currentTime = mediaPlayer.getCurrentTime();
-                    currentTimeLabel.setText(formatDuration(currentTime));
-                    updatePositionSlider(currentTime);
-                }                
-            });
+            PlaybackMetrics.positionChanged();
+            currentTimeUpdate.request();
         }        
     }
     
     private class TotalDurationListener implements InvalidationListener {
         @Override
         public void invalidated(Observable observable) {
-            Platform.runLater(new Runnable() {
-                @Override
-                public void run() {
-                    final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-                    final Duration totalDuration = mediaPlayer.getTotalDuration();
-                    totalDurationLabel.setText(formatDuration(totalDuration));
-                }
-            });
+            totalDurationUpdate.request();
         }        
     }
     
+    //preforms updates to live scene graph nodes
+    private void updateCurrentTime(){
+        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
+        final Duration currentTime = toRealTime(mediaPlayer.getCurrentTime());
+        final long second = (long)(currentTime.toMillis() / 1000);
+        if(second != displayedSecond){
+            displayedSecond = second;
+            currentTimeLabel.setText(formatDuration(currentTime));
+        }
+        updatePositionSlider(currentTime);
+    }
+    
+    private void updateTotalDuration(){
+        totalDurationLabel.setText(formatDuration(totalDuration()));
+    }
+    
     //allows dragging of positionSlider to another position
     private void updatePositionSlider(Duration currentTime){
         if(positionSlider.isValueChanging())
             return;
         
-        final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-        final Duration total = mediaPlayer.getTotalDuration();
+        final Duration total = totalDuration();
         
         if(total == null || currentTime == null){
             positionSlider.setValue(0);
         }else{
             positionSlider.setValue(currentTime.toMillis() / total.toMillis());
-            updateStatus(songModel.getMediaPlayer().getStatus());
         }
     }
     
     //formatting for currentTime and totalDuration
-    private String formatDuration(Duration duration){
+    static String formatDuration(Duration duration){
         double millis = duration.toMillis();
         int seconds = (int) (millis/1000) %60;
         int minutes = (int) (millis/(1000*60));
         return String.format("%02d:%02d", minutes,seconds);
     }
     
-    //waits for the user to stop dragging a slider
+    //seeks while the slider is dragged, throttled to one seek per SCRUB_INTERVAL with
+    //the latest position seeked when the interval is over, and once more on release
     private class PositionListener implements ChangeListener<Boolean>{
+        final InvalidationListener scrubListener = observable -> {
+            if(positionSlider.isValueChanging()){
+                scrub();
+            }
+        };
+        
         @Override
         public void changed(ObservableValue<? extends Boolean> observable, 
                 Boolean oldValue, Boolean newValue) {
             if(oldValue && !newValue){
-                double pos = positionSlider.getValue();
-                final MediaPlayer mediaPlayer = songModel.getMediaPlayer();
-                final Duration seekTo = mediaPlayer.getTotalDuration().multiply(pos);
-                seekAndUpdatePosition(seekTo);
+                if(pendingScrub != null){
+                    pendingScrub.stop();
+                }
+                seekToSlider();
             }
-        }        
+        }
+        
+        private void scrub(){
+            final long now = System.nanoTime();
+            final long interval = (long)(SCRUB_INTERVAL.toMillis() * 1_000_000);
+            if(now - lastScrubSeek >= interval){
+                if(pendingScrub != null){
+                    pendingScrub.stop();
+                }
+                PlaybackMetrics.scrubbed(true);
+                seekToSlider();
+                return;
+            }
+            PlaybackMetrics.scrubbed(false);
+            if(pendingScrub == null){
+                pendingScrub = new PauseTransition();
+                pendingScrub.setOnFinished(e -> {
+                    if(positionSlider.isValueChanging()){
+                        PlaybackMetrics.scrubbed(true);
+                        seekToSlider();
+                    }
+                });
+            }
+            if(pendingScrub.getStatus() != Animation.Status.RUNNING){
+                pendingScrub.setDuration(Duration.millis((interval - (now - lastScrubSeek)) / 1e6));
+                pendingScrub.playFromStart();
+            }
+        }
+        
+        private void seekToSlider(){
+            lastScrubSeek = System.nanoTime();
+            final Duration total = totalDuration();
+            if(isKnown(total)){
+                seekAndUpdatePosition(total.multiply(positionSlider.getValue()));
+            }
+        }
     }
 }
@@ -0,0 +1,157 @@
+package javafxradio;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
+
+//owns every MediaPlayer SongModel creates: released players get their listeners
+//detached and are disposed, or parked in a small pool of recently used ones
+final class PlayerLifecycle {
+    //rough native footprint of one player (demuxer, decoder and audio buffers),
+    //only meant to make growth visible, not to be exact
+    static final long ESTIMATED_NATIVE_BYTES_PER_PLAYER = 4L * 1024 * 1024;
+
+    private final int poolSize;
+    //players handed out and not yet released, with what has to be undone on release
+    private final Map<MediaPlayer, List<Runnable>> live = new IdentityHashMap<>();
+    //released players kept warm by source URL, least recently used first
+    private final LinkedHashMap<String, MediaPlayer> pool = new LinkedHashMap<>(16, 0.75f, true);
+    private long created;
+    private long disposed;
+    private long reused;
+
+    PlayerLifecycle(int poolSize){
+        this.poolSize = poolSize;
+    }
+
+    //returns a pooled player for url or builds a new one, may be called off the FX thread.
+    //Opening media can block on slow disks and servers, so it happens outside the lock.
+    MediaPlayer acquire(String url){
+        MediaPlayer player;
+        synchronized(this){
+            player = pool.remove(url);
+            if(player != null){
+                ++reused;
+                live.put(player, new ArrayList<>());
+            }
+        }
+        if(player != null){
+            player.seek(Duration.ZERO);
+            return player;
+        }
+        player = new MediaPlayer(new Media(url));
+        synchronized(this){
+            ++created;
+            live.put(player, new ArrayList<>());
+        }
+        return player;
+    }
+
+    //action that undoes something attached to player, run when it is released
+    synchronized void addCleanup(MediaPlayer player, Runnable cleanup){
+        List<Runnable> cleanups = live.get(player);
+        if(cleanups != null){
+            cleanups.add(cleanup);
+        }
+    }
+
+    //detaches everything and disposes the player or parks it in the pool
+    void release(MediaPlayer player){
+        final List<Runnable> cleanups;
+        synchronized(this){
+            cleanups = live.remove(player);
+        }
+        if(cleanups == null){
+            return;
+        }
+        for(Runnable cleanup : cleanups){
+            cleanup.run();
+        }
+        player.setOnError(null);
+        player.setOnEndOfMedia(null);
+        player.setOnReady(null);
+        player.setAudioSpectrumListener(null);
+        player.stop();
+
+        final MediaPlayer.Status status = player.getStatus();
+        if(poolSize == 0 || status == MediaPlayer.Status.UNKNOWN
+                || status == MediaPlayer.Status.HALTED || status == MediaPlayer.Status.DISPOSED){
+            dispose(player);
+        } else if(status == MediaPlayer.Status.STOPPED){
+            park(player);
+        } else {
+            //stop() takes effect asynchronously, the player is parked once it reports it
+            player.statusProperty().addListener(new InvalidationListener(){
+                @Override
+                public void invalidated(Observable observable) {
+                    final MediaPlayer.Status s = player.getStatus();
+                    if(s == MediaPlayer.Status.STOPPED){
+                        player.statusProperty().removeListener(this);
+                        park(player);
+                    } else if(s == MediaPlayer.Status.HALTED || s == MediaPlayer.Status.DISPOSED){
+                        player.statusProperty().removeListener(this);
+                        dispose(player);
+                    }
+                }
+            });
+        }
+    }
+
+    private void park(MediaPlayer player){
+        final List<MediaPlayer> evicted = new ArrayList<>();
+        synchronized(this){
+            MediaPlayer old = pool.put(player.getMedia().getSource(), player);
+            if(old != null){
+                evicted.add(old);
+            }
+            Iterator<MediaPlayer> it = pool.values().iterator();
+            while(pool.size() > poolSize && it.hasNext()){
+                evicted.add(it.next());
+                it.remove();
+            }
+        }
+        for(MediaPlayer p : evicted){
+            dispose(p);
+        }
+    }
+
+    private void dispose(MediaPlayer player){
+        player.dispose();
+        synchronized(this){
+            ++disposed;
+        }
+    }
+
+    //disposes pooled players, live ones stay with their owner
+    void clearPool(){
+        final List<MediaPlayer> pooled;
+        synchronized(this){
+            pooled = new ArrayList<>(pool.values());
+            pool.clear();
+        }
+        for(MediaPlayer p : pooled){
+            dispose(p);
+        }
+    }
+
+    synchronized int getLivePlayers(){ return live.size(); }
+    synchronized int getPooledPlayers(){ return pool.size(); }
+    synchronized long getCreated(){ return created; }
+    synchronized long getDisposed(){ return disposed; }
+    synchronized long getReused(){ return reused; }
+
+    //players that still hold native resources, live or pooled
+    synchronized long getUndisposedPlayers(){ return created - disposed; }
+
+    synchronized long getEstimatedNativeBytes(){
+        return (created - disposed) * ESTIMATED_NATIVE_BYTES_PER_PLAYER;
+    }
+}
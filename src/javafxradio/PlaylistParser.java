@@ -0,0 +1,91 @@
+package javafxradio;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+//reads M3U, M3U8 and PLS playlists line by line and hands every entry out as a URL,
+//the playlist itself is never held in memory
+final class PlaylistParser {
+    private PlaylistParser(){}
+
+    static boolean isPlaylist(Path file){
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".m3u") || name.endsWith(".m3u8") || name.endsWith(".pls");
+    }
+
+    //returns the number of entries passed to sink
+    static int parse(Path playlist, Consumer<String> sink) throws IOException {
+        String name = playlist.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean pls = name.endsWith(".pls");
+        Path base = playlist.toAbsolutePath().getParent();
+
+        //plain .m3u has no defined encoding, most players today write UTF-8 anyway;
+        //malformed input is replaced rather than aborting the whole list
+        int count = 0;
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(playlist), StandardCharsets.UTF_8))){
+            String line;
+            while((line = reader.readLine()) != null){
+                String entry = pls ? plsEntry(line) : m3uEntry(line);
+                if(entry != null){
+                    String url = toURL(base, entry);
+                    if(url != null){
+                        sink.accept(url);
+                        ++count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static String m3uEntry(String line){
+        line = stripBOM(line).trim();
+        if(line.isEmpty() || line.startsWith("#")){
+            return null;
+        }
+        return line;
+    }
+
+    //only FileN=... lines matter, titles and lengths come from the tracks themselves
+    private static String plsEntry(String line){
+        line = stripBOM(line).trim();
+        if(line.length() < 6 || !line.regionMatches(true, 0, "File", 0, 4)){
+            return null;
+        }
+        int eq = line.indexOf('=');
+        if(eq < 0){
+            return null;
+        }
+        for (int i = 4; i < eq; i++) {
+            if(!Character.isDigit(line.charAt(i))){
+                return null;
+            }
+        }
+        String value = line.substring(eq + 1).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String toURL(Path base, String entry){
+        if(entry.indexOf("://") > 0 || entry.startsWith("file:")){
+            return entry;
+        }
+        try {
+            return base.resolve(entry.replace('\\', '/')).normalize().toUri().toString();
+        } catch(InvalidPathException e){
+            System.out.println("Playlist entry skipped: "+entry);
+            return null;
+        }
+    }
+
+    private static String stripBOM(String line){
+        return !line.isEmpty() && line.charAt(0) == '\uFEFF' ? line.substring(1) : line;
+    }
+}
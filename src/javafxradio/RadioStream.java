@@ -0,0 +1,642 @@
+package javafxradio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+//relays a Shoutcast/Icecast stream to MediaPlayer through a local HTTP socket.
+//One selector thread reads the station without blocking, strips the in-band ICY
+//metadata and keeps a jitter buffer of bufferMillis of audio. MediaPlayer plays the
+//local URL; when the station drops the connection the relay reconnects and keeps
+//serving from the buffer, so the player never sees the interruption. A station that
+//does not answer within CONNECT_TIMEOUT_MILLIS, or stops sending for longer than the
+//buffer lasts, counts as dropped.
+final class RadioStream implements AutoCloseable {
+    static final int DEFAULT_BUFFER_MILLIS = 2000;
+    //assumed when the station does not send icy-br
+    private static final int DEFAULT_KBPS = 128;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_HEADER = 16 * 1024;
+    private static final long CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    
+    //host lookups block, they run here and hand the address to the relay thread
+    private static final ExecutorService RESOLVER = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "radio-resolver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Resolved {
+        final long attempt;
+        final InetSocketAddress address;
+        final IOException error;
+
+        Resolved(long attempt, InetSocketAddress address, IOException error){
+            this.attempt = attempt;
+            this.address = address;
+            this.error = error;
+        }
+    }
+
+    private final URI station;
+    private final int bufferMillis;
+    private volatile Consumer<String> titleListener;
+
+    private Selector selector;
+    private ServerSocketChannel local;
+    private Thread thread;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private volatile IOException startError;
+
+    //upstream connection
+    private URI target;
+    private int redirects;
+    private SocketChannel upstream;
+    private final ByteBuffer net = ByteBuffer.allocate(16 * 1024);
+    private final ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+    private boolean inBody;
+    private int metaInterval;
+    private int audioLeft;
+    private int metaLeft = -1;
+    private final ByteBuffer meta = ByteBuffer.allocate(255 * 16);
+    private long reconnectAt;
+    private long backoff = MIN_BACKOFF_MILLIS;
+    //connect attempt whose host lookup is running, older results are dropped
+    private long attempt;
+    private boolean resolving;
+    private final AtomicReference<Resolved> resolved = new AtomicReference<>();
+    //start of the connect, then time of the last byte from the station
+    private long lastUpstreamAt;
+
+    //jitter buffer, written from upstream and drained by the local client
+    private byte[] ring;
+    private int readPos;
+    private int count;
+    private int prebufferBytes;
+    private boolean prebuffered;
+
+    //local client (MediaPlayer)
+    private SocketChannel client;
+    private final ByteBuffer request = ByteBuffer.allocate(MAX_HEADER);
+    private ByteBuffer responseHeader;
+
+    private volatile String contentType = "audio/mpeg";
+    private volatile String stationName;
+    private volatile String streamTitle;
+    private volatile boolean icy;
+    private volatile long bytesReceived;
+    private volatile int reconnects;
+    private volatile int underruns;
+    private volatile int buffered;
+
+    RadioStream(String url, int bufferMillis){
+        this.station = URI.create(url);
+        this.bufferMillis = bufferMillis;
+    }
+
+    //called on the relay thread with every new StreamTitle
+    void setTitleListener(Consumer<String> listener){ titleListener = listener; }
+
+    String getContentType(){ return contentType; }
+    String getStationName(){ return stationName; }
+    String getStreamTitle(){ return streamTitle; }
+    //true once the server answered like a station: an ICY status line or icy- headers
+    boolean isIcy(){ return icy; }
+    long getBytesReceived(){ return bytesReceived; }
+    int getReconnects(){ return reconnects; }
+    //times the buffer ran dry during a reconnect and playback waited for it to refill
+    int getUnderruns(){ return underruns; }
+    int getBufferedBytes(){ return buffered; }
+
+    //connects to the station and returns the local URL to play, blocks until the
+    //station answered so the content type is known
+    String start() throws IOException {
+        selector = Selector.open();
+        local = ServerSocketChannel.open();
+        local.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        local.configureBlocking(false);
+        local.register(selector, SelectionKey.OP_ACCEPT);
+        target = station;
+        connect();
+
+        thread = new Thread(this::run, "radio-stream");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            if(!started.await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)){
+                close();
+                throw new IOException("No answer from "+station);
+            }
+        } catch(InterruptedException e){
+            close();
+            throw new IOException("Interrupted while connecting to "+station, e);
+        }
+        if(startError != null){
+            close();
+            throw startError;
+        }
+        return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + local.socket().getLocalPort() + "/stream" + extension(contentType);
+    }
+
+    private static String extension(String type){
+        switch(type.toLowerCase(Locale.ROOT)){
+            case "audio/aac": case "audio/aacp": return ".aac";
+            case "audio/ogg": case "application/ogg": return ".ogg";
+            default: return ".mp3";
+        }
+    }
+
+    @Override
+    public void close(){
+        if(thread != null){
+            thread.interrupt();
+        }
+        closeQuietly(upstream);
+        closeQuietly(client);
+        closeQuietly(local);
+        if(selector != null){
+            try {
+                selector.close();
+            } catch(IOException e){
+                //nothing left to release
+            }
+        }
+    }
+
+    private void run(){
+        try {
+            while(!Thread.currentThread().isInterrupted()){
+                long timeout = 0;
+                long now = System.currentTimeMillis();
+                if(resolving || upstream != null){
+                    if(!isUpstreamPaused()){
+                        timeout = Math.max(1, lastUpstreamAt + upstreamTimeout() - now);
+                    }
+                } else {
+                    timeout = Math.max(1, reconnectAt - now);
+                }
+                selector.select(timeout);
+                now = System.currentTimeMillis();
+                final Resolved lookup = resolved.get();
+                if(lookup != null && resolved.compareAndSet(lookup, null)
+                        && resolving && lookup.attempt == attempt){
+                    openUpstream(lookup);
+                }
+                if(!resolving && upstream == null){
+                    if(now >= reconnectAt){
+                        reconnect();
+                    }
+                } else if(!isUpstreamPaused() && now - lastUpstreamAt >= upstreamTimeout()){
+                    resolving = false;
+                    upstreamFailed(new IOException(inBody
+                            ? "No data from the station for "+upstreamTimeout()+" ms"
+                            : "No answer from "+target+" within "+upstreamTimeout()+" ms"));
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while(it.hasNext()){
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if(!key.isValid()){
+                        continue;
+                    }
+                    if(key.isAcceptable()){
+                        acceptClient();
+                    } else if(key.channel() == upstream){
+                        if(key.isConnectable()){
+                            finishConnect();
+                        } else if(key.isReadable()){
+                            readUpstream();
+                        }
+                    } else if(key.channel() == client){
+                        if(key.isReadable()){
+                            readRequest();
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            writeClient();
+                        }
+                    }
+                }
+            }
+        } catch(IOException | ClosedSelectorException e){
+            //closed
+        } finally {
+            started.countDown();
+        }
+    }
+
+    //looks the host up on RESOLVER, openUpstream continues on the relay thread
+    private void connect() throws IOException {
+        if(!"http".equalsIgnoreCase(target.getScheme())){
+            throw new IOException("Only http streams can be relayed: "+target);
+        }
+        final String host = target.getHost();
+        if(host == null){
+            throw new IOException("No host in "+target);
+        }
+        closeQuietly(upstream);
+        upstream = null;
+        header.clear();
+        inBody = false;
+        metaLeft = -1;
+        resolving = true;
+        lastUpstreamAt = System.currentTimeMillis();
+        final long id = ++attempt;
+        final int port = target.getPort() < 0 ? 80 : target.getPort();
+        final Selector wakeup = selector;
+        RESOLVER.execute(() -> {
+            Resolved result;
+            try {
+                result = new Resolved(id, new InetSocketAddress(InetAddress.getByName(host), port),
+                        null);
+            } catch(IOException e){
+                result = new Resolved(id, null, e);
+            }
+            resolved.set(result);
+            wakeup.wakeup();
+        });
+    }
+
+    private void openUpstream(Resolved lookup){
+        resolving = false;
+        if(lookup.error != null){
+            upstreamFailed(lookup.error);
+            return;
+        }
+        try {
+            upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+            upstream.connect(lookup.address);
+            upstream.register(selector, SelectionKey.OP_CONNECT);
+        } catch(IOException e){
+            upstreamFailed(e);
+        }
+    }
+
+    //reading stopped because the buffer is full, the station is not late then
+    private boolean isUpstreamPaused(){
+        if(upstream == null){
+            return false;
+        }
+        final SelectionKey key = upstream.keyFor(selector);
+        return ring != null && key != null && key.isValid() && key.interestOps() == 0;
+    }
+
+    //the buffer covers a gap of bufferMillis, a longer one is a dropped station
+    private long upstreamTimeout(){
+        return inBody ? bufferMillis : CONNECT_TIMEOUT_MILLIS;
+    }
+
+    private void finishConnect(){
+        try {
+            upstream.finishConnect();
+            String path = target.getRawPath() == null || target.getRawPath().isEmpty()
+                    ? "/" : target.getRawPath();
+            if(target.getRawQuery() != null){
+                path += "?" + target.getRawQuery();
+            }
+            String get = "GET " + path + " HTTP/1.0\r\n"
+                    + "Host: " + target.getHost() + "\r\n"
+                    + "User-Agent: JavaFXRadio\r\n"
+                    + "Icy-MetaData: 1\r\n"
+                    + "Connection: close\r\n\r\n";
+            ByteBuffer out = ByteBuffer.wrap(get.getBytes(StandardCharsets.US_ASCII));
+            //a request this small fits the fresh socket buffer
+            while(out.hasRemaining()){
+                upstream.write(out);
+            }
+            upstream.register(selector, SelectionKey.OP_READ);
+        } catch(IOException e){
+            upstreamFailed(e);
+        }
+    }
+
+    private void readUpstream(){
+        //also while a reconnect reads its header: the ring keeps the unplayed audio of
+        //the last connection and the body may follow in the same read
+        if(ring != null && ring.length - count < net.capacity()){
+            //buffer full, the station waits in its socket until the player catches up
+            upstream.keyFor(selector).interestOps(0);
+            return;
+        }
+        int n;
+        try {
+            net.clear();
+            n = upstream.read(net);
+        } catch(IOException e){
+            upstreamFailed(e);
+            return;
+        }
+        if(n < 0){
+            upstreamFailed(new IOException("Station closed the connection"));
+            return;
+        }
+        net.flip();
+        bytesReceived += n;
+        if(n > 0){
+            lastUpstreamAt = System.currentTimeMillis();
+        }
+        if(!inBody){
+            while(net.hasRemaining() && !inBody){
+                if(!header.hasRemaining()){
+                    upstreamFailed(new IOException("Response header too long"));
+                    return;
+                }
+                header.put(net.get());
+                int p = header.position();
+                if(p >= 4 && header.get(p-4) == '\r' && header.get(p-3) == '\n'
+                        && header.get(p-2) == '\r' && header.get(p-1) == '\n'){
+                    if(!parseHeader(new String(header.array(), 0, p,
+                            StandardCharsets.ISO_8859_1))){
+                        return;
+                    }
+                }
+            }
+        }
+        while(net.hasRemaining()){
+            if(metaInterval > 0 && audioLeft == 0){
+                readMetadata();
+            } else {
+                int len = net.remaining();
+                if(metaInterval > 0){
+                    len = Math.min(len, audioLeft);
+                    audioLeft -= len;
+                }
+                write(net, len);
+            }
+        }
+    }
+
+    //returns false if the connection was replaced (redirect or error)
+    private boolean parseHeader(String text){
+        String[] lines = text.split("\r\n");
+        String[] status = lines[0].split(" ");
+        int code = status.length > 1 ? parseInt(status[1], 0) : 0;
+        String location = null;
+        int kbps = DEFAULT_KBPS;
+        metaInterval = 0;
+        boolean station = status[0].startsWith("ICY");
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if(colon <= 0){
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = lines[i].substring(colon + 1).trim();
+            station |= name.startsWith("icy-");
+            switch(name){
+                case "icy-metaint": metaInterval = parseInt(value, 0); break;
+                case "icy-br": kbps = parseInt(value.split(",")[0], DEFAULT_KBPS); break;
+                case "icy-name": stationName = value; break;
+                case "content-type": contentType = value.split(";")[0].trim(); break;
+                case "location": location = value; break;
+            }
+        }
+        if(code >= 300 && code < 400 && location != null && redirects < MAX_REDIRECTS){
+            ++redirects;
+            closeQuietly(upstream);
+            target = target.resolve(location);
+            try {
+                connect();
+            } catch(IOException e){
+                upstreamFailed(e);
+            }
+            return false;
+        }
+        if(code != 200){
+            upstreamFailed(new IOException("Station answered: "+lines[0]));
+            return false;
+        }
+        icy = station;
+        inBody = true;
+        redirects = 0;
+        backoff = MIN_BACKOFF_MILLIS;
+        audioLeft = metaInterval;
+        if(ring == null){
+            int bytesPerSecond = kbps * 1000 / 8;
+            prebufferBytes = Math.max(4096, (int)((long)bytesPerSecond * bufferMillis / 1000));
+            ring = new byte[Math.max(64 * 1024, prebufferBytes * 2)];
+        }
+        started.countDown();
+        return true;
+    }
+
+    //length byte, then length*16 bytes of StreamTitle='...';StreamUrl='...';
+    private void readMetadata(){
+        if(metaLeft < 0){
+            metaLeft = (net.get() & 0xff) * 16;
+            meta.clear();
+        }
+        int len = Math.min(metaLeft, net.remaining());
+        for (int i = 0; i < len; i++) {
+            meta.put(net.get());
+        }
+        metaLeft -= len;
+        if(metaLeft == 0){
+            metaLeft = -1;
+            audioLeft = metaInterval;
+            String title = parseStreamTitle(new String(meta.array(), 0, meta.position(),
+                    StandardCharsets.UTF_8));
+            if(title != null && !title.equals(streamTitle)){
+                streamTitle = title;
+                Consumer<String> l = titleListener;
+                if(l != null){
+                    l.accept(title);
+                }
+            }
+        }
+    }
+
+    static String parseStreamTitle(String metadata){
+        final String key = "StreamTitle='";
+        int start = metadata.indexOf(key);
+        if(start < 0){
+            return null;
+        }
+        start += key.length();
+        int end = metadata.indexOf("';", start);
+        if(end < 0){
+            end = metadata.lastIndexOf('\'');
+        }
+        return end < start ? null : metadata.substring(start, end).trim();
+    }
+
+    private void write(ByteBuffer src, int len){
+        int writePos = (readPos + count) % ring.length;
+        while(len > 0){
+            int chunk = Math.min(len, ring.length - writePos);
+            src.get(ring, writePos, chunk);
+            writePos = (writePos + chunk) % ring.length;
+            count += chunk;
+            len -= chunk;
+        }
+        buffered = count;
+        if(!prebuffered && count >= prebufferBytes){
+            prebuffered = true;
+        }
+        wantWrite();
+    }
+
+    private void upstreamFailed(IOException e){
+        closeQuietly(upstream);
+        upstream = null;
+        if(started.getCount() > 0 && ring == null){
+            //never got audio, report it to start() instead of retrying forever
+            startError = e;
+            started.countDown();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        System.out.println("Radio stream interrupted, reconnecting: "+e.getMessage());
+        inBody = false;
+        if(count == 0){
+            bufferRanDry();
+        }
+        reconnectAt = System.currentTimeMillis() + backoff;
+        backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+    }
+
+    //the player used up the buffer while the station was away, the next audio is
+    //held back until a full prebuffer arrived instead of playing in stutters
+    private void bufferRanDry(){
+        if(prebuffered){
+            prebuffered = false;
+            ++underruns;
+        }
+    }
+
+    private void reconnect(){
+        ++reconnects;
+        target = station;
+        try {
+            connect();
+        } catch(IOException e){
+            upstreamFailed(e);
+        }
+    }
+
+    private void acceptClient() throws IOException {
+        SocketChannel accepted = local.accept();
+        if(accepted == null){
+            return;
+        }
+        //MediaPlayer may reconnect, the newest connection gets the stream
+        closeQuietly(client);
+        client = accepted;
+        client.configureBlocking(false);
+        client.register(selector, SelectionKey.OP_READ);
+        request.clear();
+        responseHeader = null;
+    }
+
+    private void readRequest(){
+        int n;
+        try {
+            n = client.read(request);
+        } catch(IOException e){
+            n = -1;
+        }
+        if(n < 0 || !request.hasRemaining()){
+            closeQuietly(client);
+            client = null;
+            return;
+        }
+        int p = request.position();
+        if(responseHeader == null && p >= 4 && request.get(p-4) == '\r'
+                && request.get(p-3) == '\n' && request.get(p-2) == '\r'
+                && request.get(p-1) == '\n'){
+            responseHeader = ByteBuffer.wrap(("HTTP/1.0 200 OK\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Cache-Control: no-cache\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            wantWrite();
+        }
+    }
+
+    private void wantWrite(){
+        if(client != null && responseHeader != null){
+            SelectionKey key = client.keyFor(selector);
+            if(key != null && key.isValid()){
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void writeClient(){
+        try {
+            if(responseHeader.hasRemaining()){
+                client.write(responseHeader);
+                if(responseHeader.hasRemaining()){
+                    return;
+                }
+            }
+            if(!prebuffered){
+                client.keyFor(selector).interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            while(count > 0){
+                int chunk = Math.min(count, ring.length - readPos);
+                int n = client.write(ByteBuffer.wrap(ring, readPos, chunk));
+                readPos = (readPos + n) % ring.length;
+                count -= n;
+                if(n < chunk){
+                    break;
+                }
+            }
+            buffered = count;
+            if(count == 0){
+                client.keyFor(selector).interestOps(SelectionKey.OP_READ);
+                if(upstream == null || !inBody){
+                    bufferRanDry();
+                }
+            }
+            //room again for the station
+            if(upstream != null && upstream.keyFor(selector) != null
+                    && upstream.keyFor(selector).interestOps() == 0
+                    && ring.length - count >= net.capacity()){
+                upstream.keyFor(selector).interestOps(SelectionKey.OP_READ);
+                lastUpstreamAt = System.currentTimeMillis();
+            }
+        } catch(IOException e){
+            closeQuietly(client);
+            client = null;
+        }
+    }
+
+    private static int parseInt(String s, int fallback){
+        try {
+            return Integer.parseInt(s.trim());
+        } catch(NumberFormatException e){
+            return fallback;
+        }
+    }
+
+    private static void closeQuietly(Closeable c){
+        if(c != null){
+            try {
+                c.close();
+            } catch(IOException e){
+                //nothing left to release
+            }
+        }
+    }
+}
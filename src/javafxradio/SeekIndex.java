@@ -0,0 +1,456 @@
+package javafxradio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//time to byte offset table of an MP3 file, taken from its Xing or VBRI table of
+//contents or, when it has none, from one pass over the frame headers. Backends seek
+//in such files as if the bitrate was constant; for VBR files without a table the
+//index maps between real time and the time the backend works with.
+final class SeekIndex {
+    private static final int MAGIC = 0x4A465349;
+    private static final int VERSION = 1;
+    //a point about every half second is finer than anyone can scrub
+    private static final double SCAN_STEP_SECONDS = 0.5;
+    private static final int SCAN_BUFFER = 1024 * 1024;
+
+    enum Source { XING, VBRI, SCAN }
+
+    private static final int[][] BITRATES = {
+        //MPEG 1 layer I, II, III
+        {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+        {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+        //MPEG 2 and 2.5 layer I, II and III
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+        {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final Source source;
+    private final boolean variableBitrate;
+    private final long audioStart;
+    private final long audioEnd;
+    //ascending seconds and the offset of the frame that starts there
+    private final double[] seconds;
+    private final long[] offsets;
+
+    private SeekIndex(Source source, boolean variableBitrate, long audioStart, long audioEnd,
+            double[] seconds, long[] offsets){
+        this.source = source;
+        this.variableBitrate = variableBitrate;
+        this.audioStart = audioStart;
+        this.audioEnd = audioEnd;
+        this.seconds = seconds;
+        this.offsets = offsets;
+    }
+
+    Source getSource(){ return source; }
+    boolean isVariableBitrate(){ return variableBitrate; }
+    int getPointCount(){ return seconds.length; }
+    double getDurationSeconds(){ return seconds[seconds.length - 1]; }
+
+    //the backend places VBR frames by byte position unless a table tells it better
+    boolean needsCorrection(){
+        return variableBitrate && source == Source.SCAN;
+    }
+
+    //byte offset of the audio at time t
+    long offsetAt(double t){
+        return Math.round(interpolate(seconds, offsets, t));
+    }
+
+    //time of the audio at a byte offset
+    double timeAt(long offset){
+        return interpolate(offsets, seconds, offset);
+    }
+
+    //time a constant bitrate backend has to seek to so that real time t is played
+    double toBackend(double t, double backendDuration){
+        final double fraction = (offsetAt(t) - audioStart) / (double)(audioEnd - audioStart);
+        return fraction * backendDuration;
+    }
+
+    //real time of a position the backend reports
+    double fromBackend(double t, double backendDuration){
+        final double fraction = backendDuration <= 0 ? 0 : t / backendDuration;
+        return timeAt(audioStart + Math.round(fraction * (audioEnd - audioStart)));
+    }
+
+    private static double interpolate(double[] from, long[] to, double x){
+        int i = Arrays.binarySearch(from, x);
+        if(i >= 0){
+            return to[i];
+        }
+        i = -i - 1;
+        if(i == 0){
+            return to[0];
+        }
+        if(i == from.length){
+            return to[to.length - 1];
+        }
+        final double f = (x - from[i - 1]) / (from[i] - from[i - 1]);
+        return to[i - 1] + f * (to[i] - to[i - 1]);
+    }
+
+    private static double interpolate(long[] from, double[] to, long x){
+        int i = Arrays.binarySearch(from, x);
+        if(i >= 0){
+            return to[i];
+        }
+        i = -i - 1;
+        if(i == 0){
+            return to[0];
+        }
+        if(i == from.length){
+            return to[to.length - 1];
+        }
+        final double f = (double)(x - from[i - 1]) / (from[i] - from[i - 1]);
+        return to[i - 1] + f * (to[i] - to[i - 1]);
+    }
+
+    //one frame header
+    private static final class Frame {
+        int version;
+        int layer;
+        int bitrate;
+        int sampleRate;
+        int samples;
+        int length;
+        boolean mono;
+
+        //false if the four bytes are not a valid header
+        boolean parse(int header){
+            if((header & 0xFFE00000) != 0xFFE00000){
+                return false;
+            }
+            version = (header >>> 19) & 3;
+            layer = 4 - ((header >>> 17) & 3);
+            final int bitrateIndex = (header >>> 12) & 15;
+            final int rateIndex = (header >>> 10) & 3;
+            if(version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15
+                    || rateIndex == 3){
+                return false;
+            }
+            final boolean mpeg1 = version == 3;
+            bitrate = BITRATES[mpeg1 ? layer - 1 : (layer == 1 ? 3 : 4)][bitrateIndex] * 1000;
+            sampleRate = SAMPLE_RATES[rateIndex] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+            final int padding = (header >>> 9) & 1;
+            mono = ((header >>> 6) & 3) == 3;
+            if(layer == 1){
+                samples = 384;
+                length = (12 * bitrate / sampleRate + padding) * 4;
+            } else {
+                samples = layer == 3 && !mpeg1 ? 576 : 1152;
+                length = samples / 8 * bitrate / sampleRate + padding;
+            }
+            return true;
+        }
+    }
+
+    //builds the index of an MP3 file, reading headers and tables only
+    static SeekIndex build(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            final long size = channel.size();
+            long start = id3v2Size(channel);
+            long end = size;
+            if(size >= 128 && "TAG".equals(ascii(channel, size - 128, 3))){
+                end -= 128;
+            }
+
+            final Frame frame = new Frame();
+            start = sync(channel, start, end, frame);
+            if(start < 0){
+                throw new IOException("No MPEG audio frame in "+file);
+            }
+            final ByteBuffer first = ByteBuffer.allocate(frame.length);
+            readAt(channel, first, start);
+
+            final SeekIndex fromTable = fromTable(first, frame, start, end);
+            if(fromTable != null){
+                return fromTable;
+            }
+            return scan(channel, frame, start, end);
+        }
+    }
+
+    //duration from the first frame alone: its Xing or VBRI table, or the bitrate of a
+    //file without one. Audio lies between start and end; -1 if there is no frame.
+    static double headerDuration(FileChannel channel, long start, long end) throws IOException {
+        final Frame frame = new Frame();
+        start = sync(channel, start, end, frame);
+        if(start < 0){
+            return -1;
+        }
+        final ByteBuffer first = ByteBuffer.allocate(frame.length);
+        readAt(channel, first, start);
+        final SeekIndex fromTable = fromTable(first, frame, start, end);
+        if(fromTable != null){
+            return fromTable.getDurationSeconds();
+        }
+        return (end - start) * 8.0 / frame.bitrate;
+    }
+
+    private static SeekIndex fromTable(ByteBuffer first, Frame frame, long start, long end){
+        final int xing = 4 + (frame.version == 3 ? (frame.mono ? 17 : 32) : (frame.mono ? 9 : 17));
+        if(first.limit() >= xing + 8){
+            final String tag = ascii(first, xing, 4);
+            if(tag.equals("Xing") || tag.equals("Info")){
+                return fromXing(first, xing, frame, start, end, tag.equals("Xing"));
+            }
+        }
+        if(first.limit() >= 36 + 26 && ascii(first, 36, 4).equals("VBRI")){
+            return fromVbri(first, frame, start);
+        }
+        return null;
+    }
+
+    //Xing: 100 byte positions in 1/256 of the stream, one per percent of the duration
+    private static SeekIndex fromXing(ByteBuffer first, int at, Frame frame, long start,
+            long end, boolean vbr){
+        final int flags = first.getInt(at + 4);
+        int p = at + 8;
+        long frames = -1;
+        long bytes = end - start;
+        if((flags & 1) != 0){
+            frames = first.getInt(p) & 0xFFFFFFFFL;
+            p += 4;
+        }
+        if((flags & 2) != 0){
+            bytes = first.getInt(p) & 0xFFFFFFFFL;
+            p += 4;
+        }
+        if(frames <= 0 || (flags & 4) == 0 || first.limit() < p + 100){
+            return null;
+        }
+        //the tag frame itself holds no audio
+        final long audioStart = start + frame.length;
+        final double duration = frames * frame.samples / (double)frame.sampleRate;
+        final double[] seconds = new double[101];
+        final long[] offsets = new long[101];
+        long previous = audioStart;
+        for (int i = 0; i < 100; i++) {
+            seconds[i] = duration * i / 100;
+            offsets[i] = Math.max(previous, start + (first.get(p + i) & 0xFF) * bytes / 256);
+            previous = offsets[i];
+        }
+        offsets[0] = audioStart;
+        seconds[100] = duration;
+        offsets[100] = Math.max(previous + 1, Math.min(end, start + bytes));
+        return new SeekIndex(Source.XING, vbr, audioStart, offsets[100], seconds, offsets);
+    }
+
+    //VBRI: byte sizes of equal runs of frames
+    private static SeekIndex fromVbri(ByteBuffer first, Frame frame, long start){
+        final long bytes = first.getInt(36 + 10) & 0xFFFFFFFFL;
+        final long frames = first.getInt(36 + 14) & 0xFFFFFFFFL;
+        final int entries = first.getShort(36 + 18) & 0xFFFF;
+        final int scale = first.getShort(36 + 20) & 0xFFFF;
+        final int entrySize = first.getShort(36 + 22) & 0xFFFF;
+        final int framesPerEntry = first.getShort(36 + 24) & 0xFFFF;
+        final int table = 36 + 26;
+        if(frames == 0 || entries == 0 || entrySize < 1 || entrySize > 4
+                || first.limit() < table + entries * entrySize){
+            //a table that does not fit the first frame is read by the scan instead
+            return null;
+        }
+        final long audioStart = start + frame.length;
+        final double frameSeconds = frame.samples / (double)frame.sampleRate;
+        final double[] seconds = new double[entries + 1];
+        final long[] offsets = new long[entries + 1];
+        offsets[0] = audioStart;
+        for (int i = 0; i < entries; i++) {
+            long value = 0;
+            for (int b = 0; b < entrySize; b++) {
+                value = (value << 8) | (first.get(table + i * entrySize + b) & 0xFF);
+            }
+            offsets[i + 1] = offsets[i] + Math.max(1, value * scale);
+            seconds[i + 1] = Math.min(frames, (long)(i + 1) * framesPerEntry) * frameSeconds;
+        }
+        return new SeekIndex(Source.VBRI, true, audioStart,
+                Math.max(offsets[entries], start + bytes), seconds, offsets);
+    }
+
+    //walks every frame header, keeping one point per SCAN_STEP_SECONDS
+    private static SeekIndex scan(FileChannel channel, Frame frame, long start, long end)
+            throws IOException {
+        int capacity = 1024;
+        double[] seconds = new double[capacity];
+        long[] offsets = new long[capacity];
+        int count = 0;
+        double time = 0;
+        double nextPoint = 0;
+        int firstBitrate = frame.bitrate;
+        boolean vbr = false;
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER);
+        long bufferStart = start;
+        buffer.limit(0);
+        long pos = start;
+        while(pos + 4 <= end){
+            if(pos + 4 > bufferStart + buffer.limit()){
+                bufferStart = pos;
+                buffer.clear();
+                buffer.limit((int)Math.min(SCAN_BUFFER, end - pos));
+                readAt(channel, buffer, pos);
+                if(buffer.limit() < 4){
+                    break;
+                }
+            }
+            if(!frame.parse(buffer.getInt((int)(pos - bufferStart)))){
+                //garbage between frames, look for the next header
+                final long next = sync(channel, pos + 1, end, frame);
+                if(next < 0){
+                    break;
+                }
+                pos = next;
+                continue;
+            }
+            if(time >= nextPoint){
+                if(count == capacity){
+                    capacity *= 2;
+                    seconds = Arrays.copyOf(seconds, capacity);
+                    offsets = Arrays.copyOf(offsets, capacity);
+                }
+                seconds[count] = time;
+                offsets[count] = pos;
+                ++count;
+                nextPoint += SCAN_STEP_SECONDS;
+            }
+            vbr |= frame.bitrate != firstBitrate;
+            time += frame.samples / (double)frame.sampleRate;
+            pos += frame.length;
+        }
+        final long audioEnd = Math.min(pos, end);
+        if(count == capacity){
+            seconds = Arrays.copyOf(seconds, capacity + 1);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+        }
+        seconds[count] = time;
+        offsets[count] = Math.max(audioEnd, offsets[count - 1] + 1);
+        ++count;
+        return new SeekIndex(Source.SCAN, vbr, start, audioEnd,
+                Arrays.copyOf(seconds, count), Arrays.copyOf(offsets, count));
+    }
+
+    //offset of the first header at or after from that is followed by another one
+    private static long sync(FileChannel channel, long from, long end, Frame frame)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        final ByteBuffer next = ByteBuffer.allocate(4);
+        long base = from;
+        while(base + 4 <= end){
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), end - base));
+            readAt(channel, buffer, base);
+            for (int i = 0; i + 4 <= buffer.limit(); i++) {
+                if((buffer.get(i) & 0xFF) != 0xFF || !frame.parse(buffer.getInt(i))){
+                    continue;
+                }
+                final long candidate = base + i;
+                if(candidate + frame.length + 4 > end){
+                    return candidate;
+                }
+                next.clear();
+                readAt(channel, next, candidate + frame.length);
+                final boolean followed = next.limit() == 4 && frame.parse(next.getInt(0));
+                //leave the candidate's header in frame
+                frame.parse(buffer.getInt(i));
+                if(followed){
+                    return candidate;
+                }
+            }
+            base += Math.max(1, buffer.limit() - 3);
+        }
+        return -1;
+    }
+
+    private static long id3v2Size(FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(10);
+        readAt(channel, header, 0);
+        if(header.limit() < 10 || !ascii(header, 0, 3).equals("ID3")){
+            return 0;
+        }
+        final int size = (header.get(6) & 0x7F) << 21 | (header.get(7) & 0x7F) << 14
+                | (header.get(8) & 0x7F) << 7 | (header.get(9) & 0x7F);
+        final boolean footer = (header.get(5) & 0x10) != 0;
+        return 10 + size + (footer ? 10 : 0);
+    }
+
+    private static String ascii(FileChannel channel, long position, int length)
+            throws IOException {
+        final ByteBuffer b = ByteBuffer.allocate(length);
+        readAt(channel, b, position);
+        return b.limit() < length ? "" : ascii(b, 0, length);
+    }
+
+    private static String ascii(ByteBuffer b, int at, int length){
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char)(b.get(at + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static void readAt(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while(buffer.hasRemaining()){
+            int n = channel.read(buffer, position + buffer.position());
+            if(n < 0){
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    void write(Path file) throws IOException {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tmp)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(source.name());
+            out.writeBoolean(variableBitrate);
+            out.writeLong(audioStart);
+            out.writeLong(audioEnd);
+            out.writeInt(seconds.length);
+            for (int i = 0; i < seconds.length; i++) {
+                out.writeDouble(seconds[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static SeekIndex read(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(
+                new GZIPInputStream(Files.newInputStream(file)))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("Not a seek index: "+file);
+            }
+            final Source source = Source.valueOf(in.readUTF());
+            final boolean vbr = in.readBoolean();
+            final long audioStart = in.readLong();
+            final long audioEnd = in.readLong();
+            final int count = in.readInt();
+            final double[] seconds = new double[count];
+            final long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                seconds[i] = in.readDouble();
+                offsets[i] = in.readLong();
+            }
+            return new SeekIndex(source, vbr, audioStart, audioEnd, seconds, offsets);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//finds or builds the seek index of a local MP3, keyed like the waveform peaks
+final class SeekIndexStore {
+    private final Path dir;
+    private final ExecutorService executor;
+    //one scan per key even if several views ask at once
+    private final Map<String, CompletableFuture<SeekIndex>> pending = new ConcurrentHashMap<>();
+
+    SeekIndexStore(Path dir){
+        this.dir = dir;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "seek-index");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    static boolean isIndexable(String url){
+        final String lower = url.toLowerCase(Locale.ROOT);
+        return lower.startsWith("file:") && lower.endsWith(".mp3");
+    }
+
+    //completes with the index of a file: URL, or exceptionally if it is no MPEG audio
+    CompletableFuture<SeekIndex> get(String url){
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Paths.get(new URI(url));
+            } catch(Exception e){
+                throw new IllegalArgumentException("Not a local file: "+url, e);
+            }
+        }).thenCompose(file -> {
+            final String key;
+            try {
+                key = WaveformStore.contentKey(file);
+                final Path indexFile = dir.resolve(key + ".seek");
+                if(Files.exists(indexFile)){
+                    return CompletableFuture.completedFuture(SeekIndex.read(indexFile));
+                }
+            } catch(IOException e){
+                final CompletableFuture<SeekIndex> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            return pending.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    final SeekIndex index = SeekIndex.build(file);
+                    Files.createDirectories(dir);
+                    index.write(dir.resolve(k + ".seek"));
+                    return index;
+                } catch(IOException e){
+                    throw new IllegalStateException("Seek index failed for "+url, e);
+                } finally {
+                    pending.remove(k);
+                }
+            }, executor));
+        });
+    }
+}
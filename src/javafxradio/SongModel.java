@@ -1,122 +1,1019 @@
 package javafxradio;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.scene.image.Image; //!!!NOT awt.image!!!
 import javafx.collections.MapChangeListener;
+import javafx.collections.ObservableMap;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
 
 public final class SongModel {
-    private static final String DEFAULT_IMG_URL = 
-            SongModel.class.getResource("resources/defaultAlbum.png").toString();
-    private static final Image DEFAULT_ALBUM_COVER =
-            new Image(DEFAULT_IMG_URL);
-    
-    private final StringProperty album =
-            new SimpleStringProperty(this, "album");
-    private final StringProperty artist =
-            new SimpleStringProperty(this, "artist");
-    private final StringProperty year =
-            new SimpleStringProperty(this, "year");
-    private final StringProperty title =
-            new SimpleStringProperty(this, "title");
-    
-    private final ObjectProperty<Image> albumCover =
-            new SimpleObjectProperty<>(this, "albumCover");
+    //created with the first model and decoded in the background, not on class load
+    private static final class DefaultCover {
+        static final Image IMAGE = new Image(
+                SongModel.class.getResource("resources/defaultAlbum.png").toString(), true);
+    }
+    //MetadataView shows covers at this width, nothing larger is kept
+    static final int ALBUM_COVER_SIZE = 240;
+    private static final long ALBUM_ART_BUDGET = 32L * 1024 * 1024;
+    
+    //the current track as one snapshot, the volatile copy is for readers off the FX thread.
+    //The string and cover properties follow it and are set after the snapshot was swapped.
+    private volatile TrackInfo currentTrack;
+    private final ReadOnlyObjectWrapper<TrackInfo> trackInfo =
+            new ReadOnlyObjectWrapper<>(this, "trackInfo");
+    private final ReadOnlyStringWrapper album =
+            new ReadOnlyStringWrapper(this, "album");
+    private final ReadOnlyStringWrapper artist =
+            new ReadOnlyStringWrapper(this, "artist");
+    private final ReadOnlyStringWrapper year =
+            new ReadOnlyStringWrapper(this, "year");
+    private final ReadOnlyStringWrapper title =
+            new ReadOnlyStringWrapper(this, "title");
+    private final ReadOnlyObjectWrapper<Image> albumCover =
+            new ReadOnlyObjectWrapper<>(this, "albumCover");
+    //Media adds its metadata one entry at a time, the entries of a pulse make one snapshot
+    private boolean metadataPending;
+    private boolean coverPending;
    
     private final ReadOnlyObjectWrapper<MediaPlayer> mediaPlayer =
             new ReadOnlyObjectWrapper<>(this, "mediaPlayer");
     
+    //gapless mode: the next track is prerolled before the current one ends
+    private final BooleanProperty gapless =
+            new SimpleBooleanProperty(this, "gapless");
+    private final ObjectProperty<Duration> prerollLead =
+            new SimpleObjectProperty<>(this, "prerollLead", Duration.seconds(5));
+    //time from end of media until the next player reported PLAYING
+    private final ReadOnlyDoubleWrapper lastTransitionGap =
+            new ReadOnlyDoubleWrapper(this, "lastTransitionGap", Double.NaN);
+    private String nextURL;
+    private MediaPlayer prerolled;
+    //tags of the prerolled track, read on LOADER with it
+    private TagReader.Tags prerolledTags;
+    //preroll being built on LOADER, cancelled when the next track changes
+    private CompletableFuture<MediaPlayer> pendingPreroll;
+    private final InvalidationListener prerollTrigger = observable -> checkPreroll();
+    
+    private final PlayQueue queue = new PlayQueue();
+    
+    //Media and MediaPlayer construction can block on slow disks and remote URLs
+    private static final ExecutorService LOADER = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "media-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private CompletableFuture<MediaPlayer> pendingLoad;
+    //time from setURLAsync until the player was READY and published
+    private final ReadOnlyDoubleWrapper lastLoadLatency =
+            new ReadOnlyDoubleWrapper(this, "lastLoadLatency", Double.NaN);
+    private long loadsStarted;
+    private long loadsCompleted;
+    private long loadsCancelled;
+    
+    private final AlbumArtCache albumArtCache;
+    //incremented on every load so late covers of a previous song are dropped
+    private int coverGeneration;
+    
+    //every player is created and disposed through this
+    private final PlayerLifecycle players;
+    
+    //tracks accepted by the selector play through the PCM engine instead of MediaPlayer,
+    //mediaPlayerProperty then keeps the last (stopped) MediaPlayer
+    static final int DEFAULT_PCM_BUFFER_MILLIS = 100;
+    private Predicate<String> pcmEngineSelector = url -> false;
+    private PcmSink pcmSink;
+    private PcmPlayer pcmPlayer;
+    private boolean pcmActive;
+    //state of the PCM engine while it holds the current track, null otherwise
+    private final ReadOnlyObjectWrapper<PcmPlayer.State> pcmState =
+            new ReadOnlyObjectWrapper<>(this, "pcmState");
+    //runs on the PCM engine's decoder thread, MediaPlayer keeps its AudioEqualizer
+    private final ParametricEqualizer equalizer = new ParametricEqualizer();
+    
+    //internet radio is relayed through a RadioStream, which strips ICY metadata,
+    //buffers jitter and reconnects without MediaPlayer noticing
+    private static final Predicate<String> DEFAULT_STREAM_SELECTOR = SongModel::isRadioURL;
+    private Predicate<String> streamSelector = DEFAULT_STREAM_SELECTOR;
+    private int streamBufferMillis = RadioStream.DEFAULT_BUFFER_MILLIS;
+    private final Map<MediaPlayer, RadioStream> streams =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+    
+    //remote audio files play through a MediaCache, so replays and seeks are read from disk
+    static final long DEFAULT_MEDIA_CACHE_QUOTA = 1024L * 1024 * 1024;
+    private static final Path MEDIA_CACHE_DIR = Paths.get(System.getProperty("user.home"),
+            ".javafxradio", "media");
+    private MediaCache mediaCache = new MediaCache(MEDIA_CACHE_DIR, DEFAULT_MEDIA_CACHE_QUOTA);
+    
+    //loudness normalization: players run at volume times the gain of the current track
+    public enum Normalization { OFF, TRACK, ALBUM }
+    private final DoubleProperty volume =
+            new SimpleDoubleProperty(this, "volume", 0.5);
+    private final ObjectProperty<Normalization> normalization =
+            new SimpleObjectProperty<>(this, "normalization", Normalization.TRACK);
+    //gain in dB applied to the current track, 0 when it was not analyzed
+    private final ReadOnlyDoubleWrapper trackGain =
+            new ReadOnlyDoubleWrapper(this, "trackGain");
+    private LoudnessStore loudnessStore;
+    private Path loudnessFile;
+    private double targetLoudness = LoudnessStore.DEFAULT_TARGET_LUFS;
+    //the folder of a local track is measured the first time one of its files plays,
+    //one folder at a time and on half the cores, so playback keeps the rest
+    private static final Path LOUDNESS_FILE = Paths.get(System.getProperty("user.home"),
+            ".javafxradio", "loudness.bin");
+    private static final ExecutorService LOUDNESS = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "loudness-scan");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ForkJoinPool LOUDNESS_POOL = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    //folders queued or being measured, so replays do not queue them again
+    private final Set<Path> loudnessFolders = ConcurrentHashMap.newKeySet();
+    //incremented on every gain update so late lookups of a previous track are dropped
+    private int gainGeneration;
+    private String gainSource;
+    
     public SongModel(){
-        resetProperties();
+        this(new AlbumArtCache(ALBUM_COVER_SIZE, ALBUM_ART_BUDGET, null),
+                new PlayerLifecycle(0));
+    }
+    
+    public SongModel(AlbumArtCache albumArtCache, PlayerLifecycle players){
+        this.albumArtCache = albumArtCache;
+        this.players = players;
+        normalization.addListener(observable -> updateTrackGain());
+        //a preroll is only kept in gapless mode, end of media would otherwise swap to it
+        gapless.addListener(observable -> {
+            if(isGapless()){
+                checkPreroll();
+            } else {
+                discardPreroll();
+            }
+        });
+        PlaybackMetrics.setLivePlayers(players::getLivePlayers);
+        PlaybackMetrics.setMediaCache(mediaCache);
+        PlaybackMetrics.setAlbumArtCache(albumArtCache);
+        setTrackInfo(startTrack(null));
+        final LoudnessStore store = new LoudnessStore();
+        //queued first, the scans of LOUDNESS then see what earlier runs measured
+        LOUDNESS.execute(() -> {
+            try {
+                store.load(LOUDNESS_FILE);
+            }catch(IOException e){
+                System.out.println("Loudness store error: "+e);
+            }
+        });
+        loudnessStore = store;
+        loudnessFile = LOUDNESS_FILE;
+    }
+    
+    //stops the current song at once and loads url like setURLAsync, Media is never
+    //built on the FX thread
+    public CompletableFuture<MediaPlayer> setURL(String url){
+        final MediaPlayer old = mediaPlayer.get();
+        if(old != null){
+            old.stop();
+        }
+        return setURLAsync(url);
+    }
+    
+    //builds the player on a background thread and publishes it once it is READY,
+    //a newer setURL or setURLAsync cancels this load. Call on the FX thread.
+    public CompletableFuture<MediaPlayer> setURLAsync(String url){
+        cancelPendingLoad();
+        if(usePcmEngine(url)){
+            return CompletableFuture.completedFuture(mediaPlayer.get());
+        }
+        
+        final long requested = System.nanoTime();
+        final CompletableFuture<MediaPlayer> result = new CompletableFuture<>();
+        pendingLoad = result;
+        ++loadsStarted;
+        
+        LOADER.execute(() -> {
+            if(result.isCancelled()){
+                return;
+            }
+            //tags come from the file header, so they are in the first snapshot of the track
+            final TagReader.Tags tags = readTags(url);
+            final MediaPlayer player;
+            try {
+                player = createPlayer(url);
+            }catch(RuntimeException e){
+                System.out.println("Construction error: "+e);
+                result.completeExceptionally(e);
+                return;
+            }
+            //a cancelled load never reaches the model, its native player is released
+            result.whenComplete((p, e) -> {
+                if(result.isCancelled()){
+                    PlaybackMetrics.runLater(() -> players.release(player));
+                }
+            });
+            PlaybackMetrics.runLater(() -> whenReady(player, result, () -> {
+                final MediaPlayer old = mediaPlayer.get();
+                discardPreroll();
+                publish(player, startTrack(tags));
+                releaseIfReplaced(old);
+                
+                pendingLoad = null;
+                ++loadsCompleted;
+                lastLoadLatency.set((System.nanoTime() - requested) / 1e6);
+                PlaybackMetrics.mediaOpened(url, System.nanoTime() - requested);
+                result.complete(player);
+            }));
+        });
+        return result;
+    }
+    
+    private void whenReady(MediaPlayer player, CompletableFuture<MediaPlayer> result,
+            Runnable action){
+        if(result.isCancelled()){
+            return;
+        }
+        if(isReady(player.getStatus())){
+            action.run();
+        } else if(player.getStatus() == MediaPlayer.Status.HALTED){
+            final RuntimeException error = player.getError();
+            players.release(player);
+            result.completeExceptionally(error != null ? error
+                    : new IllegalStateException("MediaPlayer halted"));
+        } else {
+            player.statusProperty().addListener(new InvalidationListener(){
+                @Override
+                public void invalidated(Observable observable) {
+                    final MediaPlayer.Status s = player.getStatus();
+                    if(isReady(s) || s == MediaPlayer.Status.HALTED){
+                        player.statusProperty().removeListener(this);
+                        whenReady(player, result, action);
+                    }
+                }
+            });
+        }
+    }
+    
+    //a player taken from the pool is already past READY
+    private static boolean isReady(MediaPlayer.Status status){
+        return status == MediaPlayer.Status.READY || status == MediaPlayer.Status.PAUSED
+                || status == MediaPlayer.Status.STOPPED;
+    }
+    
+    private void cancelPendingLoad(){
+        if(pendingLoad != null){
+            if(pendingLoad.cancel(false)){
+                ++loadsCancelled;
+            }
+            pendingLoad = null;
+        }
+    }
+    
+    public double getLastLoadLatency(){ return lastLoadLatency.get(); }
+    public ReadOnlyDoubleProperty lastLoadLatencyProperty(){
+        return lastLoadLatency.getReadOnlyProperty();
+    }
+    long getLoadsStarted(){ return loadsStarted; }
+    long getLoadsCompleted(){ return loadsCompleted; }
+    long getLoadsCancelled(){ return loadsCancelled; }
+    
+    //starts whichever engine holds the current track
+    public void play(){
+        if(pcmActive){
+            pcmPlayer.play();
+            updatePcmState();
+        } else if(mediaPlayer.get() != null){
+            mediaPlayer.get().play();
+        }
+    }
+    
+    public void pause(){
+        if(pcmActive){
+            pcmPlayer.pause();
+            updatePcmState();
+        } else if(mediaPlayer.get() != null){
+            mediaPlayer.get().pause();
+        }
+    }
+    
+    public boolean isPlaying(){
+        if(pcmActive){
+            return pcmPlayer.getState() == PcmPlayer.State.PLAYING;
+        }
+        return mediaPlayer.get() != null
+                && mediaPlayer.get().getStatus() == MediaPlayer.Status.PLAYING;
+    }
+    
+    public void setPcmEngineSelector(Predicate<String> selector){
+        pcmEngineSelector = selector == null ? url -> false : selector;
     }
     
-    public void setURL(String url){
+    //sink for the PCM engine, a LineSink on the default mixer when not set
+    void setPcmSink(PcmSink sink){
+        if(pcmPlayer != null){
+            pcmPlayer.stop();
+            pcmPlayer = null;
+            pcmActive = false;
+            updatePcmState();
+        }
+        pcmSink = sink;
+    }
+    
+    boolean isPcmActive(){ return pcmActive; }
+    PcmPlayer.State getPcmState(){ return pcmState.get(); }
+    ReadOnlyObjectProperty<PcmPlayer.State> pcmStateProperty(){
+        return pcmState.getReadOnlyProperty();
+    }
+    PcmPlayer getPcmPlayer(){ return pcmPlayer; }
+    ParametricEqualizer getEqualizer(){ return equalizer; }
+    
+    private boolean usePcmEngine(String url){
+        if(!pcmEngineSelector.test(url)){
+            if(pcmActive){
+                pcmPlayer.stop();
+                pcmActive = false;
+                updatePcmState();
+            }
+            return false;
+        }
         if(mediaPlayer.get() != null){
             mediaPlayer.get().stop();
         }
+        discardPreroll();
+        setTrackInfo(startTrack(readTags(url)));
         
-        initializeMedia(url);
+        if(pcmPlayer == null){
+            pcmPlayer = new PcmPlayer(pcmSink != null ? pcmSink
+                    : new LineSink(DEFAULT_PCM_BUFFER_MILLIS));
+            pcmPlayer.setProcessor(equalizer);
+            pcmPlayer.setOnFinished(() -> PlaybackMetrics.runLater(() -> {
+                updatePcmState();
+                final CompletableFuture<MediaPlayer> load = pcmActive ? playNextAsync() : null;
+                if(load != null){
+                    load.thenRun(this::play);
+                }
+            }));
+        }
+        try {
+            pcmPlayer.open(url);
+            pcmActive = true;
+        }catch(Exception e){
+            System.out.println("PCM engine error: "+e);
+            pcmActive = false;
+        }
+        updatePcmState();
+        return true;
+    }
+    
+    private void updatePcmState(){
+        pcmState.set(pcmActive ? pcmPlayer.getState() : null);
+    }
+    
+    public void setStreamSelector(Predicate<String> selector){
+        streamSelector = selector == null ? url -> false : selector;
+    }
+    public void setStreamBufferMillis(int value){ streamBufferMillis = value; }
+    
+    //plain http URLs whose path names no file, e.g. /live or /;stream, may be stations.
+    //Files of any kind (audio, video, playlists) are not; createPlayer asks the server
+    //and plays the URL as Media when it does not answer like a station.
+    static boolean isRadioURL(String url){
+        final URI uri;
+        try {
+            uri = new URI(url);
+        }catch(URISyntaxException e){
+            return false;
+        }
+        if(!"http".equalsIgnoreCase(uri.getScheme())){
+            return false;
+        }
+        final String path = uri.getPath();
+        if(path == null || path.isEmpty() || path.endsWith("/")){
+            return true;
+        }
+        final String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.lastIndexOf('.') <= 0;
+    }
+    
+    //null plays remote files straight from the network
+    void setMediaCache(MediaCache cache){
+        mediaCache = cache;
+        PlaybackMetrics.setMediaCache(cache);
+    }
+    MediaCache getMediaCache(){ return mediaCache; }
+    
+    static boolean isRemoteURL(String url){
+        final String lower = url.toLowerCase(Locale.ROOT);
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+    
+    //the station as it plays, null when the current track is not a stream
+    RadioStream getRadioStream(){
+        final MediaPlayer player = mediaPlayer.get();
+        return player == null ? null : streams.get(player);
+    }
+    
+    //track that follows the current one, prerolled in gapless mode
+    public void setNextURL(String url){
+        if(url == null ? nextURL != null : !url.equals(nextURL)){
+            discardPreroll();
+        }
+        nextURL = url;
+        checkPreroll();
+    }
+    public String getNextURL(){ return nextURL; }
+    
+    //makes the queue entry at index the current song
+    public void playQueueIndex(int index){
+        setURL(queue.jump(index)).thenRun(() -> setNextURL(queue.peekNext()));
+    }
+    
+    public CompletableFuture<MediaPlayer> playQueueIndexAsync(int index){
+        final CompletableFuture<MediaPlayer> load = setURLAsync(queue.jump(index));
+        load.thenRun(() -> setNextURL(queue.peekNext()));
+        return load;
+    }
+    
+    public boolean playNext(){
+        return playNextAsync() != null;
+    }
+    
+    public boolean playPrevious(){
+        return playPreviousAsync() != null;
+    }
+    
+    //null at the end of the queue, otherwise completes once the next entry was loaded
+    public CompletableFuture<MediaPlayer> playNextAsync(){
+        return playQueueURL(queue.next());
+    }
+    
+    //null at the start of the queue
+    public CompletableFuture<MediaPlayer> playPreviousAsync(){
+        return playQueueURL(queue.previous());
+    }
+    
+    private CompletableFuture<MediaPlayer> playQueueURL(String url){
+        if(url == null){
+            return null;
+        }
+        final CompletableFuture<MediaPlayer> load = setURLAsync(url);
+        load.thenRun(() -> setNextURL(queue.peekNext()));
+        return load;
+    }
+    
+    PlayQueue getQueue(){ return queue; }
+    
+    //plays a library track, tags already known from the index take precedence over the
+    //ones read from the file once it is loaded
+    public CompletableFuture<MediaPlayer> setTrack(TrackRecord track){
+        final CompletableFuture<MediaPlayer> load = setURL(track.toURI());
+        load.thenRun(() -> setTrackInfo(getTrackInfo().with(track.getTitle(),
+                track.getArtist(), track.getAlbum(), track.getYear())));
+        return load;
+    }
+    
+    //safe to call from any thread, the setters and properties are FX thread only
+    public TrackInfo getTrackInfo(){ return currentTrack; }
+    public ReadOnlyObjectProperty<TrackInfo> trackInfoProperty(){
+        return trackInfo.getReadOnlyProperty();
     }
     
-    public String getAlbum(){ return album.get(); }
-    public void setAlbum(String value){ album.set(value); }
-    public StringProperty albumProperty() { return album; }
+    public String getAlbum(){ return currentTrack.getAlbum(); }
+    public void setAlbum(String value){ setTrackInfo(getTrackInfo().withAlbum(value)); }
+    public ReadOnlyStringProperty albumProperty() { return album.getReadOnlyProperty(); }
+    
+    public String getArtist(){ return currentTrack.getArtist(); }
+    public void setArtist(String value){ setTrackInfo(getTrackInfo().withArtist(value)); }
+    public ReadOnlyStringProperty artistProperty() { return artist.getReadOnlyProperty(); }
     
-    public String getArtist(){ return artist.get(); }
-    public void setArtist(String value){ artist.set(value); }
-    public StringProperty artistProperty() { return artist; }
+    public String getYear(){ return currentTrack.getYear(); }
+    public void setYear(String value){ setTrackInfo(getTrackInfo().withYear(value)); }
+    public ReadOnlyStringProperty yearProperty() { return year.getReadOnlyProperty(); }
     
-    public String getYear(){ return year.get(); }
-    public void setYear(String value){ year.set(value); }
-    public StringProperty yearProperty() { return year; }
+    public String getTitle(){ return currentTrack.getTitle(); }
+    public void setTitle(String value){ setTrackInfo(getTrackInfo().withTitle(value)); }
+    public ReadOnlyStringProperty titleProperty() { return title.getReadOnlyProperty(); }
+    
+    public Image getAlbumCover(){ return currentTrack.getAlbumCover(); }
+    public void setAlbumCover(Image value){ setTrackInfo(getTrackInfo().withAlbumCover(value)); }
+    public ReadOnlyObjectProperty<Image> albumCoverProperty() {
+        return albumCover.getReadOnlyProperty();
+    }
     
-    public String getTitle(){ return title.get(); }
-    public void setTitle(String value){ title.set(value); }
-    public StringProperty titleProperty() { return title; }
+    public boolean isGapless(){ return gapless.get(); }
+    public void setGapless(boolean value){ gapless.set(value); }
+    public BooleanProperty gaplessProperty() { return gapless; }
+    
+    public Duration getPrerollLead(){ return prerollLead.get(); }
+    public void setPrerollLead(Duration value){ prerollLead.set(value); }
+    public ObjectProperty<Duration> prerollLeadProperty() { return prerollLead; }
+    
+    public double getLastTransitionGap(){ return lastTransitionGap.get(); }
+    public ReadOnlyDoubleProperty lastTransitionGapProperty(){
+        return lastTransitionGap.getReadOnlyProperty();
+    }
     
-    public Image getAlbumCover(){ return albumCover.get(); }
-    public void setAlbumCover(Image value){ albumCover.set(value); }
-    public ObjectProperty<Image> albumCoverProperty() { return albumCover; }
+    //user volume in [0, 1], the gain of the track is applied on top of it
+    public double getVolume(){ return volume.get(); }
+    public void setVolume(double value){ volume.set(value); }
+    public DoubleProperty volumeProperty() { return volume; }
+    
+    public Normalization getNormalization(){ return normalization.get(); }
+    public void setNormalization(Normalization value){ normalization.set(value); }
+    public ObjectProperty<Normalization> normalizationProperty() { return normalization; }
+    
+    public double getTrackGain(){ return trackGain.get(); }
+    public ReadOnlyDoubleProperty trackGainProperty(){
+        return trackGain.getReadOnlyProperty();
+    }
+    
+    //results of a LoudnessScanner, tracks without a result play unchanged. With a file,
+    //folders of tracks without a result are measured and saved to it, null only reads
+    void setLoudnessStore(LoudnessStore store, Path file){
+        loudnessStore = store;
+        loudnessFile = file;
+        updateTrackGain();
+    }
+    LoudnessStore getLoudnessStore(){ return loudnessStore; }
+    void setTargetLoudness(double lufs){
+        targetLoudness = lufs;
+        updateTrackGain();
+    }
+    
+    AlbumArtCache getAlbumArtCache(){ return albumArtCache; }
+    PlayerLifecycle getPlayerLifecycle(){ return players; }
     
     public MediaPlayer getMediaPlayer(){ return mediaPlayer.get(); }
     public ReadOnlyObjectProperty<MediaPlayer> mediaPlayerProperty(){
         return mediaPlayer.getReadOnlyProperty();
     }
     
-    private void resetProperties(){
-        setArtist("Artist unknown");
-        setAlbum("Album unknown");
-        setYear("Year unknown");
-        setTitle("Title unknown");
+    //swaps the snapshot, then updates the derived properties that changed
+    private void setTrackInfo(TrackInfo info){
+        if(info.equals(currentTrack)){
+            return;
+        }
+        currentTrack = info;
+        trackInfo.set(info);
+        title.set(info.getTitle());
+        artist.set(info.getArtist());
+        album.set(info.getAlbum());
+        year.set(info.getYear());
+        albumCover.set(info.getAlbumCover());
+    }
+    
+    //the first snapshot of a track: what its file header has, unknown for the rest.
+    //Covers still loading for the previous track are dropped.
+    private TrackInfo startTrack(TagReader.Tags tags){
+        ++coverGeneration;
+        final TrackInfo info = TrackInfo.unknown(DefaultCover.IMAGE);
+        if(tags == null){
+            return info;
+        }
+        if(tags.hasCover()){
+            loadCover(tags);
+        }
+        return info.with(tags.title, tags.artist, tags.album, tags.year);
+    }
+    
+    //blocks until a station answered, so stations are only opened on LOADER
+    private MediaPlayer createPlayer(String url){
+        RadioStream stream = null;
+        String source = url;
+        if(streamSelector.test(url)){
+            stream = new RadioStream(url, streamBufferMillis);
+            try {
+                source = stream.start();
+            }catch(IOException e){
+                throw new IllegalStateException("Station unavailable: "+e.getMessage(), e);
+            }
+            if(!stream.isIcy() && streamSelector == DEFAULT_STREAM_SELECTOR){
+                //an extensionless file on a plain web server, not a station
+                stream.close();
+                stream = null;
+                source = url;
+            }
+        }
+        if(stream == null && mediaCache != null && isRemoteURL(url)){
+            try {
+                source = mediaCache.localURL(url);
+            }catch(IOException e){
+                System.out.println("Media cache error: "+e);
+            }
+        }
+        final MediaPlayer player;
+        try {
+            player = players.acquire(source);
+        }catch(RuntimeException e){
+            if(stream != null){
+                stream.close();
+            }
+            throw e;
+        }
+        final Media media = player.getMedia();
+        if(stream != null){
+            final RadioStream s = stream;
+            streams.put(player, s);
+            s.setTitleListener(t -> PlaybackMetrics.runLater(() -> {
+                if(isCurrent(media)){
+                    applyStreamTitle(s);
+                }
+            }));
+            players.addCleanup(player, () -> {
+                streams.remove(player);
+                s.close();
+            });
+        }
+        final MapChangeListener<String, Object> metadataListener =
+                new MapChangeListener<String, Object>(){
+            @Override
+            public void onChanged(MapChangeListener.Change<? extends String, ? extends Object> ch) {
+                //a prerolled player gets its metadata early, it is applied on swap
+                if(ch.wasAdded() && isCurrent(media)){
+                    scheduleMetadata(ch.getKey().equals("image"));
+                }
+            }                
+        };
+        media.getMetadata().addListener(metadataListener);
+        //the listener would otherwise keep this model reachable from the Media
+        players.addCleanup(player, () -> media.getMetadata().removeListener(metadataListener));
         
-        setAlbumCover(DEFAULT_ALBUM_COVER);
+        player.setOnError(new Runnable() {
+            @Override
+            public void run() {
+                String errorMessage = player.getError().getMessage();
+                System.out.println("MediaPlayer error: "+errorMessage);
+            }
+        });
+        player.setOnEndOfMedia(() -> handleEndOfMedia(player));
+        return player;
+    }
+    
+    private void releaseIfReplaced(MediaPlayer old){
+        if(old != null && old != mediaPlayer.get()){
+            old.currentTimeProperty().removeListener(prerollTrigger);
+            players.release(old);
+        }
+    }
+    
+    private boolean isCurrent(Media media){
+        return mediaPlayer.get() != null && mediaPlayer.get().getMedia() == media;
     }
     
-    private void initializeMedia(String url){
-        resetProperties();
+    //info is the first snapshot of the track, completed here with what the player knows
+    private void publish(MediaPlayer player, TrackInfo info){
+        final ObservableMap<String, Object> metadata = player.getMedia().getMetadata();
+        info = info.withMetadata(metadata);
+        final RadioStream stream = streams.get(player);
+        if(stream != null){
+            info = withStreamTitle(info, stream);
+        }
+        setTrackInfo(info);
+        if(metadata.get("image") instanceof Image){
+            setScaledAlbumCover((Image)metadata.get("image"), player.getMedia().getSource());
+        }
         
+        final MediaPlayer old = mediaPlayer.get();
+        if(old != null){
+            old.currentTimeProperty().removeListener(prerollTrigger);
+        }
+        mediaPlayer.setValue(player);
+        player.currentTimeProperty().addListener(prerollTrigger);
+        
+        updateTrackGain();
+        //MediaPlayer volume tops out at 1, so boosts of quiet tracks are limited by it
+        player.volumeProperty().bind(Bindings.createDoubleBinding(
+                () -> Math.min(1.0, getVolume() * Math.pow(10, getTrackGain() / 20)),
+                volume, trackGain));
+        players.addCleanup(player, () -> player.volumeProperty().unbind());
+    }
+    
+    //a result counts only while size and mtime still match the file, they are read on
+    //LOADER. Until then a new track plays without gain.
+    private void updateTrackGain(){
+        final int generation = ++gainGeneration;
+        final MediaPlayer player = mediaPlayer.get();
+        final String source = player == null ? null : player.getMedia().getSource();
+        if(source == null || !source.equals(gainSource)){
+            trackGain.set(0);
+        }
+        gainSource = source;
+        final LoudnessStore store = loudnessStore;
+        final Path file = loudnessFile;
+        final boolean album = getNormalization() == Normalization.ALBUM;
+        final double target = targetLoudness;
+        final Path path = localPath(source);
+        if(path == null || store == null || getNormalization() == Normalization.OFF){
+            trackGain.set(0);
+            return;
+        }
+        LOADER.execute(() -> {
+            double gain = 0;
+            try {
+                final BasicFileAttributes attrs = Files.readAttributes(path,
+                        BasicFileAttributes.class);
+                final TrackRecord track = new TrackRecord(path.toString(), attrs.size(),
+                        attrs.lastModifiedTime().toMillis(), null, null, null, null, 0);
+                if(store.isCurrent(track)){
+                    gain = store.get(track.getPath()).gain(target, album);
+                } else if(file != null && !store.isFailed(track)){
+                    measureFolder(store, file, track, generation);
+                }
+            }catch(IOException e){
+                //gone or unreadable, plays without gain
+            }
+            final double value = gain;
+            PlaybackMetrics.runLater(() -> {
+                if(generation == gainGeneration){
+                    trackGain.set(value);
+                }
+            });
+        });
+    }
+    
+    //album gain needs every track of the folder, so the whole folder is measured
+    private void measureFolder(LoudnessStore store, Path file, TrackRecord track,
+            int generation){
+        final Path folder = track.toPath().getParent();
+        if(folder == null || !loudnessFolders.add(folder)){
+            return;
+        }
+        LOUDNESS.execute(() -> {
+            try {
+                final List<TrackRecord> tracks = new ArrayList<>();
+                try(DirectoryStream<Path> files = Files.newDirectoryStream(folder)){
+                    for(Path f : files){
+                        if(!LibraryScanner.isAudioFile(f)){
+                            continue;
+                        }
+                        try {
+                            final BasicFileAttributes attrs = Files.readAttributes(f,
+                                    BasicFileAttributes.class);
+                            if(attrs.isRegularFile()){
+                                tracks.add(new TrackRecord(f.toString(), attrs.size(),
+                                        attrs.lastModifiedTime().toMillis(), null, null,
+                                        null, null, 0));
+                            }
+                        }catch(IOException e){
+                            //a dangling link, the album is measured without it
+                        }
+                    }
+                }
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                new LoudnessScanner(store, file, LOUDNESS_POOL).scan(tracks);
+            }catch(IOException e){
+                System.out.println("Loudness scan error: "+e);
+            }finally{
+                loudnessFolders.remove(folder);
+            }
+            //only once there is a result, a track the scan left out is not queued again
+            if(store.isCurrent(track)){
+                PlaybackMetrics.runLater(() -> {
+                    if(generation == gainGeneration){
+                        updateTrackGain();
+                    }
+                });
+            }
+        });
+    }
+    
+    private static Path localPath(String source){
+        if(source == null || !source.startsWith("file:")){
+            return null;
+        }
         try {
-            final Media media = new Media(url);
-            media.getMetadata().addListener(new MapChangeListener<String, Object>(){
-                @Override
-                public void onChanged(MapChangeListener.Change<? extends String, ? extends Object> ch) {
-                    if(ch.wasAdded()){
-                        handleMetadata(ch.getKey(), ch.getValueAdded());
+            return Paths.get(new URI(source));
+        }catch(URISyntaxException | IllegalArgumentException e){
+            //not a plain local path
+            return null;
+        }
+    }
+    
+    //builds the next player on LOADER once the current one is within prerollLead of its end
+    private void checkPreroll(){
+        final MediaPlayer current = mediaPlayer.get();
+        if(!isGapless() || nextURL == null || prerolled != null || pendingPreroll != null
+                || current == null){
+            return;
+        }
+        //a station would fill its buffer long before it plays, it is opened when it does
+        if(streamSelector.test(nextURL)){
+            return;
+        }
+        final Duration total = current.getTotalDuration();
+        if(total == null || total.isUnknown() || total.isIndefinite()){
+            return;
+        }
+        if(total.subtract(current.getCurrentTime()).lessThanOrEqualTo(getPrerollLead())){
+            prerollAsync(nextURL);
+        }
+    }
+    
+    private void prerollAsync(String url){
+        final CompletableFuture<MediaPlayer> result = new CompletableFuture<>();
+        pendingPreroll = result;
+        LOADER.execute(() -> {
+            if(result.isCancelled()){
+                return;
+            }
+            final TagReader.Tags tags = readTags(url);
+            final MediaPlayer player;
+            try {
+                player = createPlayer(url);
+            }catch(RuntimeException e){
+                System.out.println("Construction error: "+e);
+                PlaybackMetrics.runLater(() -> {
+                    if(pendingPreroll == result){
+                        pendingPreroll = null;
+                        nextURL = null;
                     }
-                }                
-            });
-            
-            mediaPlayer.setValue(new MediaPlayer(media));
-            mediaPlayer.get().setOnError(new Runnable() {
-                @Override
-                public void run() {
-                    String errorMessage = mediaPlayer.get().getError().getMessage();
-                    System.out.println("MediaPlayer error: "+errorMessage);
+                });
+                return;
+            }
+            PlaybackMetrics.runLater(() -> {
+                if(pendingPreroll != result){
+                    //discarded meanwhile
+                    players.release(player);
+                    return;
                 }
+                pendingPreroll = null;
+                prerolled = player;
+                prerolledTags = tags;
             });
-            
-        }catch(RuntimeException e){
-            System.out.println("Construction error: "+e);
+        });
+    }
+    
+    private void discardPreroll(){
+        if(pendingPreroll != null){
+            pendingPreroll.cancel(false);
+            pendingPreroll = null;
+        }
+        if(prerolled != null){
+            players.release(prerolled);
+            prerolled = null;
+            prerolledTags = null;
+        }
+    }
+    
+    private void handleEndOfMedia(MediaPlayer player){
+        if(player != mediaPlayer.get()){
+            return;
+        }
+        if(prerolled == null || !isGapless()){
+            //nothing prerolled in time, continue with the queue the ordinary way
+            discardPreroll();
+            final CompletableFuture<MediaPlayer> load = playNextAsync();
+            if(load != null){
+                load.thenRun(this::play);
+            }
+            return;
+        }
+        
+        final long start = System.nanoTime();
+        final MediaPlayer next = prerolled;
+        final TagReader.Tags tags = prerolledTags;
+        final String url = nextURL;
+        prerolled = null;
+        prerolledTags = null;
+        nextURL = null;
+        
+        next.statusProperty().addListener(new ChangeListener<MediaPlayer.Status>(){
+            @Override
+            public void changed(ObservableValue<? extends MediaPlayer.Status> observable,
+                    MediaPlayer.Status oldValue, MediaPlayer.Status newValue) {
+                if(newValue == MediaPlayer.Status.PLAYING){
+                    lastTransitionGap.set((System.nanoTime() - start) / 1e6);
+                    next.statusProperty().removeListener(this);
+                }
+            }
+        });
+        next.play();
+        
+        publish(next, startTrack(tags));
+        releaseIfReplaced(player);
+        
+        if(url.equals(queue.peekNext())){
+            queue.next();
+        }
+        setNextURL(queue.peekNext());
+    }
+    
+    //one snapshot for the entries added since the last one, read from the current player
+    private void scheduleMetadata(boolean cover){
+        coverPending |= cover;
+        if(metadataPending){
+            return;
+        }
+        metadataPending = true;
+        PlaybackMetrics.runLater(() -> {
+            metadataPending = false;
+            final boolean withCover = coverPending;
+            coverPending = false;
+            final MediaPlayer player = mediaPlayer.get();
+            if(player == null){
+                return;
+            }
+            final ObservableMap<String, Object> metadata = player.getMedia().getMetadata();
+            setTrackInfo(getTrackInfo().withMetadata(metadata));
+            if(withCover && metadata.get("image") instanceof Image){
+                setScaledAlbumCover((Image)metadata.get("image"), player.getMedia().getSource());
+            }
+        });
+    }
+    
+    private void applyStreamTitle(RadioStream stream){
+        setTrackInfo(withStreamTitle(getTrackInfo(), stream));
+    }
+    
+    //ICY titles are "Artist - Title" by convention, the station name stands in for the album
+    private static TrackInfo withStreamTitle(TrackInfo info, RadioStream stream){
+        String streamArtist = null;
+        String streamTitle = stream.getStreamTitle();
+        if(streamTitle != null && streamTitle.isEmpty()){
+            streamTitle = null;
+        }
+        final int dash = streamTitle == null ? -1 : streamTitle.indexOf(" - ");
+        if(dash > 0){
+            streamArtist = streamTitle.substring(0, dash).trim();
+            streamTitle = streamTitle.substring(dash + 3).trim();
         }
+        return info.with(streamTitle, streamArtist, stream.getStationName(), null);
     }
     
-    private void handleMetadata(String key, Object value){
-        if(key.equals("album")){
-            setAlbum(value.toString());
-        } else if (key.equals("artist")){
-            setArtist(value.toString());
-        } if (key.equals("title")){
-            setTitle(value.toString());
-        } if (key.equals("year")){
-            setYear(value.toString());
-        } if (key.equals("image")){
-            setAlbumCover((Image)value);
+    //header tags of a local file, null for other URLs or files without readable tags
+    private static TagReader.Tags readTags(String url){
+        if(!url.regionMatches(true, 0, "file:", 0, 5)){
+            return null;
+        }
+        try {
+            return TagReader.read(Paths.get(new URI(url)));
+        }catch(Exception e){
+            System.out.println("Tag error: "+e);
+            return null;
         }
     }
+    
+    //the cover is read from the file and scaled off the FX thread
+    private void loadCover(TagReader.Tags tags){
+        final int generation = coverGeneration;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return tags.readCover();
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+        }, LOADER).thenCompose(albumArtCache::get).thenAccept(scaled ->
+                PlaybackMetrics.runLater(() -> {
+                    if(generation == coverGeneration){
+                        setAlbumCover(scaled);
+                    }
+                }));
+    }
+    
+    //the full size image is scaled off the FX thread, only the thumbnail is kept
+    private void setScaledAlbumCover(Image image, String source){
+        final int generation = coverGeneration;
+        albumArtCache.get(image, source).thenAccept(scaled -> PlaybackMetrics.runLater(() -> {
+            if(generation == coverGeneration){
+                setAlbumCover(scaled);
+            }
+        }));
+    }
 }
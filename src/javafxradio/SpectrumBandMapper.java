@@ -0,0 +1,137 @@
+package javafxradio;
+
+//maps the spectrum bins of a player onto display bands through precomputed tables,
+//so reducing a frame does not allocate anything
+final class SpectrumBandMapper {
+    static final double DEFAULT_SAMPLE_RATE = 44100.0;
+
+    enum Layout {
+        //bands one octave apart starting at startFreq (the classic 7 band view)
+        OCTAVE,
+        //ISO 1/3 octave bands from 20 Hz to 20 kHz, startFreq is ignored
+        THIRD_OCTAVE,
+        //bands of equal width from startFreq up to Nyquist
+        LINEAR
+    }
+
+    static final int THIRD_OCTAVE_BANDS = 31;
+    //the octave norms were tuned for MediaPlayer's default of 128 spectrum bands
+    private static final int OCTAVE_NORM_BINS = 128;
+
+    private final Layout layout;
+    private final int binCount;
+    private final double[] centerFrequencies;
+    //first and one past last spectrum bin of every band
+    private final int[] bandStart;
+    private final int[] bandEnd;
+    private final double[] scale;
+
+    SpectrumBandMapper(Layout layout, int bandCount, double startFreq,
+            double sampleRate, int binCount) {
+        if(layout == Layout.THIRD_OCTAVE){
+            bandCount = THIRD_OCTAVE_BANDS;
+        }
+        this.layout = layout;
+        this.binCount = binCount;
+        this.centerFrequencies = new double[bandCount];
+        this.bandStart = new int[bandCount];
+        this.bandEnd = new int[bandCount];
+        this.scale = new double[bandCount];
+
+        double nyquist = sampleRate / 2;
+        double binWidth = nyquist / binCount;
+        double[] lower = new double[bandCount];
+        double[] upper = new double[bandCount];
+        computeEdges(startFreq, nyquist, lower, upper);
+
+        for (int b = 0; b < bandCount; b++) {
+            //a bin belongs to the band its center frequency falls into
+            int start = (int)Math.ceil(lower[b] / binWidth - 0.5);
+            int end = (int)Math.ceil(upper[b] / binWidth - 0.5);
+            start = clamp(start, 0, binCount);
+            end = clamp(end, start, binCount);
+            if(start == end){
+                //band narrower than a bin, borrow the bin holding its center
+                start = clamp((int)(centerFrequencies[b] / binWidth), 0, binCount - 1);
+                end = start + 1;
+            }
+            bandStart[b] = start;
+            bandEnd[b] = end;
+            scale[b] = layout == Layout.OCTAVE
+                    ? (double)OCTAVE_NORM_BINS / binCount / octaveNorm(b)
+                    : 1.0 / (end - start);
+        }
+    }
+
+    //convenience for the common case of a player with default settings
+    SpectrumBandMapper(Layout layout, int bandCount, double startFreq, int binCount) {
+        this(layout, bandCount, startFreq, DEFAULT_SAMPLE_RATE, binCount);
+    }
+
+    Layout getLayout(){ return layout; }
+    int getBandCount(){ return centerFrequencies.length; }
+    int getBinCount(){ return binCount; }
+    double getCenterFrequency(int band){ return centerFrequencies[band]; }
+    int getBandStart(int band){ return bandStart[band]; }
+    int getBandEnd(int band){ return bandEnd[band]; }
+
+    //writes one value per band into out, magnitudes are in dB above minValue
+    void reduce(float[] magnitudes, double minValue, double[] out){
+        final int n = Math.min(magnitudes.length, binCount);
+        for (int b = 0; b < bandStart.length; b++) {
+            final int end = Math.min(bandEnd[b], n);
+            double sum = 0.0;
+            for (int i = bandStart[b]; i < end; i++) {
+                sum += magnitudes[i] - minValue;
+            }
+            out[b] = sum * scale[b];
+        }
+    }
+
+    private void computeEdges(double startFreq, double nyquist,
+            double[] lower, double[] upper){
+        final int bandCount = centerFrequencies.length;
+        switch(layout){
+            case OCTAVE: {
+                //same split as before: the first band also takes everything below it
+                double freq = startFreq;
+                for (int b = 0; b < bandCount; b++) {
+                    centerFrequencies[b] = freq;
+                    lower[b] = b == 0 ? 0 : upper[b-1];
+                    upper[b] = freq * 1.5;
+                    freq *= 2;
+                }
+                break;
+            }
+            case THIRD_OCTAVE: {
+                //base 2 ISO centers: 1 kHz * 2^(k/3), k = -17..13
+                final double edge = Math.pow(2, 1.0/6);
+                for (int b = 0; b < bandCount; b++) {
+                    double center = 1000.0 * Math.pow(2, (b - 17) / 3.0);
+                    centerFrequencies[b] = center;
+                    lower[b] = center / edge;
+                    upper[b] = center * edge;
+                }
+                break;
+            }
+            case LINEAR: {
+                double width = (nyquist - startFreq) / bandCount;
+                for (int b = 0; b < bandCount; b++) {
+                    lower[b] = startFreq + b * width;
+                    upper[b] = lower[b] + width;
+                    centerFrequencies[b] = lower[b] + width / 2;
+                }
+                break;
+            }
+        }
+    }
+
+    //normalizes the octave bands, higher bands cover more bins
+    private static double octaveNorm(int band){
+        return 1 + 0.05 * Math.pow(2, band);
+    }
+
+    private static int clamp(int value, int min, int max){
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,272 @@
+package javafxradio;
+
+import com.sun.javafx.util.Utils;
+import java.util.Arrays;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Stop;
+
+//draws every spectrum band into one Canvas instead of a VBox of Rectangles per band,
+//only segments whose lit state changed since the last frame are repainted. The timer
+//runs while shown and until the bars and peaks came to rest on the last values.
+public class SpectrumCanvas extends Region {
+    private static final double SPACING = 1.0;
+    private static final double ASPECT_RATIO = 3;
+    private static final double MIN_BAR_HEIGHT = 3;
+    private static final Color PEAK_COLOR = Color.WHITE;
+
+    private final int maxValue;
+    private final int barCount;
+    private final Canvas canvas = new Canvas();
+    private final Color[] rowColors;
+
+    //latest values from the spectrum callback
+    private final double[] targets;
+    //values after decay, peaks and how long each peak has been held
+    private final double[] levels;
+    private final double[] peaks;
+    private final double[] peakAge;
+    //what is currently painted, -1 forces a repaint
+    private final int[] paintedLit;
+    private final int[] paintedPeak;
+
+    private double decayPerSecond;
+    private double peakHoldSeconds = 0.8;
+    private double peakDecayPerSecond;
+    private long lastFrame;
+    private boolean running;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            double dt = lastFrame == 0 ? 0 : (now - lastFrame) / 1e9;
+            lastFrame = now;
+            advance(dt);
+            paintChanges();
+            if(isSettled()){
+                stopTimer();
+            }
+        }
+    };
+
+    public SpectrumCanvas(int bandCount, int maxValue, int barCount) {
+        this.maxValue = maxValue;
+        this.barCount = barCount;
+        this.decayPerSecond = maxValue * 1.5;
+        this.peakDecayPerSecond = maxValue * 0.5;
+        this.targets = new double[bandCount];
+        this.levels = new double[bandCount];
+        this.peaks = new double[bandCount];
+        this.peakAge = new double[bandCount];
+        this.paintedLit = new int[bandCount];
+        this.paintedPeak = new int[bandCount];
+
+        getStyleClass().add("spectrumBar");
+        getChildren().add(canvas);
+
+        Stop[] stops = new Stop[3];
+        stops[0] = new Stop(0.3, Color.RED);
+        stops[1] = new Stop(0.7, Color.YELLOW);
+        stops[2] = new Stop(0.9, Color.web("56F32B"));
+        rowColors = new Color[barCount];
+        for (int i = 0; i < barCount; i++) {
+            int c = (int)((double)i / (double)barCount * 255.0);
+            rowColors[i] = Utils.ladder(Color.rgb(c, c, c), stops);
+        }
+
+        //only animate while shown
+        sceneProperty().addListener((obs, oldScene, newScene) -> {
+            if(newScene != null){
+                startTimer();
+            } else {
+                stopTimer();
+            }
+        });
+    }
+
+    //one band with the setValue(double) of a SpectrumBar
+    public final class Band {
+        private final int index;
+
+        private Band(int index){
+            this.index = index;
+        }
+
+        public void setValue(double value){
+            SpectrumCanvas.this.setValue(index, value);
+        }
+    }
+
+    public int getBandCount(){ return targets.length; }
+
+    public Band getBand(int band){
+        if(band < 0 || band >= targets.length){
+            throw new IndexOutOfBoundsException("Band: "+band+", bands: "+targets.length);
+        }
+        return new Band(band);
+    }
+
+    //same scale as SpectrumBar.setValue, the bar falls back at decayPerSecond.
+    //Call on the FX thread.
+    public void setValue(int band, double value) {
+        if(targets[band] != value){
+            targets[band] = value;
+            if(getScene() != null){
+                startTimer();
+            }
+        }
+    }
+
+    public void setDecayPerSecond(double value){ decayPerSecond = value; }
+    public void setPeakHoldSeconds(double value){ peakHoldSeconds = value; }
+    public void setPeakDecayPerSecond(double value){ peakDecayPerSecond = value; }
+
+    private void advance(double dt) {
+        for (int b = 0; b < targets.length; b++) {
+            levels[b] = Math.max(targets[b], levels[b] - decayPerSecond * dt);
+            if(levels[b] >= peaks[b]){
+                peaks[b] = levels[b];
+                peakAge[b] = 0;
+            } else {
+                peakAge[b] += dt;
+                if(peakAge[b] > peakHoldSeconds){
+                    peaks[b] = Math.max(levels[b], peaks[b] - peakDecayPerSecond * dt);
+                }
+            }
+        }
+    }
+
+    //levels reached their targets and every peak fell back onto its level
+    private boolean isSettled() {
+        for (int b = 0; b < targets.length; b++) {
+            if(levels[b] != targets[b] || peaks[b] != levels[b]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startTimer() {
+        if(!running){
+            running = true;
+            lastFrame = 0;
+            timer.start();
+        }
+    }
+
+    private void stopTimer() {
+        running = false;
+        timer.stop();
+    }
+
+    private int litRows(double value) {
+        return Math.max(0, Math.min(barCount, (int)Math.round(value/maxValue*barCount)));
+    }
+
+    private void paintChanges() {
+        final GraphicsContext gc = canvas.getGraphicsContext2D();
+        for (int b = 0; b < targets.length; b++) {
+            int lit = litRows(levels[b]);
+            int peak = litRows(peaks[b]);
+            if(lit == paintedLit[b] && peak == paintedPeak[b]){
+                continue;
+            }
+            if(paintedLit[b] < 0){
+                for (int row = 0; row < barCount; row++) {
+                    paintSegment(gc, b, row, lit, peak);
+                }
+            } else {
+                //rows are counted from the bottom, only the span that flipped is drawn
+                int from = Math.min(lit, paintedLit[b]);
+                int to = Math.max(lit, paintedLit[b]);
+                for (int row = from; row < to; row++) {
+                    paintSegment(gc, b, row, lit, peak);
+                }
+                if(paintedPeak[b] > 0){
+                    paintSegment(gc, b, paintedPeak[b] - 1, lit, peak);
+                }
+                if(peak > 0){
+                    paintSegment(gc, b, peak - 1, lit, peak);
+                }
+            }
+            paintedLit[b] = lit;
+            paintedPeak[b] = peak;
+        }
+    }
+
+    private void paintSegment(GraphicsContext gc, int band, int row, int lit, int peak) {
+        final double bandWidth = getBandWidth();
+        final double barHeight = getBarHeight();
+        final double barWidth = Math.min(barHeight * ASPECT_RATIO, bandWidth);
+        final double x = band * bandWidth + (bandWidth - barWidth) / 2;
+        final double y = canvas.getHeight() - (row + 1) * (barHeight + SPACING) + SPACING;
+
+        gc.clearRect(x, y, barWidth, barHeight);
+        if(row == peak - 1 && peak > lit){
+            gc.setFill(PEAK_COLOR);
+        } else if(row < lit){
+            gc.setFill(rowColors[barCount - 1 - row]);
+        } else {
+            return;
+        }
+        gc.fillRoundRect(x, y, barWidth, barHeight, 2, 2);
+    }
+
+    private double getBandWidth() {
+        return canvas.getWidth() / targets.length;
+    }
+
+    private double getBarHeight() {
+        return (canvas.getHeight() - SPACING * (barCount-1)) / barCount;
+    }
+
+    @Override
+    protected void layoutChildren() {
+        final double x = snappedLeftInset();
+        final double y = snappedTopInset();
+        final double w = getWidth() - x - snappedRightInset();
+        final double h = getHeight() - y - snappedBottomInset();
+        if(canvas.getWidth() != w || canvas.getHeight() != h){
+            canvas.setWidth(w);
+            canvas.setHeight(h);
+            canvas.getGraphicsContext2D().clearRect(0, 0, w, h);
+            Arrays.fill(paintedLit, -1);
+            Arrays.fill(paintedPeak, 0);
+            //the cleared canvas is repainted by the next pulse
+            if(getScene() != null){
+                startTimer();
+            }
+        }
+        canvas.relocate(x, y);
+    }
+
+    @Override
+    protected double computeMinHeight(double width) {
+        return computeHeight(MIN_BAR_HEIGHT);
+    }
+
+    @Override
+    protected double computeMinWidth(double height) {
+        return (MIN_BAR_HEIGHT * ASPECT_RATIO + SPACING) * targets.length
+                + snappedLeftInset() + snappedRightInset();
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return computeHeight(5);
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return (5 * ASPECT_RATIO + SPACING) * targets.length
+                + snappedLeftInset() + snappedRightInset();
+    }
+
+    private double computeHeight(double barHeight) {
+        return barHeight * barCount + SPACING * (barCount-1)
+                + snappedTopInset() + snappedBottomInset();
+    }
+}
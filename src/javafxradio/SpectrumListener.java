@@ -5,81 +5,57 @@ import javafx.scene.media.MediaPlayer;
 
 class SpectrumListener implements AudioSpectrumListener{
     private final SpectrumBar[] bars;
-    private double minValue;
-    private double[] norms;
-    private int[] spectrumBucketCount;
+    private final SpectrumCanvas canvas;
+    private final double minValue;
+    private final SpectrumBandMapper mapper;
+    //reused on every callback
+    private final double[] values;
 
     SpectrumListener(double startFreq, MediaPlayer mp, SpectrumBar[] bars) {
+        this(new SpectrumBandMapper(SpectrumBandMapper.Layout.OCTAVE, bars.length,
+                startFreq, mp.getAudioSpectrumNumBands()), mp, bars);
+    }
+
+    SpectrumListener(SpectrumBandMapper mapper, MediaPlayer mp, SpectrumBar[] bars) {
+        this(mapper, mp, bars, null);
+    }
+
+    SpectrumListener(SpectrumBandMapper mapper, MediaPlayer mp, SpectrumCanvas canvas) {
+        this(mapper, mp, null, canvas);
+    }
+
+    private SpectrumListener(SpectrumBandMapper mapper, MediaPlayer mp,
+            SpectrumBar[] bars, SpectrumCanvas canvas) {
+        this(mapper, mp.getAudioSpectrumThreshold(), bars, canvas);
+    }
+
+    //for spectra that do not come from a MediaPlayer, one of bars and canvas may be null
+    SpectrumListener(SpectrumBandMapper mapper, double minValue,
+            SpectrumBar[] bars, SpectrumCanvas canvas) {
         this.bars = bars;
-        this.minValue = mp.getAudioSpectrumThreshold();
-        this.norms = createNormArray();
-        
-        int bandCount = mp.getAudioSpectrumNumBands();
-        this.spectrumBucketCount = createBucketCount(startFreq, bandCount);
-    }    
+        this.canvas = canvas;
+        this.minValue = minValue;
+        this.mapper = mapper;
+        this.values = new double[mapper.getBandCount()];
+    }
 
     @Override
     public void spectrumDataUpdate(double timestamp, double duration,
             float[] magnitudes, float[] phases) {
-        int index = 0;
-        int bucketIndex = 0;
-        int currentBucketCount = 0;
-        double sum = 0.0;
-        
-        //iterate through the array and use the bucket count to sum
-        //the magnitudes of the bands that correspond to each equalizer band
-        while(index < magnitudes.length){
-            sum += magnitudes[index] - minValue;
-            ++currentBucketCount;
-            
-            if(currentBucketCount >= spectrumBucketCount[bucketIndex]){
-                bars[bucketIndex].setValue(sum / norms[bucketIndex]);
-                currentBucketCount = 0;
-                sum = 0.0;
-                ++bucketIndex;
+        final long start = PlaybackMetrics.start();
+        mapper.reduce(magnitudes, minValue, values);
+
+        if(canvas != null){
+            final int count = Math.min(canvas.getBandCount(), values.length);
+            for (int i = 0; i < count; i++) {
+                canvas.setValue(i, values[i]);
             }
-            ++index;
-        }
-    }
-    
-    //normalizes the magnitude values that are later computed for each eq band
-    private double[] createNormArray() {
-        double[] normArray = new double[bars.length];
-        double currentNorm = 0.05;
-        for (int i = 0; i < normArray.length; i++) {
-            normArray[i] = 1 + currentNorm;
-            currentNorm *= 2;
-        }
-        
-        return normArray;
-    }
-    
-    //figures out how many spectrum bands fall within each of equalizer bands
-    private int[] createBucketCount(double startFreq, int bandCount) {
-        int[] bucketCount = new int[bars.length];
-        
-        //assume spectrum data covers frequencies up to 22.05 kHz
-        double bandwidth = 22050.0 / bandCount;
-        double centerFreq = bandwidth/2;
-        double currentSpectrumFreq = centerFreq;
-        double currentEQFreq = startFreq / 2;
-        double currentCutoff = 0;
-        int currentBucketIndex = -1;
-        
-        for (int i = 0; i < bandCount; i++) {
-            if(currentSpectrumFreq > currentCutoff){
-                currentEQFreq *= 2;
-                currentCutoff = currentEQFreq + currentEQFreq / 2;
-                ++currentBucketIndex;
-                if(currentBucketIndex == bucketCount.length){
-                    break;
-                }
+        } else {
+            final int count = Math.min(bars.length, values.length);
+            for (int i = 0; i < count; i++) {
+                bars[i].setValue(values[i]);
             }
-            
-            ++bucketCount[currentBucketIndex];
-            currentSpectrumFreq += bandwidth;
         }
-        return bucketCount;
+        PlaybackMetrics.spectrumCallback(start, values.length);
     }
-    
 }
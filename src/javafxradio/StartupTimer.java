@@ -0,0 +1,91 @@
+package javafxradio;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import javafx.animation.AnimationTimer;
+
+//times the phases of a start from JVM start on: until start() is called, each phase of
+//start(), the first frame and the first audio. Printed once complete when metrics are
+//enabled, the two totals are also attributes of PlaybackMetrics.
+final class StartupTimer {
+    private static final long ORIGIN_NANOS = System.nanoTime()
+            - (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime())
+            * 1_000_000L;
+
+    private static final Map<String, Double> phases = new LinkedHashMap<>();
+    private static long lastMark = ORIGIN_NANOS;
+    private static volatile double firstFrameMillis = Double.NaN;
+    private static volatile double audioMillis = Double.NaN;
+    //false when no track plays at start, the report then comes with the first frame
+    private static boolean expectAudio;
+    private static boolean reported;
+
+    private StartupTimer(){
+    }
+
+    static double getFirstFrameMillis(){ return firstFrameMillis; }
+    static double getAudioMillis(){ return audioMillis; }
+
+    //ends the running phase, the next one starts now
+    static synchronized void phase(String name){
+        final long now = System.nanoTime();
+        phases.put(name, (now - lastMark) / 1e6);
+        lastMark = now;
+    }
+
+    static synchronized void expectAudio(boolean value){
+        expectAudio = value;
+        reportIfComplete();
+    }
+
+    //a frame is rendered at the end of its pulse, so the second pulse marks the first frame.
+    //Call on the FX thread right after the stage is shown.
+    static void awaitFirstFrame(){
+        new AnimationTimer() {
+            private int pulses;
+
+            @Override
+            public void handle(long now) {
+                if(++pulses == 2){
+                    stop();
+                    firstFrameMillis = sinceOrigin();
+                    phase("first frame");
+                    reportIfComplete();
+                }
+            }
+        }.start();
+    }
+
+    static void audioStarted(){
+        if(Double.isNaN(audioMillis)){
+            audioMillis = sinceOrigin();
+            phase("audio");
+            reportIfComplete();
+        }
+    }
+
+    private static double sinceOrigin(){
+        return (System.nanoTime() - ORIGIN_NANOS) / 1e6;
+    }
+
+    private static synchronized void reportIfComplete(){
+        if(reported || Double.isNaN(firstFrameMillis)
+                || (expectAudio && Double.isNaN(audioMillis))){
+            return;
+        }
+        reported = true;
+        if(PlaybackMetrics.get().isEnabled()){
+            final StringBuilder sb = new StringBuilder("Startup:");
+            for(Map.Entry<String, Double> e : phases.entrySet()){
+                sb.append(String.format(Locale.ROOT, " %s %.0f ms,", e.getKey(), e.getValue()));
+            }
+            sb.append(String.format(Locale.ROOT, " first frame at %.0f ms", firstFrameMillis));
+            if(expectAudio){
+                sb.append(String.format(Locale.ROOT, ", audio at %.0f ms", audioMillis));
+            }
+            System.out.println(sb);
+        }
+    }
+}
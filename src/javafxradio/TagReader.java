@@ -0,0 +1,645 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+//reads title, artist, album, year, duration and where the cover is from the tag
+//region of a local file (ID3v2/ID3v1 in MP3, FLAC metadata blocks, Vorbis comments in
+//Ogg, MP4 atoms) with positioned reads; audio frames are never read and covers only
+//on request.
+final class TagReader {
+    //text and comment blocks larger than this are not tags worth reading
+    private static final int MAX_BLOCK = 16 * 1024 * 1024;
+    //the last Ogg page holds the length, it is within this distance of the end
+    private static final int OGG_TAIL = 64 * 1024;
+    private static final int ID3_FRONT_COVER = 3;
+
+    //what was found, fields stay null when the file does not have them
+    static final class Tags {
+        String title;
+        String artist;
+        String album;
+        String year;
+        long durationMillis;
+
+        private final Path file;
+        private long coverOffset = -1;
+        private int coverLength;
+        private int coverType = -1;
+        //covers that are not stored plainly in the file (unsynchronized or base64)
+        private byte[] coverData;
+        private String coverBase64;
+
+        private Tags(Path file){
+            this.file = file;
+        }
+
+        boolean hasCover(){
+            return coverOffset >= 0 || coverData != null || coverBase64 != null;
+        }
+
+        //the encoded image, read only now; null without a cover
+        byte[] readCover() throws IOException {
+            if(coverData != null){
+                return coverData;
+            }
+            if(coverBase64 != null){
+                return flacPicture(ByteBuffer.wrap(Base64.getDecoder().decode(coverBase64)));
+            }
+            if(coverOffset < 0){
+                return null;
+            }
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+                return read(channel, coverOffset, coverLength).array();
+            }
+        }
+
+        private void setTitle(String value){ if(title == null) title = clean(value); }
+        private void setArtist(String value){ if(artist == null) artist = clean(value); }
+        private void setAlbum(String value){ if(album == null) album = clean(value); }
+        private void setYear(String value){
+            value = clean(value);
+            if(year == null && value != null){
+                year = value.length() > 4 ? value.substring(0, 4) : value;
+            }
+        }
+
+        //a later picture only replaces an earlier one if it is the front cover
+        private boolean wantsCover(int type){
+            return coverType != ID3_FRONT_COVER && (coverType < 0 || type == ID3_FRONT_COVER);
+        }
+
+        private static String clean(String value){
+            if(value == null){
+                return null;
+            }
+            value = value.trim();
+            return value.isEmpty() ? null : value;
+        }
+    }
+
+    private TagReader(){
+    }
+
+    static Tags read(Path file) throws IOException {
+        final Tags tags = new Tags(file);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            final long size = channel.size();
+            long start = 0;
+            ByteBuffer magic = read(channel, 0, 12);
+            if(startsWith(magic, 0, "ID3")){
+                start = id3v2(channel, tags);
+                magic = read(channel, start, 12);
+            }
+            if(startsWith(magic, 0, "fLaC")){
+                flac(channel, start + 4, tags);
+            } else if(startsWith(magic, 0, "OggS")){
+                ogg(channel, start, tags);
+            } else if(startsWith(magic, 4, "ftyp")){
+                mp4(channel, 0, size, tags, 0);
+            } else {
+                long end = size;
+                if(size >= 128 && startsWith(read(channel, size - 128, 3), 0, "TAG")){
+                    id3v1(channel, size - 128, tags);
+                    end -= 128;
+                }
+                final double seconds = SeekIndex.headerDuration(channel, start, end);
+                if(seconds > 0){
+                    tags.durationMillis = Math.round(seconds * 1000);
+                }
+            }
+        }
+        return tags;
+    }
+
+    //returns the offset after the tag
+    private static long id3v2(FileChannel channel, Tags tags) throws IOException {
+        final ByteBuffer header = read(channel, 0, 10);
+        final int version = header.get(3);
+        final int flags = header.get(5);
+        final int size = syncsafe(header, 6);
+        final long end = 10 + size + ((flags & 0x10) != 0 ? 10 : 0);
+        if(version < 2 || version > 4){
+            return end;
+        }
+
+        //a tag unsynchronized as a whole is small enough to undo in memory
+        if((flags & 0x80) != 0 && version < 4){
+            final ByteBuffer tag = ByteBuffer.wrap(unsynchronize(
+                    read(channel, 10, Math.min(size, MAX_BLOCK)).array()));
+            id3v2Frames(new MemorySource(tag), 0, tag.limit(), version, flags, tags, true);
+        } else {
+            id3v2Frames(new ChannelSource(channel), 10, 10 + size, version, flags, tags, false);
+        }
+        return end;
+    }
+
+    private static void id3v2Frames(Source source, long pos, long end, int version, int flags,
+            Tags tags, boolean inMemory) throws IOException {
+        if((flags & 0x40) != 0 && version > 2){
+            final ByteBuffer ext = source.read(pos, 4);
+            pos += version == 3 ? 4 + ext.getInt(0) : syncsafe(ext, 0);
+        }
+        final int headerSize = version == 2 ? 6 : 10;
+        while(pos + headerSize <= end){
+            final ByteBuffer h = source.read(pos, headerSize);
+            if(h.limit() < headerSize || h.get(0) == 0){
+                break;
+            }
+            final String id;
+            int frameSize;
+            int frameFlags = 0;
+            if(version == 2){
+                id = ascii(h, 0, 3);
+                frameSize = (h.get(3) & 0xFF) << 16 | (h.get(4) & 0xFF) << 8 | (h.get(5) & 0xFF);
+            } else {
+                id = ascii(h, 0, 4);
+                frameSize = version == 4 ? syncsafe(h, 4) : h.getInt(4);
+                frameFlags = h.getShort(8) & 0xFFFF;
+            }
+            long content = pos + headerSize;
+            pos = content + frameSize;
+            if(frameSize <= 0 || pos > end){
+                break;
+            }
+            //compressed or encrypted frames are left alone
+            final boolean packed = version == 3 ? (frameFlags & 0xC0) != 0
+                    : version == 4 && (frameFlags & 0x0C) != 0;
+            if(packed){
+                continue;
+            }
+            if(version == 4 && (frameFlags & 0x01) != 0){
+                //data length indicator
+                content += 4;
+                frameSize -= 4;
+            }
+            final boolean unsynchronized = version == 4 && (frameFlags & 0x02) != 0;
+
+            switch(id){
+                case "TIT2": case "TT2":
+                    tags.setTitle(text(source, content, frameSize, unsynchronized));
+                    break;
+                case "TPE1": case "TP1":
+                    tags.setArtist(text(source, content, frameSize, unsynchronized));
+                    break;
+                case "TALB": case "TAL":
+                    tags.setAlbum(text(source, content, frameSize, unsynchronized));
+                    break;
+                case "TYER": case "TYE": case "TDRC":
+                    tags.setYear(text(source, content, frameSize, unsynchronized));
+                    break;
+                case "APIC": case "PIC":
+                    picture(source, content, frameSize, version, unsynchronized, inMemory, tags);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static String text(Source source, long pos, int size, boolean unsynchronized)
+            throws IOException {
+        if(size < 1 || size > MAX_BLOCK){
+            return null;
+        }
+        byte[] bytes = source.read(pos, size).array();
+        if(unsynchronized){
+            bytes = unsynchronize(bytes);
+        }
+        final String value = decode(bytes, 1, bytes.length - 1, bytes[0]);
+        //ID3v2.4 separates several values with NUL, the first one is enough
+        final int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+
+    //finds where the image data of a picture frame starts without reading it
+    private static void picture(Source source, long pos, int size, int version,
+            boolean unsynchronized, boolean inMemory, Tags tags) throws IOException {
+        final ByteBuffer head = source.read(pos, Math.min(size, 4096));
+        final int encoding = head.get(0);
+        int i = 1;
+        if(version == 2){
+            i += 3;
+        } else {
+            while(i < head.limit() && head.get(i) != 0){
+                ++i;
+            }
+            ++i;
+        }
+        if(i >= head.limit()){
+            return;
+        }
+        final int type = head.get(i++) & 0xFF;
+        //description, terminated by one or two NULs depending on the encoding
+        final boolean wide = encoding == 1 || encoding == 2;
+        while(i + (wide ? 1 : 0) < head.limit()
+                && (head.get(i) != 0 || (wide && head.get(i + 1) != 0))){
+            i += wide ? 2 : 1;
+        }
+        i += wide ? 2 : 1;
+        if(i >= head.limit() || !tags.wantsCover(type)){
+            return;
+        }
+        tags.coverType = type;
+        if(unsynchronized || inMemory){
+            final byte[] data = source.read(pos + i, size - i).array();
+            tags.coverData = unsynchronized ? unsynchronize(data) : data;
+            tags.coverOffset = -1;
+        } else {
+            tags.coverOffset = pos + i;
+            tags.coverLength = size - i;
+            tags.coverData = null;
+        }
+    }
+
+    private static void id3v1(FileChannel channel, long pos, Tags tags) throws IOException {
+        final ByteBuffer b = read(channel, pos, 128);
+        tags.setTitle(latin1(b, 3, 30));
+        tags.setArtist(latin1(b, 33, 30));
+        tags.setAlbum(latin1(b, 63, 30));
+        tags.setYear(latin1(b, 93, 4));
+    }
+
+    private static void flac(FileChannel channel, long pos, Tags tags) throws IOException {
+        boolean last = false;
+        while(!last){
+            final ByteBuffer h = read(channel, pos, 4);
+            if(h.limit() < 4){
+                return;
+            }
+            last = (h.get(0) & 0x80) != 0;
+            final int type = h.get(0) & 0x7F;
+            final int length = (h.get(1) & 0xFF) << 16 | (h.get(2) & 0xFF) << 8 | (h.get(3) & 0xFF);
+            final long content = pos + 4;
+            if(type == 0 && length >= 18){
+                final ByteBuffer info = read(channel, content, 18);
+                final int rate = (info.get(10) & 0xFF) << 12 | (info.get(11) & 0xFF) << 4
+                        | (info.get(12) & 0xFF) >> 4;
+                final long samples = (long)(info.get(13) & 0x0F) << 32 | (info.getInt(14) & 0xFFFFFFFFL);
+                if(rate > 0){
+                    tags.durationMillis = samples * 1000 / rate;
+                }
+            } else if(type == 4 && length <= MAX_BLOCK){
+                vorbisComment(read(channel, content, length), tags);
+            } else if(type == 6){
+                flacPictureBlock(channel, content, tags);
+            }
+            pos = content + length;
+        }
+    }
+
+    //locates the data of a FLAC PICTURE block
+    private static void flacPictureBlock(FileChannel channel, long pos, Tags tags)
+            throws IOException {
+        final ByteBuffer b = read(channel, pos, 8);
+        final int type = b.getInt(0);
+        final long desc = pos + 8 + (b.getInt(4) & 0xFFFFFFFFL);
+        final long dims = desc + 4 + (read(channel, desc, 4).getInt(0) & 0xFFFFFFFFL);
+        final int length = read(channel, dims, 20).getInt(16);
+        if(tags.wantsCover(type)){
+            tags.coverType = type;
+            tags.coverOffset = dims + 20;
+            tags.coverLength = length;
+        }
+    }
+
+    //image data of a FLAC PICTURE structure held in memory
+    private static byte[] flacPicture(ByteBuffer b){
+        int i = 4;
+        i += 4 + b.getInt(i);
+        i += 4 + b.getInt(i);
+        i += 16;
+        final int length = b.getInt(i);
+        final byte[] data = new byte[length];
+        b.position(i + 4);
+        b.get(data);
+        return data;
+    }
+
+    private static void vorbisComment(ByteBuffer b, Tags tags){
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        int i = 4 + b.getInt(0);
+        if(i + 4 > b.limit()){
+            return;
+        }
+        final int count = b.getInt(i);
+        i += 4;
+        for (int c = 0; c < count && i + 4 <= b.limit(); c++) {
+            final int length = b.getInt(i);
+            i += 4;
+            if(length < 0 || i + length > b.limit()){
+                return;
+            }
+            final int eq = indexOf(b, i, i + length, (byte)'=');
+            if(eq > 0){
+                final String key = ascii(b, i, eq - i).toUpperCase(Locale.ROOT);
+                final int valueStart = eq + 1;
+                final int valueLength = i + length - valueStart;
+                switch(key){
+                    case "TITLE": tags.setTitle(utf8(b, valueStart, valueLength)); break;
+                    case "ARTIST": tags.setArtist(utf8(b, valueStart, valueLength)); break;
+                    case "ALBUM": tags.setAlbum(utf8(b, valueStart, valueLength)); break;
+                    case "DATE": tags.setYear(utf8(b, valueStart, valueLength)); break;
+                    case "METADATA_BLOCK_PICTURE":
+                        //decoded with readCover, the picture type is inside the base64
+                        if(!tags.hasCover()){
+                            tags.coverBase64 = ascii(b, valueStart, valueLength);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            i += length;
+        }
+    }
+
+    //the first two packets of the logical stream: identification and comments
+    private static void ogg(FileChannel channel, long pos, Tags tags) throws IOException {
+        int rate = 0;
+        long preSkip = 0;
+        int serial = 0;
+        int packetIndex = 0;
+        ByteBuffer packet = ByteBuffer.allocate(4096);
+        while(packetIndex < 2){
+            final ByteBuffer h = read(channel, pos, 27);
+            if(h.limit() < 27 || !startsWith(h, 0, "OggS")){
+                return;
+            }
+            h.order(ByteOrder.LITTLE_ENDIAN);
+            serial = h.getInt(14);
+            final int segments = h.get(26) & 0xFF;
+            final ByteBuffer lacing = read(channel, pos + 27, segments);
+            long data = pos + 27 + segments;
+            for (int s = 0; s < segments && packetIndex < 2; s++) {
+                final int length = lacing.get(s) & 0xFF;
+                if(packet.remaining() < length){
+                    if(packet.capacity() >= MAX_BLOCK){
+                        return;
+                    }
+                    final ByteBuffer bigger = ByteBuffer.allocate(packet.capacity() * 2);
+                    packet.flip();
+                    bigger.put(packet);
+                    packet = bigger;
+                }
+                packet.put(read(channel, data, length));
+                data += length;
+                if(length < 255){
+                    packet.flip();
+                    if(packetIndex == 0){
+                        packet.order(ByteOrder.LITTLE_ENDIAN);
+                        if(startsWith(packet, 1, "vorbis")){
+                            rate = packet.getInt(12);
+                        } else if(startsWith(packet, 0, "OpusHead")){
+                            rate = 48000;
+                            preSkip = packet.getShort(10) & 0xFFFF;
+                        } else {
+                            return;
+                        }
+                    } else {
+                        final int skip = startsWith(packet, 1, "vorbis") ? 7
+                                : startsWith(packet, 0, "OpusTags") ? 8 : -1;
+                        if(skip > 0){
+                            packet.position(skip);
+                            vorbisComment(packet.slice(), tags);
+                        }
+                    }
+                    packet = ByteBuffer.allocate(4096);
+                    ++packetIndex;
+                }
+            }
+            pos = data;
+        }
+        if(rate > 0){
+            final long granule = lastGranule(channel, serial);
+            if(granule > preSkip){
+                tags.durationMillis = (granule - preSkip) * 1000 / rate;
+            }
+        }
+    }
+
+    private static long lastGranule(FileChannel channel, int serial) throws IOException {
+        final long size = channel.size();
+        final long from = Math.max(0, size - OGG_TAIL);
+        final ByteBuffer tail = read(channel, from, (int)(size - from));
+        tail.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = tail.limit() - 27; i >= 0; i--) {
+            if(tail.get(i) == 'O' && startsWith(tail, i, "OggS") && tail.getInt(i + 14) == serial){
+                return tail.getLong(i + 6);
+            }
+        }
+        return -1;
+    }
+
+    //walks the atoms between pos and end, descending into the ones that lead to tags
+    private static void mp4(FileChannel channel, long pos, long end, Tags tags, int depth)
+            throws IOException {
+        while(pos + 8 <= end && depth < 8){
+            final ByteBuffer h = read(channel, pos, 16);
+            if(h.limit() < 8){
+                return;
+            }
+            long size = h.getInt(0) & 0xFFFFFFFFL;
+            final String type = latin1Raw(h, 4, 4);
+            int header = 8;
+            if(size == 1 && h.limit() >= 16){
+                size = h.getLong(8);
+                header = 16;
+            } else if(size == 0){
+                size = end - pos;
+            }
+            if(size < header){
+                return;
+            }
+            final long content = pos + header;
+            final long atomEnd = Math.min(end, pos + size);
+            switch(type){
+                case "moov": case "udta": case "ilst":
+                    mp4(channel, content, atomEnd, tags, depth + 1);
+                    break;
+                case "meta":
+                    //a full box: version and flags come first
+                    mp4(channel, content + 4, atomEnd, tags, depth + 1);
+                    break;
+                case "mvhd": {
+                    final ByteBuffer m = read(channel, content, 32);
+                    final boolean v1 = m.get(0) == 1;
+                    final long timescale = m.getInt(v1 ? 20 : 12) & 0xFFFFFFFFL;
+                    final long duration = v1 ? m.getLong(24) : m.getInt(16) & 0xFFFFFFFFL;
+                    if(timescale > 0){
+                        tags.durationMillis = duration * 1000 / timescale;
+                    }
+                    break;
+                }
+                case "\u00A9nam": tags.setTitle(mp4Text(channel, content, atomEnd)); break;
+                case "\u00A9ART": tags.setArtist(mp4Text(channel, content, atomEnd)); break;
+                case "\u00A9alb": tags.setAlbum(mp4Text(channel, content, atomEnd)); break;
+                case "\u00A9day": tags.setYear(mp4Text(channel, content, atomEnd)); break;
+                case "covr":
+                    if(tags.coverOffset < 0 && content + 16 <= atomEnd){
+                        //data atom: size, "data", type, locale, then the image
+                        tags.coverOffset = content + 16;
+                        tags.coverLength = (int)(atomEnd - content - 16);
+                        tags.coverType = ID3_FRONT_COVER;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            pos += size;
+        }
+    }
+
+    private static String mp4Text(FileChannel channel, long content, long end) throws IOException {
+        final long length = end - content - 16;
+        if(length <= 0 || length > MAX_BLOCK){
+            return null;
+        }
+        final ByteBuffer b = read(channel, content + 16, (int)length);
+        return utf8(b, 0, b.limit());
+    }
+
+    //where frames are read from: the file or an unsynchronized copy of the tag
+    private interface Source {
+        ByteBuffer read(long pos, int length) throws IOException;
+    }
+
+    private static final class ChannelSource implements Source {
+        private final FileChannel channel;
+
+        ChannelSource(FileChannel channel){
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer read(long pos, int length) throws IOException {
+            return TagReader.read(channel, pos, length);
+        }
+    }
+
+    private static final class MemorySource implements Source {
+        private final ByteBuffer tag;
+
+        MemorySource(ByteBuffer tag){
+            this.tag = tag;
+        }
+
+        @Override
+        public ByteBuffer read(long pos, int length){
+            final int from = (int)Math.min(pos, tag.limit());
+            final int to = (int)Math.min(pos + length, tag.limit());
+            final ByteBuffer b = ByteBuffer.allocate(to - from);
+            for (int i = from; i < to; i++) {
+                b.put(tag.get(i));
+            }
+            b.flip();
+            return b;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long pos, int length) throws IOException {
+        final ByteBuffer b = ByteBuffer.allocate(Math.max(0, length));
+        while(b.hasRemaining()){
+            if(channel.read(b, pos + b.position()) < 0){
+                break;
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    //drops the 0x00 that follows every 0xFF in unsynchronized data
+    private static byte[] unsynchronize(byte[] in){
+        final byte[] out = new byte[in.length];
+        int n = 0;
+        for (int i = 0; i < in.length; i++) {
+            out[n++] = in[i];
+            if(in[i] == (byte)0xFF && i + 1 < in.length && in[i + 1] == 0){
+                ++i;
+            }
+        }
+        return n == in.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private static String decode(byte[] b, int offset, int length, int encoding){
+        final Charset charset;
+        switch(encoding){
+            case 1: charset = StandardCharsets.UTF_16; break;
+            case 2: charset = StandardCharsets.UTF_16BE; break;
+            case 3: charset = StandardCharsets.UTF_8; break;
+            default: charset = StandardCharsets.ISO_8859_1; break;
+        }
+        //trailing terminators
+        while(length > 0 && b[offset + length - 1] == 0){
+            --length;
+        }
+        if((encoding == 1 || encoding == 2) && length % 2 == 1){
+            ++length;
+        }
+        return new String(b, offset, Math.max(0, length), charset);
+    }
+
+    private static int syncsafe(ByteBuffer b, int at){
+        return (b.get(at) & 0x7F) << 21 | (b.get(at + 1) & 0x7F) << 14
+                | (b.get(at + 2) & 0x7F) << 7 | (b.get(at + 3) & 0x7F);
+    }
+
+    private static boolean startsWith(ByteBuffer b, int at, String prefix){
+        if(b.limit() < at + prefix.length()){
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if(b.get(at + i) != (byte)prefix.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer b, int from, int to, byte value){
+        for (int i = from; i < to; i++) {
+            if(b.get(i) == value){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String ascii(ByteBuffer b, int at, int length){
+        return latin1Raw(b, at, length);
+    }
+
+    //ID3v1 fields are NUL padded
+    private static String latin1(ByteBuffer b, int at, int length){
+        int end = at;
+        while(end < at + length && b.get(end) != 0){
+            ++end;
+        }
+        return latin1Raw(b, at, end - at);
+    }
+
+    private static String latin1Raw(ByteBuffer b, int at, int length){
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char)(b.get(at + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static String utf8(ByteBuffer b, int at, int length){
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = b.get(at + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,119 @@
+package javafxradio;
+
+import java.util.Map;
+import java.util.Objects;
+import javafx.scene.image.Image;
+
+//what is known about the current track. Immutable, SongModel swaps the whole snapshot
+//so listeners see one change per load or metadata batch, and any thread can read it.
+public final class TrackInfo {
+    static final String UNKNOWN_TITLE = "Title unknown";
+    static final String UNKNOWN_ARTIST = "Artist unknown";
+    static final String UNKNOWN_ALBUM = "Album unknown";
+    static final String UNKNOWN_YEAR = "Year unknown";
+
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final String year;
+    private final Image albumCover;
+
+    TrackInfo(String title, String artist, String album, String year, Image albumCover){
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.year = year;
+        this.albumCover = albumCover;
+    }
+
+    static TrackInfo unknown(Image albumCover){
+        return new TrackInfo(UNKNOWN_TITLE, UNKNOWN_ARTIST, UNKNOWN_ALBUM, UNKNOWN_YEAR,
+                albumCover);
+    }
+
+    public String getTitle(){ return title; }
+    public String getArtist(){ return artist; }
+    public String getAlbum(){ return album; }
+    public String getYear(){ return year; }
+    public Image getAlbumCover(){ return albumCover; }
+
+    //the with methods return this when nothing changes, so no change is fired for it
+    TrackInfo withTitle(String value){
+        return Objects.equals(value, title) ? this
+                : new TrackInfo(value, artist, album, year, albumCover);
+    }
+
+    TrackInfo withArtist(String value){
+        return Objects.equals(value, artist) ? this
+                : new TrackInfo(title, value, album, year, albumCover);
+    }
+
+    TrackInfo withAlbum(String value){
+        return Objects.equals(value, album) ? this
+                : new TrackInfo(title, artist, value, year, albumCover);
+    }
+
+    TrackInfo withYear(String value){
+        return Objects.equals(value, year) ? this
+                : new TrackInfo(title, artist, album, value, albumCover);
+    }
+
+    TrackInfo withAlbumCover(Image value){
+        return value == albumCover ? this
+                : new TrackInfo(title, artist, album, year, value);
+    }
+
+    //fields that are known, null ones keep the current value
+    TrackInfo with(String title, String artist, String album, String year){
+        final TrackInfo merged = new TrackInfo(
+                title != null ? title : this.title,
+                artist != null ? artist : this.artist,
+                album != null ? album : this.album,
+                year != null ? year : this.year,
+                albumCover);
+        return merged.equals(this) ? this : merged;
+    }
+
+    //the text entries of a Media metadata map, the image is scaled separately
+    TrackInfo withMetadata(Map<String, Object> metadata){
+        String newTitle = null;
+        String newArtist = null;
+        String newAlbum = null;
+        String newYear = null;
+        for(Map.Entry<String, Object> entry : metadata.entrySet()){
+            final String value = String.valueOf(entry.getValue());
+            switch(entry.getKey()){
+                case "title": newTitle = value; break;
+                case "artist": newArtist = value; break;
+                case "album": newAlbum = value; break;
+                case "year": newYear = value; break;
+                default: break;
+            }
+        }
+        return with(newTitle, newArtist, newAlbum, newYear);
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof TrackInfo)){
+            return false;
+        }
+        final TrackInfo other = (TrackInfo)o;
+        return Objects.equals(title, other.title) && Objects.equals(artist, other.artist)
+                && Objects.equals(album, other.album) && Objects.equals(year, other.year)
+                && albumCover == other.albumCover;
+    }
+
+    @Override
+    public int hashCode(){
+        return Objects.hash(title, artist, album, year, albumCover);
+    }
+
+    @Override
+    public String toString(){
+        return title + " / " + artist + " / " + album + " / " + year;
+    }
+}
@@ -0,0 +1,86 @@
+package javafxradio;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+//immutable description of one file in the music library
+final class TrackRecord {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final String year;
+    private final long durationMillis;
+
+    TrackRecord(String path, long size, long lastModified, String title,
+            String artist, String album, String year, long durationMillis) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.year = year;
+        this.durationMillis = durationMillis;
+    }
+
+    String getPath(){ return path; }
+    long getSize(){ return size; }
+    long getLastModified(){ return lastModified; }
+    String getTitle(){ return title; }
+    String getArtist(){ return artist; }
+    String getAlbum(){ return album; }
+    String getYear(){ return year; }
+    long getDurationMillis(){ return durationMillis; }
+
+    String toURI(){
+        return Paths.get(path).toUri().toString();
+    }
+
+    //true if the file on disk still looks like the one this record was made from
+    boolean matches(long size, long lastModified){
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    Path toPath(){
+        return Paths.get(path);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        writeNullable(out, title);
+        writeNullable(out, artist);
+        writeNullable(out, album);
+        writeNullable(out, year);
+        out.writeLong(durationMillis);
+    }
+
+    static TrackRecord read(DataInput in) throws IOException {
+        return new TrackRecord(in.readUTF(), in.readLong(), in.readLong(),
+                readNullable(in), readNullable(in), readNullable(in),
+                readNullable(in), in.readLong());
+    }
+
+    private static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null){
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,386 @@
+package javafxradio;
+
+import java.io.File;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+//typeahead search over title, artist, album and year of the tracks in a LibraryIndex.
+//Every word of a query matches as a prefix of a word of the track; each term keeps its
+//tracks as a sorted int posting list. The query is driven by its most selective word,
+//the postings of the other words are intersected with it.
+final class TrackSearchIndex implements LibraryIndex.Listener {
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    //rough sizes of the objects behind a term and a track, for the footprint estimate
+    private static final int TERM_BYTES = 112;
+    private static final int TRACK_BYTES = 96;
+    private static final int INITIAL_POSTINGS = 2;
+    //choosing the driver walks at most this many terms per query word, a word with
+    //more is taken as unselective
+    private static final int MAX_COUNTED_TERMS = 256;
+    //the other words of a query are merged into one sorted list up to this many
+    //postings, broader ones are checked against the words of each candidate
+    private static final int MAX_MERGED_POSTINGS = 16 * 1024;
+
+    private static final class Term {
+        final String text;
+        int[] docs = new int[INITIAL_POSTINGS];
+        int size;
+
+        Term(String text){
+            this.text = text;
+        }
+    }
+
+    private final long maxBytes;
+    private final TreeMap<String, Term> terms = new TreeMap<>();
+    private final Map<String, Integer> docByPath = new HashMap<>();
+    private TrackRecord[] tracks = new TrackRecord[1024];
+    private Term[][] trackTerms = new Term[1024][];
+    //ids of removed tracks, reused before the arrays grow
+    private int[] freeDocs = new int[16];
+    private int freeCount;
+    private int docCount;
+    //query number a track was last collected in, so no track is returned twice
+    private int[] seen = new int[1024];
+    private int queryStamp;
+
+    private long estimatedBytes;
+    private long rejected;
+
+    TrackSearchIndex(){
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    //tracks that would take the estimate past maxBytes are not indexed
+    TrackSearchIndex(long maxBytes){
+        this.maxBytes = maxBytes;
+    }
+
+    //indexes what is in the library now and follows its changes
+    static TrackSearchIndex attach(LibraryIndex library, long maxBytes){
+        final TrackSearchIndex index = new TrackSearchIndex(maxBytes);
+        library.addListener(index);
+        for(TrackRecord track : library.getTracks()){
+            index.add(track);
+        }
+        return index;
+    }
+
+    synchronized int size(){ return docByPath.size(); }
+    synchronized int getTermCount(){ return terms.size(); }
+    synchronized long getUsedBytes(){ return estimatedBytes; }
+    long getMaxBytes(){ return maxBytes; }
+    synchronized long getRejected(){ return rejected; }
+
+    @Override
+    public void trackAdded(TrackRecord track){
+        add(track);
+    }
+
+    @Override
+    public void trackRemoved(TrackRecord track){
+        remove(track.getPath());
+    }
+
+    synchronized void add(TrackRecord track){
+        remove(track.getPath());
+        final List<String> words = words(track);
+        final Term[] own = new Term[words.size()];
+        long bytes = TRACK_BYTES + 2L * track.getPath().length() + 4L * own.length;
+        for(String word : words){
+            if(!terms.containsKey(word)){
+                bytes += TERM_BYTES + 2L * word.length();
+            }
+        }
+        if(estimatedBytes + bytes > maxBytes){
+            ++rejected;
+            return;
+        }
+
+        final int doc = allocate();
+        tracks[doc] = track;
+        trackTerms[doc] = own;
+        docByPath.put(track.getPath(), doc);
+        for (int i = 0; i < own.length; i++) {
+            Term term = terms.get(words.get(i));
+            if(term == null){
+                term = new Term(words.get(i));
+                terms.put(term.text, term);
+                bytes += 4L * INITIAL_POSTINGS;
+            }
+            if(term.size == term.docs.length){
+                term.docs = Arrays.copyOf(term.docs, term.size * 2);
+                bytes += 4L * term.size;
+            }
+            //new ids are usually the highest, a reused one is inserted in order
+            int at = term.size;
+            if(at > 0 && term.docs[at - 1] > doc){
+                at = -Arrays.binarySearch(term.docs, 0, term.size, doc) - 1;
+                System.arraycopy(term.docs, at, term.docs, at + 1, term.size - at);
+            }
+            term.docs[at] = doc;
+            ++term.size;
+            own[i] = term;
+        }
+        estimatedBytes += bytes;
+    }
+
+    synchronized void remove(String path){
+        final Integer boxed = docByPath.remove(path);
+        if(boxed == null){
+            return;
+        }
+        final int doc = boxed;
+        final TrackRecord track = tracks[doc];
+        long bytes = TRACK_BYTES + 2L * track.getPath().length() + 4L * trackTerms[doc].length;
+        for(Term term : trackTerms[doc]){
+            final int at = Arrays.binarySearch(term.docs, 0, term.size, doc);
+            if(at >= 0){
+                System.arraycopy(term.docs, at + 1, term.docs, at, term.size - at - 1);
+                --term.size;
+            }
+            if(term.size == 0){
+                terms.remove(term.text);
+                bytes += TERM_BYTES + 2L * term.text.length() + 4L * term.docs.length;
+            }
+        }
+        tracks[doc] = null;
+        trackTerms[doc] = null;
+        if(freeCount == freeDocs.length){
+            freeDocs = Arrays.copyOf(freeDocs, freeCount * 2);
+        }
+        freeDocs[freeCount++] = doc;
+        estimatedBytes -= bytes;
+    }
+
+    //tracks whose words start with every word of the query, at most limit of them, in the
+    //order of the words they match: a track with the typed word itself comes first.
+    synchronized List<TrackRecord> search(String query, int limit){
+        final List<TrackRecord> result = new ArrayList<>();
+        final List<String> prefixes = new ArrayList<>();
+        tokenize(query, prefixes);
+        if(prefixes.isEmpty() || limit <= 0){
+            return result;
+        }
+
+        //the prefix with the fewest postings drives, longer prefixes tend to have fewer
+        //so they are counted first and bound the count of the others
+        int driver = 0;
+        final long[] counts = new long[prefixes.size()];
+        if(prefixes.size() > 1){
+            final Integer[] byLength = new Integer[prefixes.size()];
+            for (int i = 0; i < byLength.length; i++) {
+                byLength[i] = i;
+            }
+            Arrays.sort(byLength, (a, b) -> prefixes.get(b).length() - prefixes.get(a).length());
+            long fewest = Long.MAX_VALUE;
+            for(int i : byLength){
+                counts[i] = countPostings(prefixes.get(i), fewest);
+                if(counts[i] < fewest){
+                    fewest = counts[i];
+                    driver = i;
+                }
+            }
+            if(fewest == 0){
+                return result;
+            }
+        }
+
+        //postings of the other prefixes, merged where that is cheap, null otherwise
+        final int others = prefixes.size() - 1;
+        final String[] otherPrefixes = new String[others];
+        final int[][] merged = new int[others][];
+        for (int i = 0, o = 0; i < prefixes.size(); i++) {
+            if(i != driver){
+                otherPrefixes[o] = prefixes.get(i);
+                if(counts[i] <= MAX_MERGED_POSTINGS){
+                    merged[o] = mergePostings(otherPrefixes[o], MAX_MERGED_POSTINGS);
+                }
+                ++o;
+            }
+        }
+        final int[] cursors = new int[others];
+
+        if(++queryStamp == 0){
+            Arrays.fill(seen, 0);
+            queryStamp = 1;
+        }
+        for(Term term : matching(prefixes.get(driver)).values()){
+            //postings are sorted, so each merged list is walked forward once per term
+            Arrays.fill(cursors, 0);
+            for (int i = 0; i < term.size; i++) {
+                final int doc = term.docs[i];
+                if(seen[doc] == queryStamp){
+                    continue;
+                }
+                seen[doc] = queryStamp;
+                if(matchesOthers(doc, otherPrefixes, merged, cursors)){
+                    result.add(tracks[doc]);
+                    if(result.size() == limit){
+                        return result;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private NavigableMap<String, Term> matching(String prefix){
+        return terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    //stops once the count reached bound, it can no longer win; a prefix of more than
+    //MAX_COUNTED_TERMS terms counts as Long.MAX_VALUE
+    private long countPostings(String prefix, long bound){
+        long count = 0;
+        int walked = 0;
+        for(Term term : matching(prefix).values()){
+            if(++walked > MAX_COUNTED_TERMS){
+                return Long.MAX_VALUE;
+            }
+            count += term.size;
+            if(count >= bound){
+                break;
+            }
+        }
+        return count;
+    }
+
+    //the sorted union of the postings of every term with prefix, null when there are
+    //more than max postings or MAX_COUNTED_TERMS terms
+    private int[] mergePostings(String prefix, int max){
+        final NavigableMap<String, Term> range = matching(prefix);
+        int size = 0;
+        int walked = 0;
+        for(Term term : range.values()){
+            size += term.size;
+            if(++walked > MAX_COUNTED_TERMS || size > max){
+                return null;
+            }
+        }
+        if(walked == 1){
+            final Term term = range.firstEntry().getValue();
+            return Arrays.copyOf(term.docs, term.size);
+        }
+        final int[] docs = new int[size];
+        int at = 0;
+        for(Term term : range.values()){
+            System.arraycopy(term.docs, 0, docs, at, term.size);
+            at += term.size;
+        }
+        Arrays.sort(docs);
+        int unique = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if(unique == 0 || docs[unique - 1] != docs[i]){
+                docs[unique++] = docs[i];
+            }
+        }
+        return Arrays.copyOf(docs, unique);
+    }
+
+    private boolean matchesOthers(int doc, String[] prefixes, int[][] merged, int[] cursors){
+        for (int p = 0; p < prefixes.length; p++) {
+            if(merged[p] != null){
+                cursors[p] = advance(merged[p], cursors[p], doc);
+                if(cursors[p] == merged[p].length || merged[p][cursors[p]] != doc){
+                    return false;
+                }
+            } else if(!hasWordWithPrefix(doc, prefixes[p])){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //first index at or after from whose doc is not below doc, galloping then bisecting
+    private static int advance(int[] docs, int from, int doc){
+        int step = 1;
+        int high = from;
+        while(high < docs.length && docs[high] < doc){
+            from = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, docs.length);
+        final int at = Arrays.binarySearch(docs, from, high, doc);
+        return at >= 0 ? at : -at - 1;
+    }
+
+    private boolean hasWordWithPrefix(int doc, String prefix){
+        for(Term term : trackTerms[doc]){
+            if(term.text.startsWith(prefix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int allocate(){
+        if(freeCount > 0){
+            return freeDocs[--freeCount];
+        }
+        if(docCount == tracks.length){
+            final int capacity = docCount * 2;
+            tracks = Arrays.copyOf(tracks, capacity);
+            trackTerms = Arrays.copyOf(trackTerms, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+        }
+        return docCount++;
+    }
+
+    //distinct words of the fields SongModel shows, the file name stands in for a missing title
+    private static List<String> words(TrackRecord track){
+        final List<String> words = new ArrayList<>();
+        String title = track.getTitle();
+        if(title == null){
+            final String path = track.getPath();
+            final int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar));
+            final int dot = path.lastIndexOf('.');
+            title = path.substring(slash + 1, dot > slash ? dot : path.length());
+        }
+        tokenize(title, words);
+        tokenize(track.getArtist(), words);
+        tokenize(track.getAlbum(), words);
+        tokenize(track.getYear(), words);
+        return words;
+    }
+
+    //lower case runs of letters and digits without accents, added once each
+    private static void tokenize(String text, List<String> words){
+        if(text == null){
+            return;
+        }
+        text = fold(text);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            final boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(letter && start < 0){
+                start = i;
+            } else if(!letter && start >= 0){
+                final String word = text.substring(start, i);
+                if(!words.contains(word)){
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+    }
+
+    private static String fold(String text){
+        for (int i = 0; i < text.length(); i++) {
+            if(text.charAt(i) > 0x7F){
+                return Normalizer.normalize(text, Normalizer.Form.NFD)
+                        .replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+            }
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+}
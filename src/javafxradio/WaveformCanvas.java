@@ -0,0 +1,90 @@
+package javafxradio;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+
+//track overview drawn behind the position slider, one min/max line per pixel column.
+//Only repainted when the peaks or the size change, never per frame.
+public class WaveformCanvas extends Region {
+    private static final Color PEAK_COLOR = Color.web("56F32B", 0.35);
+    private static final Color RMS_COLOR = Color.web("56F32B", 0.6);
+
+    private final Canvas canvas = new Canvas();
+    private WaveformPeaks peaks;
+
+    public WaveformCanvas() {
+        getStyleClass().add("waveform");
+        getChildren().add(canvas);
+        setMouseTransparent(true);
+    }
+
+    //null clears the overview, e.g. while the peaks of a new track are generated
+    void setPeaks(WaveformPeaks value){
+        peaks = value;
+        paint();
+    }
+
+    private void paint(){
+        final double w = canvas.getWidth();
+        final double h = canvas.getHeight();
+        final GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, w, h);
+        final int columns = (int)w;
+        if(peaks == null || columns <= 0){
+            return;
+        }
+        final int level = peaks.levelFor(columns);
+        final int buckets = peaks.getBucketCount(level);
+        if(buckets == 0){
+            return;
+        }
+        final double mid = h / 2;
+        for (int x = 0; x < columns; x++) {
+            //every column covers a range of buckets at the chosen level
+            int from = (int)((long)x * buckets / columns);
+            int to = Math.max(from + 1, (int)((long)(x + 1) * buckets / columns));
+            float min = 1f;
+            float max = -1f;
+            float rms = 0f;
+            for (int b = from; b < to && b < buckets; b++) {
+                min = Math.min(min, peaks.getMin(level, b));
+                max = Math.max(max, peaks.getMax(level, b));
+                rms = Math.max(rms, peaks.getRms(level, b));
+            }
+            if(max < min){
+                continue;
+            }
+            gc.setFill(PEAK_COLOR);
+            gc.fillRect(x, mid - max * mid, 1, Math.max(1, (max - min) * mid));
+            gc.setFill(RMS_COLOR);
+            gc.fillRect(x, mid - rms * mid, 1, Math.max(1, 2 * rms * mid));
+        }
+    }
+
+    @Override
+    protected void layoutChildren() {
+        final double x = snappedLeftInset();
+        final double y = snappedTopInset();
+        final double w = getWidth() - x - snappedRightInset();
+        final double h = getHeight() - y - snappedBottomInset();
+        if(canvas.getWidth() != w || canvas.getHeight() != h){
+            canvas.setWidth(w);
+            canvas.setHeight(h);
+            paint();
+        }
+        canvas.relocate(x, y);
+    }
+
+    //takes whatever space the slider leaves, the canvas must not dictate the size
+    @Override
+    protected double computePrefWidth(double height) {
+        return snappedLeftInset() + snappedRightInset();
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return snappedTopInset() + snappedBottomInset();
+    }
+}
@@ -0,0 +1,213 @@
+package javafxradio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+//min/max/RMS overview of a track at several zoom levels, read from a memory mapped file.
+//Layout: header (magic, version, sample rate, level count, per level frames per bucket,
+//bucket count and offset) followed by 6 byte buckets of signed 16 bit min, max and rms.
+final class WaveformPeaks {
+    private static final int MAGIC = 0x4A465750; //"JFWP"
+    private static final int VERSION = 1;
+    private static final int BUCKET_BYTES = 6;
+    //each level merges 4 buckets of the one before
+    static final int[] FRAMES_PER_BUCKET = {256, 1024, 4096, 16384, 65536};
+
+    private final MappedByteBuffer buffer;
+    private final float sampleRate;
+    private final int[] framesPerBucket;
+    private final int[] bucketCount;
+    private final int[] offset;
+
+    private WaveformPeaks(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION){
+            throw new IOException("Not a peak file");
+        }
+        sampleRate = buffer.getFloat(8);
+        int levels = buffer.getInt(12);
+        framesPerBucket = new int[levels];
+        bucketCount = new int[levels];
+        offset = new int[levels];
+        for (int l = 0; l < levels; l++) {
+            framesPerBucket[l] = buffer.getInt(16 + l * 12);
+            bucketCount[l] = buffer.getInt(20 + l * 12);
+            offset[l] = buffer.getInt(24 + l * 12);
+        }
+    }
+
+    //maps an existing peak file, nothing is decoded
+    static WaveformPeaks open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            return new WaveformPeaks(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    float getSampleRate(){ return sampleRate; }
+    int getLevelCount(){ return framesPerBucket.length; }
+    int getFramesPerBucket(int level){ return framesPerBucket[level]; }
+    int getBucketCount(int level){ return bucketCount[level]; }
+
+    //values in [-1, 1], rms in [0, 1]
+    float getMin(int level, int bucket){ return read(level, bucket, 0); }
+    float getMax(int level, int bucket){ return read(level, bucket, 2); }
+    float getRms(int level, int bucket){ return read(level, bucket, 4); }
+
+    //coarsest level that still has at least the requested number of buckets
+    int levelFor(int buckets){
+        for (int l = framesPerBucket.length - 1; l > 0; l--) {
+            if(bucketCount[l] >= buckets){
+                return l;
+            }
+        }
+        return 0;
+    }
+
+    private float read(int level, int bucket, int field){
+        return buffer.getShort(offset[level] + bucket * BUCKET_BYTES + field) / 32767f;
+    }
+
+    //decodes source once and writes the peak file; memory use does not depend on the
+    //length of the track, every level streams into its own temporary file
+    static void generate(String url, Path target) throws IOException, UnsupportedAudioFileException {
+        final int levels = FRAMES_PER_BUCKET.length;
+        final List<Path> parts = new ArrayList<>();
+        final LevelWriter[] writers = new LevelWriter[levels];
+        float sampleRate;
+
+        try(InputStream in = new BufferedInputStream(new URL(url).openStream());
+                AudioInputStream source = AudioSystem.getAudioInputStream(in)){
+            AudioFormat sf = source.getFormat();
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                    sf.getSampleRate(), 16, sf.getChannels(), sf.getChannels() * 2,
+                    sf.getSampleRate(), false);
+            sampleRate = sf.getSampleRate();
+            try(AudioInputStream stream = AudioSystem.getAudioInputStream(pcm, source)){
+                for (int l = 0; l < levels; l++) {
+                    Path part = Files.createTempFile(target.getParent(), "peaks", ".part");
+                    parts.add(part);
+                    writers[l] = new LevelWriter(FRAMES_PER_BUCKET[l], Files.newOutputStream(part));
+                }
+                final int channels = pcm.getChannels();
+                final byte[] block = new byte[4096 * pcm.getFrameSize()];
+                int n;
+                int carry = 0;
+                while((n = stream.read(block, carry, block.length - carry)) > 0){
+                    int available = carry + n;
+                    int frames = available / pcm.getFrameSize();
+                    for (int f = 0; f < frames; f++) {
+                        int sum = 0;
+                        for (int c = 0; c < channels; c++) {
+                            int i = (f * channels + c) * 2;
+                            sum += (short)((block[i] & 0xff) | (block[i+1] << 8));
+                        }
+                        short mono = (short)(sum / channels);
+                        for(LevelWriter w : writers){
+                            w.add(mono);
+                        }
+                    }
+                    carry = available - frames * pcm.getFrameSize();
+                    System.arraycopy(block, frames * pcm.getFrameSize(), block, 0, carry);
+                }
+            }
+            for(LevelWriter w : writers){
+                w.close();
+            }
+
+            Path tmp = Files.createTempFile(target.getParent(), "peaks", ".tmp");
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp)))){
+                int dataOffset = 16 + levels * 12;
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeFloat(sampleRate);
+                out.writeInt(levels);
+                for (int l = 0; l < levels; l++) {
+                    out.writeInt(FRAMES_PER_BUCKET[l]);
+                    out.writeInt(writers[l].buckets);
+                    out.writeInt(dataOffset);
+                    dataOffset += writers[l].buckets * BUCKET_BYTES;
+                }
+                for(Path part : parts){
+                    Files.copy(part, out);
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            for (int l = 0; l < levels; l++) {
+                if(writers[l] != null){
+                    writers[l].close();
+                }
+            }
+            for(Path part : parts){
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+
+    //accumulates one bucket at a time and streams finished buckets out
+    private static final class LevelWriter {
+        private final int framesPerBucket;
+        private final DataOutputStream out;
+        private int frames;
+        private int min = Short.MAX_VALUE;
+        private int max = Short.MIN_VALUE;
+        private double sumSquares;
+        private int buckets;
+        private boolean closed;
+
+        LevelWriter(int framesPerBucket, OutputStream out){
+            this.framesPerBucket = framesPerBucket;
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+        }
+
+        void add(short sample) throws IOException {
+            if(sample < min) min = sample;
+            if(sample > max) max = sample;
+            sumSquares += (double)sample * sample;
+            if(++frames == framesPerBucket){
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            out.writeShort(min);
+            out.writeShort(max);
+            out.writeShort((int)Math.min(Short.MAX_VALUE, Math.sqrt(sumSquares / frames)));
+            ++buckets;
+            frames = 0;
+            min = Short.MAX_VALUE;
+            max = Short.MIN_VALUE;
+            sumSquares = 0;
+        }
+
+        void close() throws IOException {
+            if(!closed){
+                closed = true;
+                if(frames > 0){
+                    flush();
+                }
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package javafxradio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+//finds or builds the peak file of a local track, keyed by a hash of its content.
+//A track that cannot be decoded gets an empty .failed file instead, so it is not
+//decoded again on every load; a changed file has another key and is tried again.
+final class WaveformStore {
+    //the key hashes the size plus the first and last 64 KiB, enough to tell tracks
+    //apart without reading multi-hour files in full
+    private static final int HASH_SAMPLE = 64 * 1024;
+
+    private final Path dir;
+    private final ExecutorService executor;
+    //one generation per key even if several views ask at once
+    private final Map<String, CompletableFuture<WaveformPeaks>> pending = new ConcurrentHashMap<>();
+
+    WaveformStore(Path dir){
+        this.dir = dir;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "waveform-peaks");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    //completes with the peaks of a file: URL, or exceptionally if it cannot be decoded
+    CompletableFuture<WaveformPeaks> get(String url){
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Paths.get(new URI(url));
+            } catch(Exception e){
+                throw new IllegalArgumentException("Not a local file: "+url, e);
+            }
+        }).thenCompose(file -> {
+            final String key;
+            try {
+                key = contentKey(file);
+                Path peakFile = dir.resolve(key + ".peaks");
+                if(Files.exists(peakFile)){
+                    return CompletableFuture.completedFuture(WaveformPeaks.open(peakFile));
+                }
+                if(Files.exists(dir.resolve(key + ".failed"))){
+                    return failed(new UnsupportedAudioFileException(
+                            "Decoding failed before: "+url));
+                }
+            } catch(IOException e){
+                return failed(e);
+            }
+            return pending.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    Files.createDirectories(dir);
+                    Path peakFile = dir.resolve(k + ".peaks");
+                    try {
+                        WaveformPeaks.generate(url, peakFile);
+                    } catch(UnsupportedAudioFileException | IllegalArgumentException e){
+                        //no decoder for the format or no conversion to PCM, I/O errors
+                        //such as a full disk or a file still being written are retried
+                        markFailed(k);
+                        throw e;
+                    }
+                    return WaveformPeaks.open(peakFile);
+                } catch(Exception e){
+                    throw new IllegalStateException("Peak generation failed for "+url, e);
+                } finally {
+                    pending.remove(k);
+                }
+            }, executor));
+        });
+    }
+
+    private void markFailed(String key){
+        try {
+            Files.write(dir.resolve(key + ".failed"), new byte[0]);
+        } catch(IOException e){
+            System.out.println("Waveform failure not stored: "+e);
+        }
+    }
+
+    static String contentKey(Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            ByteBuffer sizeBytes = ByteBuffer.allocate(8).putLong(0, size);
+            digest.update(sizeBytes);
+            ByteBuffer sample = ByteBuffer.allocate((int)Math.min(HASH_SAMPLE, size));
+            readAt(channel, sample, 0);
+            digest.update(sample);
+            if(size > HASH_SAMPLE){
+                sample.clear();
+                readAt(channel, sample, Math.max(HASH_SAMPLE, size - HASH_SAMPLE));
+                digest.update(sample);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for(byte b : digest.digest()){
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void readAt(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while(buffer.hasRemaining()){
+            int n = channel.read(buffer, position + buffer.position());
+            if(n < 0){
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable t){
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(t);
+        return f;
+    }
+}